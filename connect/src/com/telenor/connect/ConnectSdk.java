@@ -2,6 +2,7 @@ package com.telenor.connect;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
@@ -15,6 +16,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
@@ -23,29 +25,58 @@ import android.util.Log;
 import com.google.android.gms.ads.identifier.AdvertisingIdClient;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.telenor.connect.analytics.AnalyticsPipeline;
 import com.telenor.connect.id.AccessTokenCallback;
 import com.telenor.connect.id.ConnectIdService;
 import com.telenor.connect.id.IdToken;
 import com.telenor.connect.id.ConnectStore;
+import com.telenor.connect.id.KeyStoreTokenCipher;
+import com.telenor.connect.id.TokenCipher;
+import com.telenor.connect.id.TokenRefreshScheduler;
+import com.telenor.connect.id.TokenStateStream;
+import com.telenor.connect.id.TokenVault;
 import com.telenor.connect.id.UserInfo;
 import com.telenor.connect.ui.ConnectActivity;
 import com.telenor.connect.ui.ConnectWebFragment;
 import com.telenor.connect.ui.ConnectWebViewLoginButton;
+import com.telenor.connect.ui.LoginWebViewPool;
+import com.telenor.connect.utils.CellularFetcher;
 import com.telenor.connect.utils.ConnectUrlHelper;
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.ConnectFuture;
 import com.telenor.connect.utils.ConnectUtils;
+import com.telenor.connect.utils.DnsCache;
+import com.telenor.connect.utils.HeadersDateUtil;
+import com.telenor.connect.utils.JwkSetCache;
 import com.telenor.connect.utils.RestHelper;
+import com.telenor.connect.utils.StartupTrace;
+import com.telenor.connect.utils.StaticResourceCache;
 import com.telenor.connect.utils.Validator;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -55,13 +86,26 @@ public final class ConnectSdk {
     private static ConnectivityManager connectivityManager;
     private static volatile Network cellularNetwork;
     private static volatile Network defaultNetwork;
+    private static CellularFetcher cellularFetcher;
+    // Not guarded by the class lock: initialization pre-resolves hosts with it while other
+    // threads may hold the class lock waiting for initialization to complete.
+    private static final Object dnsCacheLock = new Object();
+    private static volatile DnsCache dnsCache;
+    private static volatile StaticResourceCache staticResourceCache;
     private static ConnectStore connectStore;
     private static WellKnownConfigStore lastSeenWellKnownConfigStore;
     private static ConnectIdService connectIdService;
     private static Context context;
     private static boolean confidentialClient;
-    private static WellKnownAPI.WellKnownConfig wellKnownConfig;
+    private static boolean encryptTokens;
+    private static volatile WellKnownAPI.WellKnownConfig wellKnownConfig;
+    private static JwkSetCache jwkSetCache;
+    private static AnalyticsPipeline analyticsPipeline;
     private static volatile boolean isInitialized = false;
+    private static volatile CountDownLatch pendingInitialization;
+    private static volatile RuntimeException initializationError;
+    private static final List<SdkInitializationCallback> initializationCallbacks
+            = new ArrayList<>();
     private static String clientId;
     private static String redirectUri;
     private static boolean useStaging;
@@ -71,6 +115,7 @@ public final class ConnectSdk {
     private static volatile long tsRedirectUrlInvoked;
     private static volatile long tsTokenResponseReceived;
     private static volatile String logSessionId;
+    private static volatile boolean smsRetrieverEnabled;
 
     /**
      * The key for the client ID in the Android manifest.
@@ -82,6 +127,12 @@ public final class ConnectSdk {
      */
     public static final String CONFIDENTIAL_CLIENT_PROPERTY = "com.telenor.connect.CONFIDENTIAL_CLIENT";
 
+    /**
+     * The key for encrypting saved tokens in the Android manifest. Only has an effect on
+     * API level 23 and above, where the Android Keystore supports AES keys.
+     */
+    public static final String ENCRYPT_TOKENS_PROPERTY = "com.telenor.connect.ENCRYPT_TOKENS";
+
     /**
      * The key for the redirect URI in the Android manifest.
      */
@@ -95,12 +146,16 @@ public final class ConnectSdk {
 
     public static final int MAX_REDIRECTS_TO_FOLLOW_FOR_HE = 5;
 
+    private static final String STATIC_RESOURCES_DIRECTORY
+            = "com.telenor.connect.STATIC_RESOURCES";
+    private static final long ANALYTICS_AUTHORIZATION_TIMEOUT_SECONDS = 30;
+
     public static void beforeAuthentication() {
         logSessionId = UUID.randomUUID().toString();
         tsLoginButtonClicked = System.currentTimeMillis();
     }
 
-    public static synchronized void authenticate(
+    public static void authenticate(
             Activity activity,
             int requestCode,
             String... scopeTokens) {
@@ -109,7 +164,7 @@ public final class ConnectSdk {
         authenticate(activity, parameters, requestCode);
     }
 
-    public static synchronized void authenticate(
+    public static void authenticate(
             final Activity activity,
             final Map<String, String> parameters,
             final int requestCode) {
@@ -117,10 +172,10 @@ public final class ConnectSdk {
         authenticate(activity, parameters, ConnectWebViewLoginButton.NO_CUSTOM_LAYOUT, requestCode);
     }
 
-    public static synchronized void authenticate(final Activity activity,
-                                                 final Map<String, String> parameters,
-                                                 final int customLoadingLayout,
-                                                 final int requestCode) {
+    public static void authenticate(final Activity activity,
+                                    final Map<String, String> parameters,
+                                    final int customLoadingLayout,
+                                    final int requestCode) {
         Validator.sdkInitialized();
         Intent intent = getAuthIntent(parameters);
         if (customLoadingLayout != ConnectWebViewLoginButton.NO_CUSTOM_LAYOUT) {
@@ -133,16 +188,51 @@ public final class ConnectSdk {
         final Intent intent = new Intent();
         intent.setClass(getContext(), ConnectActivity.class);
         intent.setAction(ConnectUtils.LOGIN_ACTION);
+        final String url = getWebViewAuthorizeUrl(parameters);
+        intent.putExtra(ConnectUtils.LOGIN_AUTH_URI, url);
+        intent.putExtra(ConnectUtils.WELL_KNOWN_CONFIG_EXTRA, wellKnownConfig);
+        return intent;
+    }
+
+    private static String getWebViewAuthorizeUrl(Map<String, String> parameters) {
         String mccMnc = getMccMnc();
         if (!TextUtils.isEmpty(mccMnc) && wellKnownConfig != null &&
                 !(wellKnownConfig.getNetworkAuthenticationTargetIps().isEmpty()
                         && wellKnownConfig.getNetworkAuthenticationTargetUrls().isEmpty())) {
             parameters.put("login_hint", String.format("MCCMNC:%s", mccMnc));
         }
-        final String url = ConnectUrlHelper.getAuthorizeUri(parameters, BrowserType.WEB_VIEW).toString();
-        intent.putExtra(ConnectUtils.LOGIN_AUTH_URI, url);
-        intent.putExtra(ConnectUtils.WELL_KNOWN_CONFIG_EXTRA, wellKnownConfig);
-        return intent;
+        return ConnectUrlHelper.getAuthorizeUri(parameters, BrowserType.WEB_VIEW).toString();
+    }
+
+    /**
+     * Start loading the login page in a hidden {@code WebView}, so that it is already loaded
+     * when the user logs in. The page is used by the next login, through {@code authenticate},
+     * {@code getAuthFragment} or a login button, whose parameters are the same, apart from
+     * {@code log_session_id}. A prewarmed page that is not used within ten minutes is discarded.
+     * Must be called on the main thread.
+     *
+     * @param parameters the authorization parameters of the expected login.
+     */
+    public static void prewarmLogin(Map<String, String> parameters) {
+        Validator.sdkInitialized();
+        String url = getWebViewAuthorizeUrl(new HashMap<>(parameters));
+        LoginWebViewPool.prewarm(getContext(), url);
+    }
+
+    /**
+     * Destroy the page started by {@code prewarmLogin}, if it has not been used yet. Must be
+     * called on the main thread.
+     */
+    public static void releasePrewarmedLogin() {
+        LoginWebViewPool.release();
+    }
+
+    /**
+     * @return the time in milliseconds from the last login page being requested until it was
+     * first painted, or {@code -1} if none has been painted yet.
+     */
+    public static long getLoginTimeToFirstPaintMillis() {
+        return LoginWebViewPool.getLastTimeToFirstPaintMillis();
     }
 
     /**
@@ -173,12 +263,30 @@ public final class ConnectSdk {
      *
      * @param callback callback that will be called on success or failure to update.
      */
-    public static synchronized void getValidAccessToken(AccessTokenCallback callback) {
+    public static void getValidAccessToken(AccessTokenCallback callback) {
         Validator.sdkInitialized();
         connectIdService.getValidAccessToken(callback);
     }
 
-    public static synchronized String getAccessToken() {
+    /**
+     * Get a valid Access Token, refreshing it first if it has expired. The returned future fails
+     * with a {@link ConnectNotSignedInException} if no user is signed in.
+     *
+     * @return a future that is completed with the access token.
+     */
+    public static ConnectFuture<String> getValidAccessToken() {
+        Validator.sdkInitialized();
+        return connectIdService.getValidAccessToken();
+    }
+
+    /**
+     * Get the current Access Token without checking whether it has expired, or {@code null} if
+     * no user is signed in. This does not block and can be called on every outgoing request.
+     *
+     * @return the current Access Token.
+     * @see com.telenor.connect.id.AccessTokenInterceptor
+     */
+    public static String getAccessToken() {
         Validator.sdkInitialized();
         return connectIdService.getAccessToken();
     }
@@ -188,12 +296,12 @@ public final class ConnectSdk {
      *
      * @return the expiration time of the Access Token in form of a {@code Date}.
      */
-    public static synchronized Date getAccessTokenExpirationTime() {
+    public static Date getAccessTokenExpirationTime() {
         Validator.sdkInitialized();
         return connectIdService.getAccessTokenExpirationTime();
     }
 
-    public static synchronized void getAccessTokenFromCode(String code, final ConnectCallback callback) {
+    public static void getAccessTokenFromCode(String code, final ConnectCallback callback) {
         Validator.sdkInitialized();
         tsRedirectUrlInvoked = System.currentTimeMillis();
         connectIdService.getAccessTokenFromCode(code, new ConnectCallback() {
@@ -222,11 +330,8 @@ public final class ConnectSdk {
             return;
         }
 
-        String accessToken = getAccessToken();
-        final String auth = accessToken != null ? "Bearer " + accessToken : null;
         final String subject = getIdToken() != null ? getIdToken().getSubject() : null;
-        RestHelper.getAnalyticsApi(getWellKnownConfig().getAnalyticsEndpoint()).sendAnalyticsData(
-                auth,
+        analyticsPipeline.enqueue(
                 new AnalyticsAPI.SDKAnalyticsData(
                         getApplicationName(),
                         getApplicationVersion(),
@@ -237,24 +342,37 @@ public final class ConnectSdk {
                         tsLoginButtonClicked,
                         tsRedirectUrlInvoked,
                         tsTokenResponseReceived
-                ))
-                .enqueue(new Callback<Void>() {
-                    @Override
-                    public void onResponse(Call<Void> call, Response<Void> response) {
-                        if (!response.isSuccessful()) {
-                            Log.e(ConnectUtils.LOG_TAG, "Failed to send analytics data");
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(Call<Void> call, Throwable error) {
-                        Log.e(ConnectUtils.LOG_TAG, "Failed to send analytics data", error);
-                    }
-                });
+                ),
+                subject);
     }
 
 
 
+    /**
+     * @return the Authorization header for an analytics event of the subject, with a valid
+     * Access Token, or {@code null} if the subject is no longer the signed in user.
+     */
+    private static String getAnalyticsAuthorization(String subject) throws IOException {
+        IdToken idToken = connectIdService.getIdToken();
+        if (subject == null || idToken == null || !subject.equals(idToken.getSubject())) {
+            return null;
+        }
+        try {
+            return "Bearer " + connectIdService.getValidAccessToken()
+                    .get(ANALYTICS_AUTHORIZATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectNotSignedInException) {
+                return null;
+            }
+            throw new IOException("Failed to get an Access Token for analytics", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out getting an Access Token for analytics", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted getting an Access Token for analytics");
+        }
+    }
+
     public static Context getContext() {
         Validator.sdkInitialized();
         return context;
@@ -301,12 +419,12 @@ public final class ConnectSdk {
         return Collections.singletonList(clientId);
     }
 
-    public static synchronized boolean isConfidentialClient() {
+    public static boolean isConfidentialClient() {
         Validator.sdkInitialized();
         return confidentialClient;
     }
 
-    public static synchronized boolean isInitialized() {
+    public static boolean isInitialized() {
         return isInitialized;
     }
 
@@ -315,68 +433,258 @@ public final class ConnectSdk {
         connectIdService.logOut(getContext());
     }
 
-    public static synchronized void sdkInitialize(Context applicationContext) {
+    public static void sdkInitialize(Context applicationContext) {
         sdkInitialize(applicationContext, true);
     }
 
-    public static synchronized void sdkInitialize(Context applicationContext,
-                                                  boolean useStagingEnvironment) {
-        if (isInitialized()) {
-            return;
+    public static void sdkInitialize(Context applicationContext, boolean useStagingEnvironment) {
+        Validator.notNull(applicationContext, "context");
+        while (!isInitialized()) {
+            // An initialization started with sdkInitializeAsync is waited for without holding
+            // the class lock, since the initialization thread may need it.
+            if (awaitInitialization()) {
+                return;
+            }
+            synchronized (ConnectSdk.class) {
+                if (isInitialized()) {
+                    return;
+                }
+                if (pendingInitialization == null) {
+                    StartupTrace.beginSection("ConnectSdk.sdkInitialize");
+                    try {
+                        initialize(applicationContext, useStagingEnvironment);
+                    } finally {
+                        StartupTrace.endSection();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Initializes the SDK without blocking the calling thread. Only the context and environment
+     * are set on the calling thread; reading the manifest configuration and saved state,
+     * registering for networks and fetching the well-known configuration happen on a background
+     * thread. SDK methods called before initialization has completed block until it has.
+     *
+     * @param applicationContext the application context.
+     * @param useStagingEnvironment whether to use the staging environment.
+     * @param callback called on the main thread when initialization has completed, or
+     *                 {@code null}.
+     */
+    public static synchronized void sdkInitializeAsync(
+            final Context applicationContext,
+            final boolean useStagingEnvironment,
+            @Nullable SdkInitializationCallback callback) {
+        Validator.notNull(applicationContext, "context");
+        StartupTrace.beginSection("ConnectSdk.sdkInitializeAsync");
+        try {
+            if (!isInitialized() && pendingInitialization == null) {
+                startInitialization(applicationContext, useStagingEnvironment);
+            }
+            if (callback != null && !addInitializationCallback(callback)) {
+                notifyInitializationCallbacks(
+                        Collections.singletonList(callback), initializationError);
+            }
+        } finally {
+            StartupTrace.endSection();
         }
+    }
+
+    private static void startInitialization(
+            final Context applicationContext, final boolean useStagingEnvironment) {
         context = applicationContext;
-        Validator.notNull(context, "context");
+        useStaging = useStagingEnvironment;
+        final CountDownLatch latch = new CountDownLatch(1);
+        pendingInitialization = latch;
+        ConnectExecutors.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                RuntimeException error = null;
+                StartupTrace.beginSection("ConnectSdk.initialize");
+                try {
+                    initialize(applicationContext, useStagingEnvironment);
+                } catch (RuntimeException e) {
+                    Log.e(ConnectUtils.LOG_TAG, "Failed to initialize the SDK", e);
+                    error = e;
+                } finally {
+                    StartupTrace.endSection();
+                }
+                List<SdkInitializationCallback> callbacks;
+                synchronized (initializationCallbacks) {
+                    initializationError = error;
+                    pendingInitialization = null;
+                    callbacks = new ArrayList<>(initializationCallbacks);
+                    initializationCallbacks.clear();
+                }
+                latch.countDown();
+                notifyInitializationCallbacks(callbacks, error);
+            }
+        });
+    }
 
+    /**
+     * Blocks until initialization started with {@code sdkInitializeAsync} has completed.
+     *
+     * @return {@code true} if the SDK is initialized.
+     */
+    public static boolean awaitInitialization() {
+        CountDownLatch latch = pendingInitialization;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return isInitialized;
+    }
+
+    /**
+     * @return {@code false} if initialization is not pending, so the callback was not added.
+     */
+    private static boolean addInitializationCallback(SdkInitializationCallback callback) {
+        synchronized (initializationCallbacks) {
+            if (isInitialized || pendingInitialization == null) {
+                return false;
+            }
+            initializationCallbacks.add(callback);
+            return true;
+        }
+    }
+
+    private static void notifyInitializationCallbacks(
+            final List<SdkInitializationCallback> callbacks, final RuntimeException error) {
+        if (callbacks.isEmpty()) {
+            return;
+        }
+        ConnectExecutors.getMainThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (SdkInitializationCallback callback : callbacks) {
+                    if (isInitialized) {
+                        callback.onInitialized();
+                    } else {
+                        callback.onError(error != null
+                                ? error : new ConnectNotInitializedException("Not initialized"));
+                    }
+                }
+            }
+        });
+    }
+
+    private static void initialize(Context applicationContext, boolean useStagingEnvironment) {
+        context = applicationContext;
         useStaging = useStagingEnvironment;
+
+        StartupTrace.beginSection("ConnectSdk.loadConnectConfig");
         loadConnectConfig(context);
-        connectStore = new ConnectStore(context);
+        StartupTrace.endSection();
+
+        StartupTrace.beginSection("ConnectSdk.loadStores");
+        TokenCipher tokenCipher = encryptTokens && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? new KeyStoreTokenCipher() : null;
+        connectStore = new ConnectStore(context, new TokenVault(context, tokenCipher));
         lastSeenWellKnownConfigStore = new WellKnownConfigStore(context);
         wellKnownConfig = lastSeenWellKnownConfigStore.get();
+        StartupTrace.endSection();
+
         String apiUrl = ConnectUrlHelper.getConnectApiUrl(useStaging).toString();
+        jwkSetCache = new JwkSetCache(context, RestHelper.getJwksApi(apiUrl));
+        if (wellKnownConfig != null) {
+            jwkSetCache.setJwksUri(wellKnownConfig.getJwksUri());
+        }
         connectIdService = new ConnectIdService(
                 connectStore,
                 RestHelper.getConnectApi(apiUrl),
                 clientId,
                 redirectUri);
-        RestHelper.
-                getWellKnownApi(apiUrl).getWellKnownConfig()
-                .enqueue(new Callback<WellKnownAPI.WellKnownConfig>() {
-                    @Override
-                    public void onResponse(Call<WellKnownAPI.WellKnownConfig> call,
-                                           Response<WellKnownAPI.WellKnownConfig> response) {
-                        if (response.isSuccessful()) {
-                            final WellKnownAPI.WellKnownConfig config = response.body();
-                            wellKnownConfig = config;
-                            lastSeenWellKnownConfigStore.set(config);
-                        } else {
-                            wellKnownConfig = null;
-                        }
-                    }
+        connectIdService.setJwkSetCache(jwkSetCache);
+        refreshWellKnownConfig(apiUrl);
+        staticResourceCache = new StaticResourceCache(
+                new File(context.getCacheDir(), STATIC_RESOURCES_DIRECTORY),
+                RestHelper.newClientBuilder().build(),
+                ConnectUrlHelper.getPrefetchStaticResourcesUrl(useStaging).toString());
+        staticResourceCache.refreshAsync();
+        analyticsPipeline = new AnalyticsPipeline(context, new AnalyticsPipeline.Target() {
+            @Override
+            public String getEndpoint() {
+                return wellKnownConfig != null ? wellKnownConfig.getAnalyticsEndpoint() : null;
+            }
 
-                    @Override
-                    public void onFailure(Call<WellKnownAPI.WellKnownConfig> call, Throwable error) {
-                        wellKnownConfig = null;
-                    }
-                });
+            @Override
+            public String getAuthorization(String subject) throws IOException {
+                return getAnalyticsAuthorization(subject);
+            }
+        });
 
+        StartupTrace.beginSection("ConnectSdk.requestNetworks");
         connectivityManager
                 = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (connectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             initalizeCellularNetwork();
             initalizeDefaultNetwork();
         }
+        preResolveTargetHosts();
+        StartupTrace.endSection();
+
         initializeAdvertisingId(context);
         isInitialized = true;
         tsSdkInitiliazation = System.currentTimeMillis();
     }
 
-
     public static String getMccMnc() {
         TelephonyManager tel
                 = (TelephonyManager)getContext().getSystemService(Context.TELEPHONY_SERVICE);
         return tel.getNetworkOperator();
     }
 
+    /**
+     * Makes the SDK derive its HTTP clients from the given client, so that they share its
+     * connection pool, dispatcher and TLS settings with the rest of the app. The client's
+     * interceptors, authenticators and timeouts are not applied to requests of the SDK. Must be called
+     * before {@code sdkInitialize} to apply to all requests made by the SDK.
+     *
+     * @param okHttpClient the client to derive from, or {@code null} to use the SDK's default.
+     */
+    public static void setOkHttpClient(OkHttpClient okHttpClient) {
+        RestHelper.setOkHttpClient(okHttpClient);
+        synchronized (ConnectSdk.class) {
+            cellularFetcher = null;
+        }
+    }
+
+    /**
+     * Sets the executor responses from the API are parsed and validated on. Defaults to a small
+     * pool of background threads.
+     *
+     * @param executor the executor to use, or {@code null} to use the SDK's default.
+     */
+    public static void setParsingExecutor(Executor executor) {
+        ConnectExecutors.setParsingExecutor(executor);
+    }
+
+    /**
+     * Sets the executor the tokens are saved on. The executor must run the writes one at a time,
+     * in the order they were submitted.
+     *
+     * @param executor the executor to use, or {@code null} to use the SDK's default.
+     */
+    public static void setPersistenceExecutor(Executor executor) {
+        ConnectExecutors.setPersistenceExecutor(executor);
+    }
+
+    /**
+     * Sets the executor the callbacks and future listeners of the app are called on. Defaults
+     * to the main thread.
+     *
+     * @param executor the executor to use, or {@code null} to use the main thread.
+     */
+    public static void setCallbackExecutor(Executor executor) {
+        ConnectExecutors.setCallbackExecutor(executor);
+    }
+
     public static void setLocales(Locale... locales) {
         sLocales = new ArrayList<Locale>(Arrays.asList(locales));
     }
@@ -385,6 +693,21 @@ public final class ConnectSdk {
         sLocales = locales;
     }
 
+    /**
+     * Reads the PIN of a login from the SMS that the SMS Retriever API of Google Play services
+     * hands to this app, instead of asking for the SMS permissions and reading the inbox. Only
+     * enable this when the server sends the PIN SMS ending with the hash of this app.
+     *
+     * @param enabled whether to use the SMS Retriever API. Defaults to {@code false}.
+     */
+    public static void setSmsRetrieverEnabled(boolean enabled) {
+        smsRetrieverEnabled = enabled;
+    }
+
+    public static boolean isSmsRetrieverEnabled() {
+        return smsRetrieverEnabled;
+    }
+
     /**
      * Manually update the access token.
      *
@@ -395,12 +718,68 @@ public final class ConnectSdk {
         connectIdService.updateTokens(callback);
     }
 
+    /**
+     * Manually update the access token. The returned future fails with a
+     * {@link ConnectNotSignedInException} if no user is signed in, or was signed out because the
+     * refresh token was rejected.
+     *
+     * @return a future that is completed with the refreshed access token.
+     */
+    public static ConnectFuture<String> updateTokens() {
+        Validator.sdkInitialized();
+        return connectIdService.updateTokens();
+    }
+
+    /**
+     * Fetches the well-known configuration unless the saved copy is still fresh, revalidating
+     * the saved copy with its ETag. The saved configuration keeps being used if the fetch fails.
+     */
+    private static void refreshWellKnownConfig(String apiUrl) {
+        if (wellKnownConfig != null
+                && lastSeenWellKnownConfigStore.getExpiresAt() > System.currentTimeMillis()) {
+            return;
+        }
+        String etag = wellKnownConfig != null ? lastSeenWellKnownConfigStore.getEtag() : null;
+        RestHelper.
+                getWellKnownApi(apiUrl).getWellKnownConfig(etag)
+                .enqueue(new Callback<WellKnownAPI.WellKnownConfig>() {
+                    @Override
+                    public void onResponse(Call<WellKnownAPI.WellKnownConfig> call,
+                                           Response<WellKnownAPI.WellKnownConfig> response) {
+                        long now = System.currentTimeMillis();
+                        long expiresAt = HeadersDateUtil.extractExpirationTime(
+                                response.headers(), now, 0);
+                        if (response.code() == 304) {
+                            lastSeenWellKnownConfigStore.setRevalidated(now, expiresAt);
+                        } else if (response.isSuccessful() && response.body() != null) {
+                            final WellKnownAPI.WellKnownConfig config = response.body();
+                            wellKnownConfig = config;
+                            lastSeenWellKnownConfigStore.set(
+                                    config, response.headers().get("ETag"), now, expiresAt);
+                            jwkSetCache.setJwksUri(config.getJwksUri());
+                            preResolveTargetHosts();
+                        } else {
+                            Log.w(ConnectUtils.LOG_TAG, "Failed to fetch well-known"
+                                    + " configuration, using the saved configuration."
+                                    + " response=" + response);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Call<WellKnownAPI.WellKnownConfig> call, Throwable error) {
+                        Log.w(ConnectUtils.LOG_TAG, "Failed to fetch well-known configuration,"
+                                + " using the saved configuration.", error);
+                    }
+                });
+    }
+
     private static void loadConnectConfig(Context context) {
         ApplicationInfo ai = getApplicationInfo(context);
         if (ai == null || ai.metaData == null) {
             throw new ConnectException("No application metadata was found.");
         }
         confidentialClient = fetchBooleanProperty(ai, CONFIDENTIAL_CLIENT_PROPERTY);
+        encryptTokens = fetchBooleanProperty(ai, ENCRYPT_TOKENS_PROPERTY);
 
         Object clientIdObject = ai.metaData.get(CLIENT_ID_PROPERTY);
         if (clientIdObject instanceof String) {
@@ -441,6 +820,28 @@ public final class ConnectSdk {
         return wellKnownConfig;
     }
 
+    /**
+     * @return when the well-known configuration expires and will be revalidated on the next
+     * {@code sdkInitialize}, or {@code null} if there is no saved configuration.
+     */
+    public static Date getWellKnownConfigExpirationTime() {
+        Validator.sdkInitialized();
+        if (wellKnownConfig == null) {
+            return null;
+        }
+        return new Date(lastSeenWellKnownConfigStore.getExpiresAt());
+    }
+
+    /**
+     * @return when the well-known configuration was last fetched or revalidated, or
+     * {@code null} if that is not known.
+     */
+    public static Date getWellKnownConfigFetchTime() {
+        Validator.sdkInitialized();
+        long fetchedAt = lastSeenWellKnownConfigStore.getFetchedAt();
+        return wellKnownConfig != null && fetchedAt > 0 ? new Date(fetchedAt) : null;
+    }
+
     /**
      * @return the subject's ID (sub), if one is signed in. Otherwise {@code null}.
      * @deprecated use {@code getIdToken()} instead to access user information.
@@ -464,6 +865,40 @@ public final class ConnectSdk {
         return connectIdService.getIdToken();
     }
 
+    /**
+     * Returns the subject IDs of the users that are signed in on this device. Signing in another
+     * user keeps the tokens of the users that were signed in before.
+     *
+     * @return the subject IDs of the signed in users
+     */
+    public static Set<String> getAccounts() {
+        Validator.sdkInitialized();
+        return connectIdService.getAccounts();
+    }
+
+    /**
+     * Makes the signed in user with the subject ID the active one, whose tokens are used by
+     * the rest of the SDK. No tokens are fetched or refreshed by the switch itself.
+     *
+     * @param subject the subject ID of a signed in user, as given by {@link #getAccounts()}
+     * @return {@code false} if no signed in user has the subject ID
+     */
+    public static boolean switchAccount(String subject) {
+        Validator.sdkInitialized();
+        return connectIdService.switchAccount(subject);
+    }
+
+    /**
+     * Returns the stream the changes of the signed in user's tokens are published to. Listeners
+     * are given the new tokens with each change, and can choose the executor they are called on.
+     *
+     * @return the token state stream
+     */
+    public static TokenStateStream getTokenStateStream() {
+        Validator.sdkInitialized();
+        return connectIdService.getTokenStateStream();
+    }
+
     /**
      * Fetches the logged in user's info from the /oauth/userinfo endpoint.
      * See http://docs.telenordigital.com/apis/connect/id/authentication.html#authorization-server-user-information
@@ -582,6 +1017,8 @@ public final class ConnectSdk {
                         @Override
                         public void onAvailable(Network network) {
                             cellularNetwork = network;
+                            getDnsCache().clear();
+                            preResolveTargetHosts();
                         }
                     }
             );
@@ -611,20 +1048,21 @@ public final class ConnectSdk {
     }
 
     private static void initializeAdvertisingId(final Context context) {
-        GoogleApiAvailability googleAPI = GoogleApiAvailability.getInstance();
-        if (googleAPI.isGooglePlayServicesAvailable(context) == ConnectionResult.SUCCESS) {
-            new Thread(new Runnable() {
-                public void run() {
-                    AdvertisingIdClient.Info adInfo;
-                    try {
-                        adInfo = AdvertisingIdClient.getAdvertisingIdInfo(context);
-                        advertisingId = adInfo.getId();
-                    } catch (Exception e) {
-                        Log.w(ConnectUtils.LOG_TAG, "Failed to read advertising id", e);
-                    }
+        ConnectExecutors.getIoExecutor().execute(new Runnable() {
+            public void run() {
+                GoogleApiAvailability googleAPI = GoogleApiAvailability.getInstance();
+                if (googleAPI.isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
+                    return;
                 }
-            }).start();
-        }
+                AdvertisingIdClient.Info adInfo;
+                try {
+                    adInfo = AdvertisingIdClient.getAdvertisingIdInfo(context);
+                    advertisingId = adInfo.getId();
+                } catch (Exception e) {
+                    Log.w(ConnectUtils.LOG_TAG, "Failed to read advertising id", e);
+                }
+            }
+        });
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -637,6 +1075,103 @@ public final class ConnectSdk {
         return defaultNetwork;
     }
 
+    /**
+     * @return the fetcher used for header enrichment, which keeps per-hop timings of the last
+     * fetch and counts how often the cellular network had to be given up for the default one.
+     */
+    public static synchronized CellularFetcher getCellularFetcher() {
+        if (cellularFetcher == null) {
+            cellularFetcher = new CellularFetcher(MAX_REDIRECTS_TO_FOLLOW_FOR_HE);
+        }
+        return cellularFetcher;
+    }
+
+    /**
+     * @return the cache used to resolve hosts without blocking the calling thread.
+     */
+    public static DnsCache getDnsCache() {
+        if (dnsCache == null) {
+            synchronized (dnsCacheLock) {
+                if (dnsCache == null) {
+                    dnsCache = new DnsCache(new DnsCache.Resolver() {
+                        @Override
+                        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+                        public InetAddress[] resolve(String host) throws UnknownHostException {
+                            Network network = cellularNetwork;
+                            if (network != null) {
+                                return network.getAllByName(host);
+                            }
+                            return InetAddress.getAllByName(host);
+                        }
+                    });
+                }
+            }
+        }
+        return dnsCache;
+    }
+
+    /**
+     * @return the disk cache of the static resources of the login pages, or {@code null} if the
+     * SDK has not been initialized.
+     */
+    public static StaticResourceCache getStaticResourceCache() {
+        return staticResourceCache;
+    }
+
+    /**
+     * Resolves the hosts of the network authentication targets and of the Connect API through
+     * the cellular network in the background, so that header enrichment does not wait for DNS.
+     */
+    private static void preResolveTargetHosts() {
+        WellKnownAPI.WellKnownConfig config = wellKnownConfig;
+        if (config == null
+                || (config.getNetworkAuthenticationTargetUrls().isEmpty()
+                    && config.getNetworkAuthenticationTargetIps().isEmpty())) {
+            return;
+        }
+        Set<String> hosts = new HashSet<>();
+        hosts.add(ConnectUrlHelper.getConnectApiUrl(useStaging).host());
+        for (String targetUrl : config.getNetworkAuthenticationTargetUrls()) {
+            HttpUrl url = HttpUrl.parse(targetUrl);
+            if (url != null) {
+                hosts.add(url.host());
+            }
+        }
+        getDnsCache().prefetch(hosts);
+    }
+
+    /**
+     * Refresh the access token in the background before it expires, so that
+     * {@code getValidAccessToken} rarely has to wait for a refresh. Background refreshes are
+     * paused while the app has no started activities.
+     *
+     * @param refreshSkewSeconds how many seconds before the access token expires it should be
+     *                           refreshed.
+     */
+    public static void enableBackgroundTokenRefresh(long refreshSkewSeconds) {
+        Validator.sdkInitialized();
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application)) {
+            throw new ConnectException("Background token refresh needs an Application context.");
+        }
+        synchronized (ConnectSdk.class) {
+            connectIdService.setTokenRefreshScheduler(new TokenRefreshScheduler(
+                    (Application) applicationContext,
+                    connectIdService,
+                    TimeUnit.SECONDS.toMillis(refreshSkewSeconds)));
+        }
+    }
+
+    /**
+     * Stop refreshing the access token in the background. It will be refreshed on demand.
+     */
+    public static void disableBackgroundTokenRefresh() {
+        Validator.sdkInitialized();
+        synchronized (ConnectSdk.class) {
+            connectIdService.setTokenRefreshScheduler(null);
+        }
+    }
+
     private static String getAdvertisingId() {
         return advertisingId;
     }
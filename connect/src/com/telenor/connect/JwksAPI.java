@@ -0,0 +1,17 @@
+package com.telenor.connect;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Url;
+
+public interface JwksAPI {
+
+    /**
+     * @param jwksUri the {@code jwks_uri} from the well-known configuration.
+     * @param etag the ETag of the cached key set, or {@code null} if there is none.
+     */
+    @GET
+    Call<ResponseBody> getJwks(@Url String jwksUri, @Header("If-None-Match") String etag);
+}
@@ -0,0 +1,11 @@
+package com.telenor.connect;
+
+/**
+ * Called on the main thread when initialization started with
+ * {@link ConnectSdk#sdkInitializeAsync(android.content.Context, boolean, SdkInitializationCallback)}
+ * has completed.
+ */
+public interface SdkInitializationCallback {
+    void onInitialized();
+    void onError(RuntimeException error);
+}
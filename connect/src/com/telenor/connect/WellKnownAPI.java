@@ -11,6 +11,7 @@ import java.util.Set;
 
 import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Headers;
 
 public interface WellKnownAPI {
@@ -19,6 +20,14 @@ public interface WellKnownAPI {
     @GET("/oauth/.well-known/openid-configuration")
     Call<WellKnownConfig> getWellKnownConfig();
 
+    /**
+     * @param etag the ETag of the saved configuration. The server answers with 304 Not Modified
+     *             if it is still current.
+     */
+    @Headers("Content-Type: application/json")
+    @GET("/oauth/.well-known/openid-configuration")
+    Call<WellKnownConfig> getWellKnownConfig(@Header("If-None-Match") String etag);
+
     class WellKnownConfig implements Parcelable {
 
         @SerializedName("issuer")
@@ -43,6 +52,12 @@ public interface WellKnownAPI {
                     : Collections.<String>emptySet();
         }
 
+        @SerializedName("jwks_uri")
+        private String jwksUri;
+        public String getJwksUri() {
+            return jwksUri;
+        }
+
         protected WellKnownConfig(Parcel in) {
             issuer = in.readString();
             int ipsCount = in.readInt();
@@ -55,6 +70,7 @@ public interface WellKnownAPI {
             for (int i = 0; i < urlsCount; i++) {
                 networkAuthenticationTargetUrls.add(in.readString());
             }
+            jwksUri = in.readString();
         }
 
         @Override
@@ -81,6 +97,7 @@ public interface WellKnownAPI {
                     dest.writeString(url);
                 }
             }
+            dest.writeString(jwksUri);
         }
 
         public static final Creator<WellKnownConfig> CREATOR = new Creator<WellKnownConfig>() {
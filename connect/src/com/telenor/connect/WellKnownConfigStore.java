@@ -1,14 +1,27 @@
 package com.telenor.connect;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 
 import com.google.gson.Gson;
 
 import static com.telenor.connect.id.ConnectStore.PREFERENCES_FILE;
 
+/**
+ * Saves the well-known configuration in its own preferences file, apart from the tokens, so that
+ * it is kept when the user signs out.
+ */
 public class WellKnownConfigStore {
 
+    private static final String WELL_KNOWN_CONFIG_PREFERENCES_FILE
+            = "com.telenor.connect.WELL_KNOWN_CONFIG_PREFERENCES_FILE";
+
     private static final String PREFERENCE_KEY_WELL_KNOWN_CONFIG = "WELL_KNOWN_CONFIG";
+    private static final String PREFERENCE_KEY_WELL_KNOWN_CONFIG_ETAG = "WELL_KNOWN_CONFIG_ETAG";
+    private static final String PREFERENCE_KEY_WELL_KNOWN_CONFIG_FETCHED_AT
+            = "WELL_KNOWN_CONFIG_FETCHED_AT";
+    private static final String PREFERENCE_KEY_WELL_KNOWN_CONFIG_EXPIRES_AT
+            = "WELL_KNOWN_CONFIG_EXPIRES_AT";
     private final Gson preferencesGson = new Gson();
     private final Context context;
 
@@ -17,11 +30,38 @@ public class WellKnownConfigStore {
     }
 
     public void set(WellKnownAPI.WellKnownConfig wellKnownConfig) {
+        set(wellKnownConfig, null, System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * @param wellKnownConfig the fetched configuration.
+     * @param etag the ETag of the response, or {@code null} if it had none.
+     * @param fetchedAt when the configuration was fetched, in milliseconds.
+     * @param expiresAt until when the configuration is fresh, in milliseconds.
+     */
+    public void set(
+            WellKnownAPI.WellKnownConfig wellKnownConfig,
+            String etag,
+            long fetchedAt,
+            long expiresAt) {
         String jsonWellKnownConfig = preferencesGson.toJson(wellKnownConfig);
-        context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+        getPreferences()
                 .edit()
                 .putString(PREFERENCE_KEY_WELL_KNOWN_CONFIG, jsonWellKnownConfig)
+                .putString(PREFERENCE_KEY_WELL_KNOWN_CONFIG_ETAG, etag)
+                .putLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_FETCHED_AT, fetchedAt)
+                .putLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_EXPIRES_AT, expiresAt)
+                .apply();
+    }
+
+    /**
+     * Marks the saved configuration as revalidated, after a 304 Not Modified response.
+     */
+    public void setRevalidated(long fetchedAt, long expiresAt) {
+        getPreferences()
+                .edit()
+                .putLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_FETCHED_AT, fetchedAt)
+                .putLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_EXPIRES_AT, expiresAt)
                 .apply();
     }
 
@@ -30,12 +70,51 @@ public class WellKnownConfigStore {
             return null;
         }
 
-        String wellKnownConfigJson = context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
-                .getString(PREFERENCE_KEY_WELL_KNOWN_CONFIG, null);
+        String wellKnownConfigJson
+                = getPreferences().getString(PREFERENCE_KEY_WELL_KNOWN_CONFIG, null);
+        if (wellKnownConfigJson == null) {
+            // Saved with the tokens by earlier versions, without the ETag and times.
+            wellKnownConfigJson = context
+                    .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                    .getString(PREFERENCE_KEY_WELL_KNOWN_CONFIG, null);
+        }
 
         return preferencesGson.fromJson(
                 wellKnownConfigJson,
                 WellKnownAPI.WellKnownConfig.class);
     }
-}
\ No newline at end of file
+
+    public String getEtag() {
+        if (context == null) {
+            return null;
+        }
+        return getPreferences().getString(PREFERENCE_KEY_WELL_KNOWN_CONFIG_ETAG, null);
+    }
+
+    /**
+     * @return when the saved configuration was last fetched or revalidated, in milliseconds, or
+     * 0 if that is not known.
+     */
+    public long getFetchedAt() {
+        if (context == null) {
+            return 0;
+        }
+        return getPreferences().getLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_FETCHED_AT, 0);
+    }
+
+    /**
+     * @return until when the saved configuration is fresh, in milliseconds, or 0 if it must be
+     * revalidated.
+     */
+    public long getExpiresAt() {
+        if (context == null) {
+            return 0;
+        }
+        return getPreferences().getLong(PREFERENCE_KEY_WELL_KNOWN_CONFIG_EXPIRES_AT, 0);
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(
+                WELL_KNOWN_CONFIG_PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,156 @@
+package com.telenor.connect.analytics;
+
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.telenor.connect.utils.ConnectUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bounded queue of serialized analytics events, persisted to a file so that events survive
+ * process death. When the queue is full the oldest event is dropped. Not thread safe; used from
+ * the analytics thread only.
+ */
+class AnalyticsEventQueue {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Event {
+        final long enqueuedAt;
+        final String json;
+        final String subject;
+
+        /**
+         * @param subject the subject of the user the event is sent on behalf of, or
+         *                {@code null}. No tokens are saved with the event.
+         */
+        Event(long enqueuedAt, String json, String subject) {
+            this.enqueuedAt = enqueuedAt;
+            this.json = json;
+            this.subject = subject;
+        }
+    }
+
+    private final AtomicFile file;
+    private final int capacity;
+    private Deque<Event> events;
+
+    AnalyticsEventQueue(File file, int capacity) {
+        this.file = new AtomicFile(file);
+        this.capacity = capacity;
+    }
+
+    void add(Event event) {
+        load();
+        if (events.size() >= capacity) {
+            events.pollFirst();
+            Log.w(ConnectUtils.LOG_TAG, "Analytics queue is full, dropping oldest event");
+        }
+        events.addLast(event);
+        save();
+    }
+
+    /**
+     * @return up to {@code maxEvents} of the oldest events, which are kept in the queue until
+     * they are removed with {@link #remove(int)}.
+     */
+    List<Event> peek(int maxEvents) {
+        load();
+        List<Event> batch = new ArrayList<>(Math.min(maxEvents, events.size()));
+        Iterator<Event> iterator = events.iterator();
+        while (iterator.hasNext() && batch.size() < maxEvents) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    void remove(int count) {
+        load();
+        for (int i = 0; i < count && !events.isEmpty(); i++) {
+            events.pollFirst();
+        }
+        save();
+    }
+
+    int size() {
+        load();
+        return events.size();
+    }
+
+    private void load() {
+        if (events != null) {
+            return;
+        }
+        events = new ArrayDeque<>();
+        byte[] bytes;
+        try {
+            bytes = file.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to read analytics queue", e);
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long enqueuedAt = in.readLong();
+                byte[] json = new byte[in.readInt()];
+                in.readFully(json);
+                String subject = in.readBoolean() ? in.readUTF() : null;
+                events.addLast(new Event(enqueuedAt, new String(json, UTF_8), subject));
+            }
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Analytics queue is corrupt, keeping readable events", e);
+        }
+        while (events.size() > capacity) {
+            events.pollFirst();
+        }
+    }
+
+    private void save() {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(events.size());
+            for (Event event : events) {
+                byte[] json = event.json.getBytes(UTF_8);
+                out.writeLong(event.enqueuedAt);
+                out.writeInt(json.length);
+                out.write(json);
+                out.writeBoolean(event.subject != null);
+                if (event.subject != null) {
+                    out.writeUTF(event.subject);
+                }
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to save analytics queue", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
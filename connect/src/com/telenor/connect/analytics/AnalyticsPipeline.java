@@ -0,0 +1,258 @@
+package com.telenor.connect.analytics;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.telenor.connect.AnalyticsAPI;
+import com.telenor.connect.utils.ConnectUtils;
+import com.telenor.connect.utils.RestHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Response;
+
+/**
+ * Queues analytics events on disk and uploads them to the analytics endpoint, the oldest first,
+ * one event per request and at most one request per {@link #FLUSH_WINDOW_MILLIS}, and only when
+ * there is connectivity. An event is sent with a valid Access Token of the user it was enqueued
+ * for, fetched when it is sent, so no tokens are saved with the queue. Failed uploads are
+ * retried with bounded exponential backoff. Events are only removed from the queue once the
+ * server has accepted or rejected them.
+ */
+public class AnalyticsPipeline {
+
+    /**
+     * Where and how the events are sent. Called on the analytics thread when an event is sent.
+     */
+    public interface Target {
+        /**
+         * @return the analytics endpoint, or {@code null} if it is not known yet.
+         */
+        String getEndpoint();
+
+        /**
+         * May block, for example while the Access Token is refreshed.
+         *
+         * @param subject the subject the event was enqueued for, or {@code null}.
+         * @return the Authorization header to send the event with, or {@code null} to send it
+         * without one, for example because the user has signed out.
+         * @throws IOException if the header can not be obtained right now, so that the event
+         * is sent later.
+         */
+        String getAuthorization(String subject) throws IOException;
+    }
+
+    static final int MAX_EVENTS = 200;
+    static final long FLUSH_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final String QUEUE_FILE_NAME = "com.telenor.connect.ANALYTICS_QUEUE";
+
+    private final Context context;
+    private final Target target;
+    private final AnalyticsEventQueue queue;
+    private final Gson gson = new Gson();
+    private final ScheduledExecutorService executor
+            = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ConnectSdk-analytics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduledFlush = null;
+            flush();
+        }
+    };
+
+    private ScheduledFuture<?> scheduledFlush;
+    private long scheduledFlushAt;
+    private long lastRequestAt;
+    private long backoffUntil;
+    private int failedAttempts;
+    private BroadcastReceiver connectivityReceiver;
+
+    public AnalyticsPipeline(Context context, Target target) {
+        this(context, target, new File(context.getFilesDir(), QUEUE_FILE_NAME));
+    }
+
+    AnalyticsPipeline(Context context, Target target, File queueFile) {
+        this.context = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        this.target = target;
+        this.queue = new AnalyticsEventQueue(queueFile, MAX_EVENTS);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Events queued before the process was restarted.
+                scheduleFlush();
+            }
+        });
+    }
+
+    /**
+     * Adds an event to the queue. The event is serialized with Gson on the calling thread and
+     * written to disk on the analytics thread.
+     *
+     * @param subject the subject of the signed in user, or {@code null}. Saved with the event,
+     *                as the user may have signed out or switched account by the time it is
+     *                sent.
+     */
+    public void enqueue(AnalyticsAPI.SDKAnalyticsData event, String subject) {
+        final AnalyticsEventQueue.Event queued = new AnalyticsEventQueue.Event(
+                System.currentTimeMillis(), gson.toJson(event), subject);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queue.add(queued);
+                scheduleFlush();
+            }
+        });
+    }
+
+    private void scheduleFlush() {
+        if (queue.size() == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long flushAt = getFlushTime(lastRequestAt, backoffUntil);
+        if (scheduledFlush != null) {
+            if (scheduledFlushAt <= flushAt) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlushAt = flushAt;
+        scheduledFlush = executor.schedule(
+                flushRunnable, Math.max(0, flushAt - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<AnalyticsEventQueue.Event> oldest = queue.peek(1);
+        if (oldest.isEmpty()) {
+            return;
+        }
+        if (!isConnected()) {
+            waitForConnectivity();
+            return;
+        }
+        String endpoint = target.getEndpoint();
+        if (endpoint == null) {
+            backoffUntil = System.currentTimeMillis() + INITIAL_BACKOFF_MILLIS;
+            scheduleFlush();
+            return;
+        }
+
+        lastRequestAt = System.currentTimeMillis();
+        if (send(RestHelper.getAnalyticsApi(endpoint), oldest.get(0))) {
+            failedAttempts = 0;
+            backoffUntil = 0;
+            queue.remove(1);
+        } else {
+            retryLater();
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * @return {@code false} if sending the event failed and should be retried.
+     */
+    private boolean send(AnalyticsAPI analyticsApi, AnalyticsEventQueue.Event event) {
+        try {
+            AnalyticsAPI.SDKAnalyticsData data
+                    = gson.fromJson(event.json, AnalyticsAPI.SDKAnalyticsData.class);
+            Response<Void> response = analyticsApi
+                    .sendAnalyticsData(target.getAuthorization(event.subject), data)
+                    .execute();
+            if (response.isSuccessful()) {
+                return true;
+            }
+            if (isRetryable(response.code())) {
+                return false;
+            }
+            Log.e(ConnectUtils.LOG_TAG, "Analytics event was rejected, dropping it."
+                    + " response=" + response);
+            return true;
+        } catch (JsonParseException e) {
+            Log.e(ConnectUtils.LOG_TAG, "Analytics event is corrupt, dropping it.", e);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to send analytics event", e);
+            return false;
+        }
+    }
+
+    private void retryLater() {
+        failedAttempts++;
+        backoffUntil = System.currentTimeMillis() + getBackoffDelay(failedAttempts);
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivityManager
+                = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return true;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        boolean connected = networkInfo != null && networkInfo.isConnected();
+        if (connected && connectivityReceiver != null) {
+            context.unregisterReceiver(connectivityReceiver);
+            connectivityReceiver = null;
+        }
+        return connected;
+    }
+
+    private void waitForConnectivity() {
+        if (connectivityReceiver != null) {
+            return;
+        }
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isConnected()) {
+                            scheduleFlush();
+                        }
+                    }
+                });
+            }
+        };
+        context.registerReceiver(
+                connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    static long getFlushTime(long lastRequestAt, long backoffUntil) {
+        return Math.max(lastRequestAt + FLUSH_WINDOW_MILLIS, backoffUntil);
+    }
+
+    static long getBackoffDelay(int failedAttempts) {
+        int exponent = Math.min(failedAttempts - 1, 16);
+        return Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << exponent);
+    }
+
+    // A 401 is retried, as the Access Token may have been revoked after it was fetched.
+    private static boolean isRetryable(int code) {
+        return code == 401 || code == 408 || code == 429 || code >= 500;
+    }
+}
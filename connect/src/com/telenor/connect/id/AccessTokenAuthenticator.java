@@ -0,0 +1,94 @@
+package com.telenor.connect.id;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.telenor.connect.ConnectSdk;
+import com.telenor.connect.utils.ConnectUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+import static com.telenor.connect.id.AccessTokenInterceptor.AUTHORIZATION_HEADER;
+import static com.telenor.connect.id.AccessTokenInterceptor.BEARER_PREFIX;
+
+/**
+ * An OkHttp {@code Authenticator} that refreshes the Access Token when a request is rejected
+ * with 401 and retries it once with the new token. Concurrent 401s share a single refresh.
+ * If the token was already refreshed by someone else since the request was sent, the request is
+ * retried with the current token without refreshing again.
+ * <p>
+ * The refresh is waited for on the thread that executes the request, so the request is not
+ * retried if it was executed synchronously on the main thread, which must not block.
+ */
+public class AccessTokenAuthenticator implements Authenticator {
+
+    private static final long REFRESH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final long refreshTimeoutMillis;
+
+    public AccessTokenAuthenticator() {
+        this(REFRESH_TIMEOUT_MILLIS);
+    }
+
+    AccessTokenAuthenticator(long refreshTimeoutMillis) {
+        this.refreshTimeoutMillis = refreshTimeoutMillis;
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) throws IOException {
+        if (response.priorResponse() != null) {
+            return null;
+        }
+
+        String currentAccessToken = ConnectSdk.getAccessToken();
+        if (currentAccessToken == null) {
+            return null;
+        }
+
+        Request request = response.request();
+        String rejectedAuthorization = request.header(AUTHORIZATION_HEADER);
+        if (rejectedAuthorization != null
+                && !rejectedAuthorization.equals(BEARER_PREFIX + currentAccessToken)) {
+            return withAccessToken(request, currentAccessToken);
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Log.w(ConnectUtils.LOG_TAG, "Can not refresh the Access Token on the main thread.");
+            return null;
+        }
+
+        String refreshedAccessToken = refreshAccessToken();
+        return refreshedAccessToken != null
+                ? withAccessToken(request, refreshedAccessToken)
+                : null;
+    }
+
+    private String refreshAccessToken() throws IOException {
+        try {
+            return ConnectSdk.updateTokens().get(refreshTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Timed out waiting for the Access Token refresh.");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while refreshing the Access Token.");
+        }
+    }
+
+    private static Request withAccessToken(Request request, String accessToken) {
+        return request.newBuilder()
+                .header(AUTHORIZATION_HEADER, BEARER_PREFIX + accessToken)
+                .build();
+    }
+}
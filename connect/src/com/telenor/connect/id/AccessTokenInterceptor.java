@@ -0,0 +1,36 @@
+package com.telenor.connect.id;
+
+import com.telenor.connect.ConnectSdk;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An OkHttp {@code Interceptor} that adds the signed in user's Access Token as a bearer
+ * {@code Authorization} header to requests that do not already have one. Reading the token does
+ * not block, so this is safe to add to any client. Pair it with {@link AccessTokenAuthenticator}
+ * to refresh the token when a request is rejected with 401.
+ */
+public class AccessTokenInterceptor implements Interceptor {
+
+    static final String AUTHORIZATION_HEADER = "Authorization";
+    static final String BEARER_PREFIX = "Bearer ";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header(AUTHORIZATION_HEADER) != null) {
+            return chain.proceed(request);
+        }
+        String accessToken = ConnectSdk.getAccessToken();
+        if (accessToken == null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder()
+                .header(AUTHORIZATION_HEADER, BEARER_PREFIX + accessToken)
+                .build());
+    }
+}
@@ -0,0 +1,395 @@
+package com.telenor.connect.id;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.Log;
+
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.ConnectUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executor;
+
+import static com.telenor.connect.id.ConnectStore.PREFERENCES_FILE;
+
+/**
+ * Stores tokens in {@code SharedPreferences} using a compact, versioned binary encoding:
+ * dates are stored as epoch milliseconds, strings are length prefixed UTF-8 and the raw ID token
+ * JWT is stored once, and referenced from the saved tokens. The encoded entries can optionally
+ * be encrypted with a {@link TokenCipher}.
+ * <p>
+ * Tokens saved by earlier versions of the SDK, see {@link JsonTokenStore}, are migrated on the
+ * first read.
+ * <p>
+ * The access token and its expiry change on every refresh, while the ID token rarely does, so
+ * the saved tokens are kept in a preferences file of their own, next to the one with the ID
+ * token. A refresh then only rewrites the small tokens file. Updates are written on the
+ * persistence executor of {@link ConnectExecutors}, and updates made while a write is pending
+ * replace it, so a burst of refreshes is written once.
+ */
+public class BinaryTokenStore implements TokenStore {
+
+    private static final String PREFERENCE_KEY_CONNECT_TOKENS = "CONNECT_TOKENS_V1";
+    private static final String PREFERENCE_KEY_ID_TOKEN = "ID_TOKEN_V1";
+    private static final String TOKENS_PREFERENCES_FILE_SUFFIX = ".TOKENS";
+
+    static final byte VERSION = 1;
+    private static final byte FLAG_ENCRYPTED = 1;
+
+    private static final byte NO_ID_TOKEN = 0;
+    private static final byte INLINE_ID_TOKEN = 1;
+    private static final byte SAVED_ID_TOKEN = 2;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Context context;
+    private final TokenCipher tokenCipher;
+    private final String preferencesFile;
+    private final JsonTokenStore legacyTokenStore;
+    private final Executor writeExecutor;
+    private final Runnable writePendingUpdate = new Runnable() {
+        @Override
+        public void run() {
+            writePendingUpdate();
+        }
+    };
+
+    private ConnectTokens pendingUpdate;
+    private boolean tokensEntryMigrated;
+
+    /**
+     * @param context context used to access {@code SharedPreferences}.
+     * @param tokenCipher cipher used to encrypt the saved entries, or {@code null} to save them
+     *                    unencrypted.
+     */
+    public BinaryTokenStore(Context context, @Nullable TokenCipher tokenCipher) {
+        this(context, tokenCipher, PREFERENCES_FILE);
+    }
+
+    /**
+     * Stores the tokens in the given preferences file instead of the SDK's own. Tokens saved by
+     * earlier versions of the SDK are only migrated into the SDK's own preferences file.
+     */
+    BinaryTokenStore(Context context, @Nullable TokenCipher tokenCipher, String preferencesFile) {
+        this(context, tokenCipher, preferencesFile, null);
+    }
+
+    /**
+     * @param writeExecutor executor updates are written on, or {@code null} to use the SDK's
+     *                      persistence executor.
+     */
+    BinaryTokenStore(
+            Context context,
+            @Nullable TokenCipher tokenCipher,
+            String preferencesFile,
+            @Nullable Executor writeExecutor) {
+        this.context = context;
+        this.writeExecutor = writeExecutor;
+        this.tokenCipher = tokenCipher;
+        this.preferencesFile = preferencesFile;
+        this.legacyTokenStore = PREFERENCES_FILE.equals(preferencesFile)
+                ? new JsonTokenStore(context) : null;
+    }
+
+    @Override
+    public synchronized void set(ConnectTokens connectTokens) {
+        pendingUpdate = null;
+        migrateTokensEntry();
+        IdToken idToken = connectTokens.getIdToken();
+        write(connectTokens, idToken != null ? idToken.getSerializedSignedJwt() : null, true);
+    }
+
+    @Override
+    public synchronized void update(ConnectTokens connectTokens) {
+        boolean writeScheduled = pendingUpdate != null;
+        pendingUpdate = connectTokens;
+        if (!writeScheduled) {
+            Executor executor = writeExecutor != null
+                    ? writeExecutor : ConnectExecutors.getPersistenceExecutor();
+            executor.execute(writePendingUpdate);
+        }
+    }
+
+    private synchronized void writePendingUpdate() {
+        ConnectTokens connectTokens = pendingUpdate;
+        if (connectTokens == null) {
+            return;
+        }
+        pendingUpdate = null;
+        migrateLegacyTokens();
+        migrateTokensEntry();
+        write(connectTokens, readSavedIdToken(), false);
+    }
+
+    @Override
+    public synchronized ConnectTokens get() {
+        if (pendingUpdate != null) {
+            return pendingUpdate;
+        }
+        migrateLegacyTokens();
+        migrateTokensEntry();
+        byte[] entry = readEntry(getTokensPreferences(), PREFERENCE_KEY_CONNECT_TOKENS);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return decodeTokens(entry);
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to read saved tokens", e);
+            clear();
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized IdToken getIdToken() {
+        migrateLegacyTokens();
+        String serializedIdToken = readSavedIdToken();
+        return serializedIdToken != null ? new IdToken(serializedIdToken) : null;
+    }
+
+    @Override
+    public synchronized void clear() {
+        pendingUpdate = null;
+        getTokensPreferences()
+                .edit()
+                .remove(PREFERENCE_KEY_CONNECT_TOKENS)
+                .apply();
+        getPreferences()
+                .edit()
+                .remove(PREFERENCE_KEY_CONNECT_TOKENS)
+                .remove(PREFERENCE_KEY_ID_TOKEN)
+                .apply();
+    }
+
+    private void migrateLegacyTokens() {
+        if (legacyTokenStore == null || !legacyTokenStore.hasTokens()) {
+            return;
+        }
+        ConnectTokens legacyTokens = legacyTokenStore.get();
+        IdToken legacyIdToken = legacyTokenStore.getIdToken();
+        if (legacyTokens != null
+                && !getTokensPreferences().contains(PREFERENCE_KEY_CONNECT_TOKENS)) {
+            write(legacyTokens,
+                    legacyIdToken != null ? legacyIdToken.getSerializedSignedJwt() : null,
+                    true);
+        }
+        legacyTokenStore.clear();
+    }
+
+    /**
+     * Moves the saved tokens entry out of the ID token's preferences file, where versions of the
+     * SDK that kept them together saved it.
+     */
+    private void migrateTokensEntry() {
+        if (tokensEntryMigrated) {
+            return;
+        }
+        tokensEntryMigrated = true;
+        SharedPreferences preferences = getPreferences();
+        String entry = preferences.getString(PREFERENCE_KEY_CONNECT_TOKENS, null);
+        if (entry == null) {
+            return;
+        }
+        getTokensPreferences()
+                .edit()
+                .putString(PREFERENCE_KEY_CONNECT_TOKENS, entry)
+                .apply();
+        preferences
+                .edit()
+                .remove(PREFERENCE_KEY_CONNECT_TOKENS)
+                .apply();
+    }
+
+    private void write(ConnectTokens connectTokens, String serializedIdToken, boolean writeIdToken) {
+        String tokensEntry;
+        String idTokenEntry = null;
+        try {
+            tokensEntry = encodeEntry(encodeTokens(connectTokens, serializedIdToken));
+            if (writeIdToken && serializedIdToken != null) {
+                idTokenEntry = encodeEntry(encodeString(serializedIdToken));
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(ConnectUtils.LOG_TAG, "Failed to save tokens", e);
+            return;
+        }
+        if (writeIdToken) {
+            SharedPreferences.Editor editor = getPreferences().edit();
+            if (idTokenEntry != null) {
+                editor.putString(PREFERENCE_KEY_ID_TOKEN, idTokenEntry);
+            } else {
+                editor.remove(PREFERENCE_KEY_ID_TOKEN);
+            }
+            editor.apply();
+        }
+        getTokensPreferences()
+                .edit()
+                .putString(PREFERENCE_KEY_CONNECT_TOKENS, tokensEntry)
+                .apply();
+    }
+
+    private String readSavedIdToken() {
+        byte[] entry = readEntry(getPreferences(), PREFERENCE_KEY_ID_TOKEN);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return readString(new DataInputStream(new ByteArrayInputStream(entry)));
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to read saved ID token", e);
+            clear();
+            return null;
+        }
+    }
+
+    private byte[] encodeTokens(ConnectTokens connectTokens, String savedIdToken)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, connectTokens.getAccessToken());
+        Date expirationDate = connectTokens.getExpirationDate();
+        out.writeLong(expirationDate != null ? expirationDate.getTime() : NO_DATE);
+        IdToken idToken = connectTokens.getIdToken();
+        if (idToken == null) {
+            out.writeByte(NO_ID_TOKEN);
+        } else if (idToken.getSerializedSignedJwt().equals(savedIdToken)) {
+            out.writeByte(SAVED_ID_TOKEN);
+        } else {
+            out.writeByte(INLINE_ID_TOKEN);
+            writeString(out, idToken.getSerializedSignedJwt());
+        }
+        writeString(out, connectTokens.getRefreshToken());
+        writeString(out, connectTokens.getScope());
+        writeString(out, connectTokens.getTokenType());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private ConnectTokens decodeTokens(byte[] entry) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+        String accessToken = readString(in);
+        long expirationMillis = in.readLong();
+        IdToken idToken;
+        byte idTokenMarker = in.readByte();
+        switch (idTokenMarker) {
+            case NO_ID_TOKEN:
+                idToken = null;
+                break;
+            case INLINE_ID_TOKEN:
+                idToken = new IdToken(readString(in));
+                break;
+            case SAVED_ID_TOKEN:
+                String savedIdToken = readSavedIdToken();
+                if (savedIdToken == null) {
+                    throw new IOException("Saved ID token is missing");
+                }
+                idToken = new IdToken(savedIdToken);
+                break;
+            default:
+                throw new IOException("Unknown ID token marker: " + idTokenMarker);
+        }
+        String refreshToken = readString(in);
+        String scope = readString(in);
+        String tokenType = readString(in);
+        return new ConnectTokens(
+                accessToken,
+                expirationMillis != NO_DATE ? new Date(expirationMillis) : null,
+                idToken,
+                refreshToken,
+                scope,
+                tokenType);
+    }
+
+    private static byte[] encodeString(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Prefixes the payload with a version and a flags byte and encrypts it if a cipher is set.
+     */
+    private String encodeEntry(byte[] payload) throws GeneralSecurityException {
+        byte flags = 0;
+        if (tokenCipher != null) {
+            payload = tokenCipher.encrypt(payload);
+            flags |= FLAG_ENCRYPTED;
+        }
+        byte[] entry = new byte[payload.length + 2];
+        entry[0] = VERSION;
+        entry[1] = flags;
+        System.arraycopy(payload, 0, entry, 2, payload.length);
+        return Base64.encodeToString(entry, Base64.NO_WRAP);
+    }
+
+    /**
+     * @return the decrypted payload of an entry, or {@code null} if there is no such entry or it
+     * could not be read, in which case all saved tokens are removed.
+     */
+    private byte[] readEntry(SharedPreferences preferences, String key) {
+        String encoded = preferences.getString(key, null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            byte[] entry = Base64.decode(encoded, Base64.NO_WRAP);
+            if (entry.length < 2 || entry[0] != VERSION) {
+                throw new GeneralSecurityException("Unsupported token entry version");
+            }
+            byte[] payload = Arrays.copyOfRange(entry, 2, entry.length);
+            if ((entry[1] & FLAG_ENCRYPTED) == 0) {
+                return payload;
+            }
+            if (tokenCipher == null) {
+                throw new GeneralSecurityException("Token entry is encrypted, but no cipher is set");
+            }
+            return tokenCipher.decrypt(payload);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to read saved token entry", e);
+            clear();
+            return null;
+        }
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(preferencesFile, Context.MODE_PRIVATE);
+    }
+
+    private SharedPreferences getTokensPreferences() {
+        return context.getSharedPreferences(
+                preferencesFile + TOKENS_PREFERENCES_FILE_SUFFIX, Context.MODE_PRIVATE);
+    }
+}
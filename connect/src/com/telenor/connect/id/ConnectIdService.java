@@ -8,27 +8,56 @@ import android.webkit.CookieManager;
 import android.webkit.CookieSyncManager;
 
 import com.telenor.connect.ConnectCallback;
+import com.telenor.connect.ConnectException;
 import com.telenor.connect.ConnectNotSignedInException;
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.ConnectFuture;
 import com.telenor.connect.utils.ConnectUtils;
 import com.telenor.connect.utils.HeadersDateUtil;
+import com.telenor.connect.utils.JwkSetCache;
 
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 
+/**
+ * Signs in the user and keeps their tokens valid. Responses from the API are handled on the
+ * parsing executor of {@link ConnectExecutors}, where the tokens are validated, and the
+ * callbacks of the app are called on its callback executor. Callbacks that can be answered
+ * without a request are called right away, on the calling thread.
+ */
 public class ConnectIdService {
 
+    // Futures complete where the response was handled; their listeners pick their own executor.
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private final ConnectAPI connectApi;
     private final ConnectStore connectStore;
     private final String redirectUrl;
     private final String clientId;
+    private final Map<String, List<AccessTokenCallback>> pendingRefreshCallbacks = new HashMap<>();
+    private final TokenStateStream tokenStateStream = new TokenStateStream();
 
-    private ConnectTokens currentTokens;
+    private volatile ConnectTokens currentTokens;
+    // Tokens of a sign in that are yet to be saved on the persistence executor.
+    private ConnectTokens pendingSignInTokens;
     private IdToken idToken;
+    private volatile TokenRefreshScheduler tokenRefreshScheduler;
+    private volatile JwkSetCache jwkSetCache;
 
     public ConnectIdService(
             ConnectStore connectStore, ConnectAPI connectApi, String clientId, String redirectUrl) {
@@ -53,6 +82,61 @@ public class ConnectIdService {
         callback.success(connectTokens.getAccessToken());
     }
 
+    /**
+     * @return a future completed with a valid access token, refreshing it first if it has
+     * expired. It fails with a {@link ConnectNotSignedInException} if no user is signed in.
+     */
+    public ConnectFuture<String> getValidAccessToken() {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        ConnectTokens connectTokens = retrieveTokens();
+        if (connectTokens == null) {
+            future.fail(new ConnectNotSignedInException("No user is signed in."));
+        } else if (connectTokens.accessTokenHasExpired()) {
+            updateTokens(completing(future), CALLING_THREAD);
+        } else {
+            future.complete(connectTokens.getAccessToken());
+        }
+        return future;
+    }
+
+    /**
+     * @return a future completed with the refreshed access token. It fails with a
+     * {@link ConnectNotSignedInException} if no user is signed in, or was signed out because
+     * the refresh token was rejected.
+     */
+    public ConnectFuture<String> updateTokens() {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        updateTokens(completing(future), CALLING_THREAD);
+        return future;
+    }
+
+    private static AccessTokenCallback completing(final ConnectFuture<String> future) {
+        return new AccessTokenCallback() {
+            @Override
+            public void success(String accessToken) {
+                future.complete(accessToken);
+            }
+
+            @Override
+            public void unsuccessfulResult(Response response, boolean userDataRemoved) {
+                String message = "Failed to refresh the access token. response=" + response;
+                future.fail(userDataRemoved
+                        ? new ConnectNotSignedInException(message)
+                        : new ConnectException(message));
+            }
+
+            @Override
+            public void failure(Call<ConnectTokensTO> call, Throwable error) {
+                future.fail(error);
+            }
+
+            @Override
+            public void noSignedInUser() {
+                future.fail(new ConnectNotSignedInException("No user is signed in."));
+            }
+        };
+    }
+
     public String getAccessToken() {
         ConnectTokens connectTokens = retrieveTokens();
         if (connectTokens == null) {
@@ -71,9 +155,13 @@ public class ConnectIdService {
         return connectTokens.getExpirationDate();
     }
 
-    public void getAccessTokenFromCode(
-            final String authCode,
-            final ConnectCallback callback) {
+    public void getAccessTokenFromCode(String authCode, ConnectCallback callback) {
+        exchangeCode(authCode, callback != null
+                ? DispatchingCallbacks.on(ConnectExecutors.getCallbackExecutor(), callback)
+                : null);
+    }
+
+    private void exchangeCode(final String authCode, final ConnectCallback callback) {
         connectApi.getAccessTokens(
                 "authorization_code",
                 authCode,
@@ -83,16 +171,48 @@ public class ConnectIdService {
                     @Override
                     public void onResponse(Call<ConnectTokensTO> call, Response<ConnectTokensTO> response) {
                         if (response.isSuccessful()) {
-                            Date serverTimestamp = HeadersDateUtil.extractDate(response.headers());
-                            ConnectTokens connectTokens = new ConnectTokens(response.body(), serverTimestamp);
-                            connectStore.set(connectTokens);
-                            connectStore.clearSessionStateParam();
-                            currentTokens = connectTokens;
-                            idToken = connectTokens.getIdToken();
-                            ConnectUtils.sendTokenStateChanged(true);
-                            if (callback != null) {
-                                callback.onSuccess(connectTokens);
-                            }
+                            final Date serverTimestamp
+                                    = HeadersDateUtil.extractDate(response.headers());
+                            final ConnectTokensTO connectTokensTO = response.body();
+                            withSigningKey(connectTokensTO, new SigningKeyCallback() {
+                                @Override
+                                public void onKeyAvailable(JwkSetCache signingKeys) {
+                                    ConnectTokens connectTokens = new ConnectTokens(
+                                            connectTokensTO, serverTimestamp, signingKeys);
+                                    synchronized (ConnectIdService.this) {
+                                        savePendingSignIn();
+                                        pendingSignInTokens = connectTokens;
+                                        currentTokens = connectTokens;
+                                    }
+                                    ConnectExecutors.getPersistenceExecutor().execute(
+                                            new Runnable() {
+                                                @Override
+                                                public void run() {
+                                                    savePendingSignIn();
+                                                }
+                                            });
+                                    idToken = connectTokens.getIdToken();
+                                    scheduleBackgroundRefresh(connectTokens);
+                                    publishTokenState(
+                                            TokenStateEvent.Type.SIGNED_IN, connectTokens);
+                                    ConnectUtils.sendTokenStateChanged(true);
+                                    if (callback != null) {
+                                        callback.onSuccess(connectTokens);
+                                    }
+                                }
+
+                                @Override
+                                public void onKeyUnavailable(Throwable error) {
+                                    Log.e(ConnectUtils.LOG_TAG, "Failed to get the key the"
+                                            + " ID token is signed with", error);
+                                    clearTokensAndNotify();
+                                    if (callback != null) {
+                                        Map<String, String> errorParams = new HashMap<>();
+                                        errorParams.put("error", error.toString());
+                                        callback.onError(errorParams);
+                                    }
+                                }
+                            });
                         } else {
                             clearTokensAndNotify();
                             if (callback != null) {
@@ -114,13 +234,62 @@ public class ConnectIdService {
 
     }
 
+    /**
+     * Saves the tokens of the last sign in, if that has not been done yet. Must be called before
+     * the accounts of the store are read or changed, as saving the tokens makes their account
+     * the active one.
+     */
+    private synchronized void savePendingSignIn() {
+        ConnectTokens connectTokens = pendingSignInTokens;
+        if (connectTokens == null) {
+            return;
+        }
+        pendingSignInTokens = null;
+        connectStore.set(connectTokens);
+        connectStore.clearSessionStateParam();
+    }
+
     private void clearTokensAndNotify() {
-        connectStore.clear();
-        currentTokens = null;
+        synchronized (this) {
+            savePendingSignIn();
+            connectStore.clear();
+            currentTokens = null;
+        }
+        notifySignedOut();
+    }
+
+    private void notifySignedOut() {
         idToken = null;
+        TokenRefreshScheduler scheduler = tokenRefreshScheduler;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+        publishTokenState(TokenStateEvent.Type.SIGNED_OUT, null);
         ConnectUtils.sendTokenStateChanged(false);
     }
 
+    /**
+     * Removes the tokens of the account with the subject. Only signing out the active account
+     * is published, other accounts are removed silently.
+     */
+    private void signOutAccount(String subject) {
+        synchronized (this) {
+            savePendingSignIn();
+            if (!isActiveAccount(subject)) {
+                connectStore.removeAccount(subject);
+                return;
+            }
+            connectStore.clear();
+            currentTokens = null;
+        }
+        notifySignedOut();
+    }
+
+    private boolean isActiveAccount(String subject) {
+        String activeAccount = connectStore.getActiveAccount();
+        return subject == null ? activeAccount == null : subject.equals(activeAccount);
+    }
+
     private String getRefreshToken() {
         ConnectTokens connectTokens = retrieveTokens();
         if (connectTokens == null) {
@@ -252,42 +421,270 @@ public class ConnectIdService {
         });
     }
 
-    public void updateTokens(final AccessTokenCallback callback) {
+    /**
+     * Refreshes the access token. Only one refresh request is sent per refresh token at any time;
+     * callers arriving while a refresh is in flight are attached to it and notified from the
+     * same response.
+     *
+     * @param callback callback that will be called on success or failure to update.
+     */
+    public void updateTokens(AccessTokenCallback callback) {
+        updateTokens(callback, ConnectExecutors.getCallbackExecutor());
+    }
+
+    private void updateTokens(AccessTokenCallback callback, Executor callbackExecutor) {
         final String refreshToken = getRefreshToken();
         if (refreshToken == null) {
             callback.noSignedInUser();
+            return;
+        }
+        // The response belongs to this account, even if another one is active when it arrives.
+        final String subject;
+        synchronized (this) {
+            savePendingSignIn();
+            subject = connectStore.getActiveAccount();
+        }
+        if (!attachToRefresh(
+                refreshToken, DispatchingCallbacks.on(callbackExecutor, callback))) {
+            return;
         }
         connectApi.refreshAccessTokens("refresh_token", refreshToken,
                 clientId).enqueue(new Callback<ConnectTokensTO>() {
                     @Override
-                    public void onResponse(Call<ConnectTokensTO> call, Response<ConnectTokensTO> response) {
+                    public void onResponse(final Call<ConnectTokensTO> call, Response<ConnectTokensTO> response) {
+                        final List<AccessTokenCallback> callbacks = detachRefresh(refreshToken);
                         if (response.isSuccessful()) {
-                            Date serverTimestamp = HeadersDateUtil.extractDate(response.headers());
-                            ConnectTokens connectTokens = new ConnectTokens(response.body(), serverTimestamp);
-                            connectStore.update(connectTokens);
-                            currentTokens = connectTokens;
-                            callback.success(connectTokens.getAccessToken());
+                            final Date serverTimestamp
+                                    = HeadersDateUtil.extractDate(response.headers());
+                            final ConnectTokensTO connectTokensTO = response.body();
+                            withSigningKey(connectTokensTO, new SigningKeyCallback() {
+                                @Override
+                                public void onKeyAvailable(JwkSetCache signingKeys) {
+                                    ConnectTokens connectTokens = new ConnectTokens(
+                                            connectTokensTO, serverTimestamp, signingKeys);
+                                    boolean active;
+                                    synchronized (ConnectIdService.this) {
+                                        savePendingSignIn();
+                                        connectStore.update(subject, connectTokens);
+                                        active = isActiveAccount(subject);
+                                        if (active) {
+                                            currentTokens = connectTokens;
+                                        }
+                                    }
+                                    if (active) {
+                                        scheduleBackgroundRefresh(connectTokens);
+                                        publishTokenState(
+                                                TokenStateEvent.Type.REFRESHED, connectTokens);
+                                    }
+                                    for (AccessTokenCallback attached : callbacks) {
+                                        attached.success(connectTokens.getAccessToken());
+                                    }
+                                }
+
+                                @Override
+                                public void onKeyUnavailable(Throwable error) {
+                                    publishRefreshFailed();
+                                    for (AccessTokenCallback attached : callbacks) {
+                                        attached.failure(call, error);
+                                    }
+                                }
+                            });
                         } else {
                             boolean signOutUser = response.code() >= 400 && response.code() < 500;
                             if (signOutUser) {
-                                clearTokensAndNotify();
+                                signOutAccount(subject);
+                            } else {
+                                publishRefreshFailed();
+                            }
+                            for (AccessTokenCallback attached : callbacks) {
+                                attached.unsuccessfulResult(response, signOutUser);
                             }
-                            callback.unsuccessfulResult(response, signOutUser);
                         }
                     }
 
                     @Override
                     public void onFailure(Call<ConnectTokensTO> call, Throwable error) {
-                        callback.failure(call, error);
+                        publishRefreshFailed();
+                        for (AccessTokenCallback attached : detachRefresh(refreshToken)) {
+                            attached.failure(call, error);
+                        }
                     }
                 });
     }
 
-    private ConnectTokens retrieveTokens() {
-        if (currentTokens == null) {
+    public void setJwkSetCache(JwkSetCache jwkSetCache) {
+        this.jwkSetCache = jwkSetCache;
+    }
+
+    /**
+     * Makes sure the key the ID token in a token response is signed with is cached before
+     * continuing, so that the signature can be verified without network access. The callback is
+     * given the cache the key is in, which is {@code null} if the signature is not verified.
+     */
+    private void withSigningKey(
+            ConnectTokensTO connectTokensTO, final SigningKeyCallback callback) {
+        final JwkSetCache cache = jwkSetCache;
+        IdToken responseIdToken = connectTokensTO != null ? connectTokensTO.getIdToken() : null;
+        if (cache == null || !cache.isConfigured() || responseIdToken == null) {
+            callback.onKeyAvailable(null);
+            return;
+        }
+        String keyId;
+        try {
+            keyId = IdTokenClaimsCache
+                    .getSignedJwt(responseIdToken.getSerializedSignedJwt())
+                    .getHeader()
+                    .getKeyID();
+        } catch (ParseException e) {
+            // Reported when the tokens are validated.
+            callback.onKeyAvailable(cache);
+            return;
+        }
+        cache.ensureKey(keyId, new JwkSetCache.KeyCallback() {
+            @Override
+            public void onKeyAvailable() {
+                callback.onKeyAvailable(cache);
+            }
+
+            @Override
+            public void onKeyUnavailable(Throwable error) {
+                callback.onKeyUnavailable(error);
+            }
+        });
+    }
+
+    private interface SigningKeyCallback {
+        void onKeyAvailable(JwkSetCache signingKeys);
+
+        void onKeyUnavailable(Throwable error);
+    }
+
+    /**
+     * @return true if the caller started a new refresh and must send the request, false if the
+     * callback was attached to a refresh that is already in flight.
+     */
+    private boolean attachToRefresh(String refreshToken, AccessTokenCallback callback) {
+        synchronized (pendingRefreshCallbacks) {
+            List<AccessTokenCallback> callbacks = pendingRefreshCallbacks.get(refreshToken);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return false;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            pendingRefreshCallbacks.put(refreshToken, callbacks);
+            return true;
+        }
+    }
+
+    private List<AccessTokenCallback> detachRefresh(String refreshToken) {
+        synchronized (pendingRefreshCallbacks) {
+            List<AccessTokenCallback> callbacks = pendingRefreshCallbacks.remove(refreshToken);
+            return callbacks != null ? callbacks : new ArrayList<AccessTokenCallback>();
+        }
+    }
+
+    /**
+     * Sets the scheduler that refreshes the access token in the background before it expires.
+     * Any previously set scheduler is stopped.
+     *
+     * @param scheduler the scheduler to use, or {@code null} to only refresh on demand.
+     */
+    public void setTokenRefreshScheduler(TokenRefreshScheduler scheduler) {
+        TokenRefreshScheduler previous = tokenRefreshScheduler;
+        if (previous != null) {
+            previous.stop();
+        }
+        tokenRefreshScheduler = scheduler;
+        if (scheduler != null) {
+            scheduler.start();
+        }
+    }
+
+    /**
+     * @return the subjects of the signed in accounts.
+     */
+    public synchronized Set<String> getAccounts() {
+        savePendingSignIn();
+        return connectStore.getAccounts();
+    }
+
+    /**
+     * Makes the signed in account with the subject the active one, and moves the background
+     * refresh over to its tokens.
+     *
+     * @return {@code false} if there is no signed in account with the subject.
+     */
+    public boolean switchAccount(String subject) {
+        ConnectTokens connectTokens;
+        synchronized (this) {
+            savePendingSignIn();
+            if (!connectStore.switchAccount(subject)) {
+                return false;
+            }
             currentTokens = connectStore.get();
+            connectTokens = currentTokens;
+        }
+        idToken = null;
+        TokenRefreshScheduler scheduler = tokenRefreshScheduler;
+        if (scheduler != null) {
+            if (connectTokens != null) {
+                scheduler.schedule(connectTokens.getExpirationDate());
+            } else {
+                scheduler.cancel();
+            }
+        }
+        publishTokenState(connectTokens != null
+                ? TokenStateEvent.Type.SIGNED_IN
+                : TokenStateEvent.Type.SIGNED_OUT, connectTokens);
+        ConnectUtils.sendTokenStateChanged(connectTokens != null);
+        return true;
+    }
+
+    /**
+     * @return the stream the changes of the tokens are published to.
+     */
+    public TokenStateStream getTokenStateStream() {
+        return tokenStateStream;
+    }
+
+    /**
+     * Called by the {@link TokenRefreshScheduler} before it refreshes an access token that is
+     * about to expire.
+     */
+    void onTokensExpiringSoon() {
+        ConnectTokens connectTokens = currentTokens;
+        if (connectTokens != null) {
+            publishTokenState(TokenStateEvent.Type.EXPIRING_SOON, connectTokens);
+        }
+    }
+
+    private void publishRefreshFailed() {
+        publishTokenState(TokenStateEvent.Type.REFRESH_FAILED, currentTokens);
+    }
+
+    private void publishTokenState(TokenStateEvent.Type type, ConnectTokens connectTokens) {
+        tokenStateStream.publish(new TokenStateEvent(type, connectTokens));
+    }
+
+    private void scheduleBackgroundRefresh(ConnectTokens connectTokens) {
+        TokenRefreshScheduler scheduler = tokenRefreshScheduler;
+        if (scheduler != null) {
+            scheduler.schedule(connectTokens.getExpirationDate());
+        }
+    }
+
+    private ConnectTokens retrieveTokens() {
+        ConnectTokens connectTokens = currentTokens;
+        if (connectTokens != null) {
+            return connectTokens;
+        }
+        synchronized (this) {
+            if (currentTokens == null) {
+                currentTokens = connectStore.get();
+            }
+            return currentTokens;
         }
-        return currentTokens;
     }
 
     public IdToken getIdToken() {
@@ -305,6 +702,8 @@ public class ConnectIdService {
                     "No user is signed in. accessToken=null");
         }
         final String auth = "Bearer " + accessToken;
-        connectApi.getUserInfo(auth).enqueue(userInfoCallback);
+        connectApi.getUserInfo(auth).enqueue(userInfoCallback != null
+                ? DispatchingCallbacks.on(ConnectExecutors.getCallbackExecutor(), userInfoCallback)
+                : null);
     }
 }
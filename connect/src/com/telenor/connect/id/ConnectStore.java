@@ -1,111 +1,46 @@
 package com.telenor.connect.id;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSyntaxException;
-
-import java.lang.reflect.Type;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
+import java.util.Collections;
+import java.util.Set;
 import java.util.UUID;
 
 public class ConnectStore {
 
     private static final String PREFERENCE_KEY_CONNECT_TOKENS = "CONNECT_TOKENS";
-    private static final String PREFERENCE_KEY_ID_TOKEN = "ID_TOKEN";
     private static final String PREFERENCES_KEY_STATE = "STATE";
     private static final String PREFERENCES_KEY_STATE_EXPIRE = "STATE_EXPIRE";
     public static final String PREFERENCES_FILE = "com.telenor.connect.PREFERENCES_FILE";
-    private static final Gson preferencesGson =
-            new GsonBuilder()
-                    .setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
-                    .registerTypeAdapter(Date.class, new DateDeserializer())
-                    .create();
-
-    private static class DateDeserializer implements JsonDeserializer<Date> {
-        @SuppressLint("SimpleDateFormat")
-        @Override
-        public Date deserialize(JsonElement je, Type type, JsonDeserializationContext jdc)
-                throws JsonParseException {
-            String date = je.getAsString();
-
-            try {
-                return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(date);
-            } catch (ParseException e) {}
-
-            try {
-                return new SimpleDateFormat("MMM d, y h:mm:ss").parse(date);
-            } catch (ParseException e) {}
-
-            try {
-                return new SimpleDateFormat("MMM d, y h:mm:ss", Locale.US).parse(date);
-            } catch (ParseException e) {}
-
-            try {
-                return DateFormat
-                        .getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT).parse(date);
-            } catch (ParseException e) {}
-
-            try {
-                return DateFormat.getDateTimeInstance(
-                        DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US).parse(date);
-            } catch (ParseException e) {}
-
-            throw new JsonParseException("Invalid date:" + date);
-        }
-    }
 
     private final Context context;
+    private final TokenStore tokenStore;
 
     public ConnectStore(Context context) {
+        this(context, new TokenVault(context, null));
+    }
+
+    public ConnectStore(Context context, TokenStore tokenStore) {
         this.context = context;
+        this.tokenStore = tokenStore;
     }
 
     public void set(ConnectTokens connectTokens) {
-        String jsonConnectTokens = preferencesGson.toJson(connectTokens);
-        String jsonIdToken = preferencesGson.toJson(connectTokens.getIdToken());
-        context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
-                .edit()
-                .putString(PREFERENCE_KEY_CONNECT_TOKENS, jsonConnectTokens)
-                .putString(PREFERENCE_KEY_ID_TOKEN, jsonIdToken)
-                .apply();
+        tokenStore.set(connectTokens);
     }
 
     public void update(ConnectTokens connectTokens) {
-        String jsonConnectTokens = preferencesGson.toJson(connectTokens);
-        context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
-                .edit()
-                .putString(PREFERENCE_KEY_CONNECT_TOKENS, jsonConnectTokens)
-                .apply();
+        tokenStore.update(connectTokens);
     }
 
     public ConnectTokens get() {
-        String connectTokensJson = context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
-                .getString(PREFERENCE_KEY_CONNECT_TOKENS, null);
-        try {
-            return preferencesGson.fromJson(connectTokensJson, ConnectTokens.class);
-        } catch (JsonSyntaxException e) {
-            clear();
-            return null;
-        }
+        return tokenStore.get();
     }
 
     public void clear() {
+        tokenStore.clear();
         context
                 .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
                 .edit()
@@ -114,17 +49,61 @@ public class ConnectStore {
     }
 
     public IdToken getIdToken() {
-        String idTokenJson = context
-                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
-                .getString(PREFERENCE_KEY_ID_TOKEN, null);
-        try {
-            return preferencesGson.fromJson(idTokenJson, IdToken.class);
-        } catch (JsonSyntaxException e) {
-            clear();
-            return null;
+        return tokenStore.getIdToken();
+    }
+
+    /**
+     * @return the subjects of the signed in accounts, or an empty set if the token store only
+     * keeps one account.
+     */
+    public Set<String> getAccounts() {
+        return tokenStore instanceof TokenVault
+                ? ((TokenVault) tokenStore).getAccounts()
+                : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return the subject of the active account, or {@code null} if no account is active or the
+     * token store only keeps one account.
+     */
+    public String getActiveAccount() {
+        return tokenStore instanceof TokenVault
+                ? ((TokenVault) tokenStore).getActiveAccount()
+                : null;
+    }
+
+    /**
+     * Updates the tokens of the account with the subject, as given by
+     * {@link #getActiveAccount()}, even if another account has been made active since.
+     */
+    public void update(String subject, ConnectTokens connectTokens) {
+        if (tokenStore instanceof TokenVault) {
+            ((TokenVault) tokenStore).update(subject, connectTokens);
+        } else {
+            tokenStore.update(connectTokens);
+        }
+    }
+
+    /**
+     * Removes the tokens of the account with the subject only. Does nothing if the token store
+     * only keeps one account.
+     */
+    public void removeAccount(String subject) {
+        if (tokenStore instanceof TokenVault) {
+            ((TokenVault) tokenStore).remove(subject);
         }
     }
 
+    /**
+     * Makes the signed in account with the subject the active one.
+     *
+     * @return {@code false} if there is no signed in account with the subject.
+     */
+    public boolean switchAccount(String subject) {
+        return tokenStore instanceof TokenVault
+                && ((TokenVault) tokenStore).setActiveAccount(subject);
+    }
+
     public String generateSessionStateParam() {
         SharedPreferences sharedPreferences = context.getSharedPreferences(PREFERENCE_KEY_CONNECT_TOKENS, Context.MODE_PRIVATE);
         long expireTime = sharedPreferences.getLong(PREFERENCES_KEY_STATE_EXPIRE, -1);
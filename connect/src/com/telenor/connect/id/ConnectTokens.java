@@ -2,6 +2,7 @@ package com.telenor.connect.id;
 
 import android.support.annotation.Nullable;
 
+import com.telenor.connect.utils.JwkSetCache;
 import com.telenor.connect.utils.Validator;
 
 import java.util.Calendar;
@@ -16,8 +17,15 @@ public class ConnectTokens {
     private final String scope;
     private final String tokenType;
 
-    public ConnectTokens(ConnectTokensTO connectTokensTO, @Nullable Date serverTimestamp) {
-        Validator.validateTokens(connectTokensTO, serverTimestamp);
+    /**
+     * @param jwkSetCache the keys the ID token's signature is verified against, or {@code null}
+     *                    to skip verifying it.
+     */
+    public ConnectTokens(
+            ConnectTokensTO connectTokensTO,
+            @Nullable Date serverTimestamp,
+            @Nullable JwkSetCache jwkSetCache) {
+        Validator.validateTokens(connectTokensTO, serverTimestamp, jwkSetCache);
 
         accessToken = connectTokensTO.getAccessToken();
         Calendar instance = Calendar.getInstance();
@@ -29,6 +37,21 @@ public class ConnectTokens {
         tokenType = connectTokensTO.getTokenType();
     }
 
+    ConnectTokens(
+            String accessToken,
+            Date expirationDate,
+            IdToken idToken,
+            String refreshToken,
+            String scope,
+            String tokenType) {
+        this.accessToken = accessToken;
+        this.expirationDate = expirationDate;
+        this.idToken = idToken;
+        this.refreshToken = refreshToken;
+        this.scope = scope;
+        this.tokenType = tokenType;
+    }
+
     public String getAccessToken() {
         return accessToken;
     }
@@ -1,19 +1,24 @@
 package com.telenor.connect.id;
 
-import android.content.BroadcastReceiver;
-import android.content.IntentFilter;
-import android.support.v4.content.LocalBroadcastManager;
-
 import com.telenor.connect.ConnectSdk;
 import com.telenor.connect.utils.Validator;
 
 public abstract class ConnectTokensStateTracker {
 
-    private static final IntentFilter loginStateChangedFilter
-            = new IntentFilter(ConnectSdk.ACTION_LOGIN_STATE_CHANGED);
-
-    private final BroadcastReceiver receiver;
-    private final LocalBroadcastManager broadcastManager;
+    private final TokenStateStream tokenStateStream;
+    private final TokenStateListener listener = new TokenStateListener() {
+        @Override
+        public void onTokenStateChanged(TokenStateEvent event) {
+            switch (event.getType()) {
+                case SIGNED_IN:
+                case SIGNED_OUT:
+                    ConnectTokensStateTracker.this.onTokenStateChanged(event.hasTokens());
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
 
     private boolean isTracking = false;
 
@@ -26,8 +31,7 @@ public abstract class ConnectTokensStateTracker {
     public ConnectTokensStateTracker() {
         Validator.sdkInitialized();
 
-        this.receiver = new CurrentTokenStateBroadcastReceiver(this);
-        this.broadcastManager = LocalBroadcastManager.getInstance(ConnectSdk.getContext());
+        this.tokenStateStream = ConnectSdk.getTokenStateStream();
 
         startTrackingAccessToken();
     }
@@ -37,7 +41,7 @@ public abstract class ConnectTokensStateTracker {
             return;
         }
 
-        addBroadcastReceiver();
+        tokenStateStream.addListener(listener);
         isTracking = true;
     }
 
@@ -46,7 +50,7 @@ public abstract class ConnectTokensStateTracker {
             return;
         }
 
-        broadcastManager.unregisterReceiver(receiver);
+        tokenStateStream.removeListener(listener);
         isTracking = false;
     }
 
@@ -57,8 +61,4 @@ public abstract class ConnectTokensStateTracker {
     public boolean isTracking() {
         return isTracking;
     }
-
-    private void addBroadcastReceiver() {
-        broadcastManager.registerReceiver(receiver, loginStateChangedFilter);
-    }
 }
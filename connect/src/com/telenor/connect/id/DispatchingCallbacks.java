@@ -0,0 +1,112 @@
+package com.telenor.connect.id;
+
+import com.telenor.connect.ConnectCallback;
+
+import java.util.concurrent.Executor;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Wraps callbacks of the app so that they are called on the given executor, instead of the
+ * thread the SDK handled the response on.
+ */
+final class DispatchingCallbacks {
+
+    private DispatchingCallbacks() {}
+
+    static AccessTokenCallback on(
+            final Executor executor, final AccessTokenCallback callback) {
+        return new AccessTokenCallback() {
+            @Override
+            public void success(final String accessToken) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.success(accessToken);
+                    }
+                });
+            }
+
+            @Override
+            public void unsuccessfulResult(
+                    final Response response, final boolean userDataRemoved) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.unsuccessfulResult(response, userDataRemoved);
+                    }
+                });
+            }
+
+            @Override
+            public void failure(final Call<ConnectTokensTO> call, final Throwable error) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.failure(call, error);
+                    }
+                });
+            }
+
+            @Override
+            public void noSignedInUser() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.noSignedInUser();
+                    }
+                });
+            }
+        };
+    }
+
+    static ConnectCallback on(final Executor executor, final ConnectCallback callback) {
+        return new ConnectCallback() {
+            @Override
+            public void onSuccess(final Object successData) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(successData);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final Object errorData) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(errorData);
+                    }
+                });
+            }
+        };
+    }
+
+    static <T> Callback<T> on(final Executor executor, final Callback<T> callback) {
+        return new Callback<T>() {
+            @Override
+            public void onResponse(final Call<T> call, final Response<T> response) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(call, response);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Call<T> call, final Throwable error) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(call, error);
+                    }
+                });
+            }
+        };
+    }
+}
@@ -1,7 +1,6 @@
 package com.telenor.connect.id;
 
 import com.nimbusds.jwt.ReadOnlyJWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 import com.telenor.connect.ConnectException;
 
 import java.text.ParseException;
@@ -28,18 +27,20 @@ public class IdToken {
     private final String phoneNumber;
     private final Boolean phoneNumberVerified;
     private final String nonce;
+    private transient volatile ReadOnlyJWTClaimsSet claimsSet;
 
     public IdToken(String serializedSignedJwt) {
         this.serializedSignedJwt = serializedSignedJwt;
         ReadOnlyJWTClaimsSet jwtClaimsSet;
 
         try {
-            jwtClaimsSet = SignedJWT.parse(serializedSignedJwt).getJWTClaimsSet();
+            jwtClaimsSet = IdTokenClaimsCache.getClaims(serializedSignedJwt);
         } catch (ParseException e) {
             throw new ConnectException(
                     "Could not parse saved id token. idToken=" + this, e);
         }
 
+        claimsSet = jwtClaimsSet;
         subject = jwtClaimsSet.getSubject();
         expirationDate = jwtClaimsSet.getExpirationTime();
         final Map<String, Object> customClaims = jwtClaimsSet.getCustomClaims();
@@ -99,6 +100,31 @@ public class IdToken {
         return nonce;
     }
 
+    /**
+     * @param name the name of the claim.
+     * @return the value of the given claim in the ID token, or {@code null} if it is not present.
+     */
+    public Object getClaim(String name) {
+        return getClaimsSet().getClaim(name);
+    }
+
+    /**
+     * @return all claims of the ID token.
+     */
+    public ReadOnlyJWTClaimsSet getClaimsSet() {
+        ReadOnlyJWTClaimsSet result = claimsSet;
+        if (result == null) {
+            try {
+                result = IdTokenClaimsCache.getClaims(serializedSignedJwt);
+            } catch (ParseException e) {
+                throw new ConnectException(
+                        "Could not parse saved id token. idToken=" + this, e);
+            }
+            claimsSet = result;
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return "IdToken{" +
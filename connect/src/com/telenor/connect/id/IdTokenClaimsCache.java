@@ -0,0 +1,78 @@
+package com.telenor.connect.id;
+
+import com.nimbusds.jwt.ReadOnlyJWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the parsed JWT and decoded claims of the most recently used ID tokens, so that a
+ * serialized JWT is only parsed once no matter how many times it is read from the store or
+ * validated.
+ */
+public class IdTokenClaimsCache {
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static final Map<String, Entry> cache
+            = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static class Entry {
+        private final SignedJWT signedJwt;
+        private final ReadOnlyJWTClaimsSet claimsSet;
+
+        Entry(SignedJWT signedJwt, ReadOnlyJWTClaimsSet claimsSet) {
+            this.signedJwt = signedJwt;
+            this.claimsSet = claimsSet;
+        }
+    }
+
+    private IdTokenClaimsCache() {}
+
+    /**
+     * @param serializedSignedJwt the ID token as received from the server.
+     * @return the claims of the ID token, parsed at most once per distinct token.
+     * @throws ParseException if the token is not a valid signed JWT.
+     */
+    public static ReadOnlyJWTClaimsSet getClaims(String serializedSignedJwt)
+            throws ParseException {
+        return getEntry(serializedSignedJwt).claimsSet;
+    }
+
+    /**
+     * @param serializedSignedJwt the ID token as received from the server.
+     * @return the parsed ID token, used to get its header and verify its signature.
+     * @throws ParseException if the token is not a valid signed JWT.
+     */
+    public static SignedJWT getSignedJwt(String serializedSignedJwt) throws ParseException {
+        return getEntry(serializedSignedJwt).signedJwt;
+    }
+
+    private static Entry getEntry(String serializedSignedJwt) throws ParseException {
+        synchronized (cache) {
+            Entry entry = cache.get(serializedSignedJwt);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        SignedJWT signedJwt = SignedJWT.parse(serializedSignedJwt);
+        Entry entry = new Entry(signedJwt, signedJwt.getJWTClaimsSet());
+        synchronized (cache) {
+            cache.put(serializedSignedJwt, entry);
+        }
+        return entry;
+    }
+
+    static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
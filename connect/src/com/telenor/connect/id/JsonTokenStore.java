@@ -0,0 +1,139 @@
+package com.telenor.connect.id;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+
+import java.lang.reflect.Type;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.telenor.connect.id.ConnectStore.PREFERENCES_FILE;
+
+/**
+ * Stores tokens as Gson serialized JSON in {@code SharedPreferences}. This is the format used
+ * by earlier versions of the SDK, which {@link BinaryTokenStore} migrates from.
+ */
+public class JsonTokenStore implements TokenStore {
+
+    private static final String PREFERENCE_KEY_CONNECT_TOKENS = "CONNECT_TOKENS";
+    private static final String PREFERENCE_KEY_ID_TOKEN = "ID_TOKEN";
+    private static final Gson preferencesGson =
+            new GsonBuilder()
+                    .setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                    .registerTypeAdapter(Date.class, new DateDeserializer())
+                    .create();
+
+    private static class DateDeserializer implements JsonDeserializer<Date> {
+        @SuppressLint("SimpleDateFormat")
+        @Override
+        public Date deserialize(JsonElement je, Type type, JsonDeserializationContext jdc)
+                throws JsonParseException {
+            String date = je.getAsString();
+
+            try {
+                return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(date);
+            } catch (ParseException e) {}
+
+            try {
+                return new SimpleDateFormat("MMM d, y h:mm:ss").parse(date);
+            } catch (ParseException e) {}
+
+            try {
+                return new SimpleDateFormat("MMM d, y h:mm:ss", Locale.US).parse(date);
+            } catch (ParseException e) {}
+
+            try {
+                return DateFormat
+                        .getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT).parse(date);
+            } catch (ParseException e) {}
+
+            try {
+                return DateFormat.getDateTimeInstance(
+                        DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US).parse(date);
+            } catch (ParseException e) {}
+
+            throw new JsonParseException("Invalid date:" + date);
+        }
+    }
+
+    private final Context context;
+
+    public JsonTokenStore(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void set(ConnectTokens connectTokens) {
+        String jsonConnectTokens = preferencesGson.toJson(connectTokens);
+        String jsonIdToken = preferencesGson.toJson(connectTokens.getIdToken());
+        context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREFERENCE_KEY_CONNECT_TOKENS, jsonConnectTokens)
+                .putString(PREFERENCE_KEY_ID_TOKEN, jsonIdToken)
+                .apply();
+    }
+
+    @Override
+    public void update(ConnectTokens connectTokens) {
+        String jsonConnectTokens = preferencesGson.toJson(connectTokens);
+        context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREFERENCE_KEY_CONNECT_TOKENS, jsonConnectTokens)
+                .apply();
+    }
+
+    @Override
+    public ConnectTokens get() {
+        String connectTokensJson = context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .getString(PREFERENCE_KEY_CONNECT_TOKENS, null);
+        try {
+            return preferencesGson.fromJson(connectTokensJson, ConnectTokens.class);
+        } catch (JsonSyntaxException e) {
+            clear();
+            return null;
+        }
+    }
+
+    @Override
+    public IdToken getIdToken() {
+        String idTokenJson = context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .getString(PREFERENCE_KEY_ID_TOKEN, null);
+        try {
+            return preferencesGson.fromJson(idTokenJson, IdToken.class);
+        } catch (JsonSyntaxException e) {
+            clear();
+            return null;
+        }
+    }
+
+    public boolean hasTokens() {
+        return context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .contains(PREFERENCE_KEY_CONNECT_TOKENS);
+    }
+
+    @Override
+    public void clear() {
+        context
+                .getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .edit()
+                .remove(PREFERENCE_KEY_CONNECT_TOKENS)
+                .remove(PREFERENCE_KEY_ID_TOKEN)
+                .apply();
+    }
+}
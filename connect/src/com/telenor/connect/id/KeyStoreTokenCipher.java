@@ -0,0 +1,83 @@
+package com.telenor.connect.id;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts tokens with AES/GCM using a key kept in the Android Keystore. The random IV is
+ * prepended to the ciphertext.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class KeyStoreTokenCipher implements TokenCipher {
+
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "com.telenor.connect.TOKEN_KEY";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private SecretKey secretKey;
+
+    @Override
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey());
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] result = new byte[iv.length + ciphertext.length];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        System.arraycopy(ciphertext, 0, result, iv.length, ciphertext.length);
+        return result;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws GeneralSecurityException {
+        if (ciphertext.length < IV_LENGTH) {
+            throw new GeneralSecurityException("Ciphertext is too short");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(
+                Cipher.DECRYPT_MODE,
+                getSecretKey(),
+                new GCMParameterSpec(TAG_LENGTH_BITS, ciphertext, 0, IV_LENGTH));
+        return cipher.doFinal(Arrays.copyOfRange(ciphertext, IV_LENGTH, ciphertext.length));
+    }
+
+    private synchronized SecretKey getSecretKey() throws GeneralSecurityException {
+        if (secretKey != null) {
+            return secretKey;
+        }
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+        try {
+            keyStore.load(null);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Could not load the Android Keystore", e);
+        }
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            secretKey = ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            return secretKey;
+        }
+        KeyGenerator keyGenerator
+                = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        keyGenerator.init(new KeyGenParameterSpec.Builder(
+                KEY_ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        secretKey = keyGenerator.generateKey();
+        return secretKey;
+    }
+}
@@ -0,0 +1,13 @@
+package com.telenor.connect.id;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts and decrypts the serialized tokens written by {@link BinaryTokenStore}.
+ */
+public interface TokenCipher {
+
+    byte[] encrypt(byte[] plaintext) throws GeneralSecurityException;
+
+    byte[] decrypt(byte[] ciphertext) throws GeneralSecurityException;
+}
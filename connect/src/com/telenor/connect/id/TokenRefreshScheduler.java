@@ -0,0 +1,250 @@
+package com.telenor.connect.id;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.telenor.connect.utils.ConnectUtils;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Refreshes the access token in the background a configurable amount of time before it expires,
+ * so that {@code getValidAccessToken} can be answered from memory. The skew is capped at a
+ * fraction of the token's remaining lifetime, so that short-lived tokens are not refreshed as
+ * soon as they are received. Failed refreshes are retried with jittered exponential backoff. No
+ * refreshes are made while the app has no started activities; a refresh that became due in the
+ * meantime is made when the app is foregrounded.
+ */
+public class TokenRefreshScheduler implements Application.ActivityLifecycleCallbacks {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 5 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    static final long MIN_REFRESH_DELAY_MILLIS = 5 * 1000;
+    static final double MAX_SKEW_FRACTION = 0.5;
+    static final long FOREGROUND_CHECK_DELAY_MILLIS = 1000;
+
+    private final Application application;
+    private final ConnectIdService connectIdService;
+    private final long refreshSkewMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+    private final Runnable foregroundCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkUntrackedActivities();
+        }
+    };
+
+    private final Set<Activity> startedActivities
+            = Collections.newSetFromMap(new WeakHashMap<Activity, Boolean>());
+
+    private Date expirationDate;
+    // Whether an activity that was already started when the scheduler started following them
+    // may still be started. There may be several, so this is checked again when one stops.
+    private boolean untrackedActivityStarted;
+    private boolean paused;
+    private boolean running;
+    private int failedAttempts;
+
+    /**
+     * @param application the application used to follow whether the app is in the foreground.
+     * @param connectIdService the service whose tokens will be refreshed.
+     * @param refreshSkewMillis how long before the access token expires it should be refreshed.
+     */
+    public TokenRefreshScheduler(
+            Application application, ConnectIdService connectIdService, long refreshSkewMillis) {
+        this.application = application;
+        this.connectIdService = connectIdService;
+        this.refreshSkewMillis = refreshSkewMillis;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        untrackedActivityStarted = isAppInForeground();
+        paused = startedActivities.isEmpty() && !untrackedActivityStarted;
+        application.registerActivityLifecycleCallbacks(this);
+        schedule(connectIdService.getAccessTokenExpirationTime());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        application.unregisterActivityLifecycleCallbacks(this);
+        startedActivities.clear();
+        handler.removeCallbacks(foregroundCheck);
+        cancel();
+    }
+
+    /**
+     * Schedules the next refresh relative to the expiration date of the current access token.
+     *
+     * @param accessTokenExpirationDate expiration date of the current access token, or
+     *                                  {@code null} if no user is signed in.
+     */
+    public synchronized void schedule(Date accessTokenExpirationDate) {
+        expirationDate = accessTokenExpirationDate;
+        failedAttempts = 0;
+        postRefresh();
+    }
+
+    public synchronized void cancel() {
+        expirationDate = null;
+        failedAttempts = 0;
+        handler.removeCallbacks(refreshRunnable);
+    }
+
+    private void postRefresh() {
+        handler.removeCallbacks(refreshRunnable);
+        if (!running || paused || expirationDate == null) {
+            return;
+        }
+        long delay = failedAttempts > 0
+                ? getBackoffDelay(failedAttempts, random.nextDouble())
+                : getRefreshDelay(expirationDate, refreshSkewMillis, System.currentTimeMillis());
+        handler.postDelayed(refreshRunnable, delay);
+    }
+
+    private void refresh() {
+        connectIdService.onTokensExpiringSoon();
+        connectIdService.updateTokens(new AccessTokenCallback() {
+            @Override
+            public void success(String accessToken) {
+                // ConnectIdService reschedules with the new expiration date.
+            }
+
+            @Override
+            public void unsuccessfulResult(Response response, boolean userDataRemoved) {
+                if (!userDataRemoved) {
+                    retryLater();
+                }
+            }
+
+            @Override
+            public void failure(Call<ConnectTokensTO> call, Throwable error) {
+                Log.w(ConnectUtils.LOG_TAG, "Failed to refresh tokens in the background", error);
+                retryLater();
+            }
+
+            @Override
+            public void noSignedInUser() {
+                cancel();
+            }
+        });
+    }
+
+    private synchronized void retryLater() {
+        failedAttempts++;
+        postRefresh();
+    }
+
+    /**
+     * @return whether one of the app's activities is visible.
+     */
+    boolean isAppInForeground() {
+        ActivityManager activityManager
+                = (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes
+                = activityManager != null ? activityManager.getRunningAppProcesses() : null;
+        if (processes == null) {
+            return false;
+        }
+        int pid = Process.myPid();
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            if (process.pid == pid) {
+                return process.importance
+                        <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+            }
+        }
+        return false;
+    }
+
+    static long getRefreshDelay(Date expirationDate, long refreshSkewMillis, long now) {
+        long remainingMillis = expirationDate.getTime() - now;
+        long skewMillis = Math.min(
+                refreshSkewMillis, (long) (remainingMillis * MAX_SKEW_FRACTION));
+        return Math.max(MIN_REFRESH_DELAY_MILLIS, remainingMillis - skewMillis);
+    }
+
+    static long getBackoffDelay(int failedAttempts, double jitter) {
+        int exponent = Math.min(failedAttempts - 1, 16);
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << exponent);
+        return backoff / 2 + (long) (backoff / 2 * jitter);
+    }
+
+    @Override
+    public synchronized void onActivityStarted(Activity activity) {
+        startedActivities.add(activity);
+        if (paused) {
+            paused = false;
+            postRefresh();
+        }
+    }
+
+    @Override
+    public synchronized void onActivityStopped(Activity activity) {
+        if (!startedActivities.remove(activity)) {
+            handler.removeCallbacks(foregroundCheck);
+            untrackedActivityStarted = isAppInForeground();
+            if (untrackedActivityStarted) {
+                // The process may not have been moved to the background yet.
+                handler.postDelayed(foregroundCheck, FOREGROUND_CHECK_DELAY_MILLIS);
+            }
+        }
+        pauseIfNoActivityStarted();
+    }
+
+    private synchronized void checkUntrackedActivities() {
+        if (running && untrackedActivityStarted) {
+            untrackedActivityStarted = isAppInForeground();
+            pauseIfNoActivityStarted();
+        }
+    }
+
+    private void pauseIfNoActivityStarted() {
+        if (startedActivities.isEmpty() && !untrackedActivityStarted) {
+            paused = true;
+            handler.removeCallbacks(refreshRunnable);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {}
+}
@@ -0,0 +1,51 @@
+package com.telenor.connect.id;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A change of the signed in user's tokens, published by {@link TokenStateStream}.
+ */
+public final class TokenStateEvent {
+
+    public enum Type {
+        /** A user signed in, or the active account was switched to a signed in user. */
+        SIGNED_IN,
+        /** The access token was refreshed. */
+        REFRESHED,
+        /** The access token is about to expire and is being refreshed in the background. */
+        EXPIRING_SOON,
+        /** The user signed out, or the tokens were removed because they are no longer valid. */
+        SIGNED_OUT,
+        /** Refreshing the access token failed. The current tokens are kept. */
+        REFRESH_FAILED
+    }
+
+    private final Type type;
+    private final ConnectTokens tokens;
+
+    public TokenStateEvent(Type type, @Nullable ConnectTokens tokens) {
+        this.type = type;
+        this.tokens = tokens;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the tokens after the change, or {@code null} if no user is signed in.
+     */
+    @Nullable
+    public ConnectTokens getTokens() {
+        return tokens;
+    }
+
+    public boolean hasTokens() {
+        return tokens != null;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenStateEvent{type=" + type + ", hasTokens=" + hasTokens() + '}';
+    }
+}
@@ -0,0 +1,11 @@
+package com.telenor.connect.id;
+
+public interface TokenStateListener {
+
+    /**
+     * Called on the listener's executor for every change of the tokens.
+     *
+     * @param event the change, with the tokens after it.
+     */
+    void onTokenStateChanged(TokenStateEvent event);
+}
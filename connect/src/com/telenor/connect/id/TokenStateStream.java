@@ -0,0 +1,79 @@
+package com.telenor.connect.id;
+
+import com.telenor.connect.utils.ConnectExecutors;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes the changes of the signed in user's tokens to listeners in the same process. Each
+ * listener is called on the executor it was added with, and is given the tokens after the
+ * change, so it does not have to read them from the {@link ConnectStore}.
+ * <p>
+ * Listeners can be added and removed from any thread without blocking publishing, which only
+ * iterates a snapshot of the listeners.
+ */
+public class TokenStateStream {
+
+    private final CopyOnWriteArrayList<Registration> registrations
+            = new CopyOnWriteArrayList<>();
+    private volatile TokenStateEvent latest;
+
+    /**
+     * Adds a listener that is called on the main thread.
+     */
+    public void addListener(TokenStateListener listener) {
+        addListener(listener, ConnectExecutors.getMainThreadExecutor());
+    }
+
+    /**
+     * Adds a listener that is called on the executor. Adding a listener that was already added
+     * only changes its executor.
+     */
+    public void addListener(TokenStateListener listener, Executor executor) {
+        removeListener(listener);
+        registrations.add(new Registration(listener, executor));
+    }
+
+    public void removeListener(TokenStateListener listener) {
+        for (Registration registration : registrations) {
+            if (registration.listener == listener) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * @return the last published change, or {@code null} if nothing has been published.
+     */
+    public TokenStateEvent getLatest() {
+        return latest;
+    }
+
+    public void publish(TokenStateEvent event) {
+        latest = event;
+        for (Registration registration : registrations) {
+            registration.dispatch(event);
+        }
+    }
+
+    private static class Registration {
+
+        private final TokenStateListener listener;
+        private final Executor executor;
+
+        Registration(TokenStateListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void dispatch(final TokenStateEvent event) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onTokenStateChanged(event);
+                }
+            });
+        }
+    }
+}
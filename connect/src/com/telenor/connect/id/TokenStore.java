@@ -0,0 +1,24 @@
+package com.telenor.connect.id;
+
+/**
+ * Persists the signed in user's tokens. {@link ConnectStore} delegates token persistence to an
+ * implementation of this interface.
+ */
+public interface TokenStore {
+
+    /**
+     * Saves new tokens, together with their ID token.
+     */
+    void set(ConnectTokens connectTokens);
+
+    /**
+     * Saves refreshed tokens, keeping the ID token saved by the last {@link #set(ConnectTokens)}.
+     */
+    void update(ConnectTokens connectTokens);
+
+    ConnectTokens get();
+
+    IdToken getIdToken();
+
+    void clear();
+}
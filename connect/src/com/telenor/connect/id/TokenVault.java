@@ -0,0 +1,215 @@
+package com.telenor.connect.id;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import okio.ByteString;
+
+/**
+ * Keeps the tokens of several signed in users, keyed by the subject of their ID token, of which
+ * one is the active account. The {@link TokenStore} methods act on the active account, and
+ * saving new tokens with {@link #set(ConnectTokens)} adds their subject as an account and makes
+ * it the active one.
+ * <p>
+ * Each account's tokens are saved by a {@link BinaryTokenStore} in a preferences file of its
+ * own, so switching accounts reads or writes no tokens, and only the files of the accounts that
+ * are used are ever loaded. Tokens saved by earlier versions of the SDK, which only knew one
+ * account, are migrated on first use.
+ */
+public class TokenVault implements TokenStore {
+
+    private static final String VAULT_PREFERENCES_FILE = "com.telenor.connect.TOKEN_VAULT";
+    private static final String ACCOUNT_PREFERENCES_FILE_PREFIX = "com.telenor.connect.ACCOUNT_";
+    private static final String PREFERENCE_KEY_ACCOUNTS = "ACCOUNTS";
+    private static final String PREFERENCE_KEY_ACTIVE_ACCOUNT = "ACTIVE_ACCOUNT";
+    private static final String PREFERENCE_KEY_MIGRATED = "MIGRATED";
+
+    // Tokens without an ID token have no subject to be saved under.
+    static final String UNKNOWN_SUBJECT = "";
+
+    private final Context context;
+    private final TokenCipher tokenCipher;
+    private final Map<String, TokenStore> accountStores = new HashMap<>();
+
+    private Set<String> accounts;
+    private String activeAccount;
+
+    /**
+     * @param context context used to access {@code SharedPreferences}.
+     * @param tokenCipher cipher used to encrypt the saved tokens, or {@code null} to save them
+     *                    unencrypted.
+     */
+    public TokenVault(Context context, @Nullable TokenCipher tokenCipher) {
+        this.context = context;
+        this.tokenCipher = tokenCipher;
+    }
+
+    /**
+     * @return the subjects of the accounts with saved tokens.
+     */
+    public synchronized Set<String> getAccounts() {
+        load();
+        return Collections.unmodifiableSet(new HashSet<>(accounts));
+    }
+
+    /**
+     * @return the subject of the active account, or {@code null} if no account is active.
+     */
+    public synchronized String getActiveAccount() {
+        load();
+        return activeAccount;
+    }
+
+    /**
+     * Makes the account with the subject the active one.
+     *
+     * @return {@code false} if there are no saved tokens for the subject.
+     */
+    public synchronized boolean setActiveAccount(String subject) {
+        load();
+        if (!accounts.contains(subject)) {
+            return false;
+        }
+        activeAccount = subject;
+        saveIndex();
+        return true;
+    }
+
+    /**
+     * Removes the saved tokens of the account with the subject. If it was the active account,
+     * no account is active afterwards.
+     */
+    public synchronized void remove(String subject) {
+        load();
+        if (!accounts.remove(subject)) {
+            return;
+        }
+        getAccountStore(subject).clear();
+        accountStores.remove(subject);
+        if (subject.equals(activeAccount)) {
+            activeAccount = null;
+        }
+        saveIndex();
+    }
+
+    @Override
+    public synchronized void set(ConnectTokens connectTokens) {
+        load();
+        String subject = getSubject(connectTokens);
+        getAccountStore(subject).set(connectTokens);
+        accounts.add(subject);
+        activeAccount = subject;
+        saveIndex();
+    }
+
+    @Override
+    public synchronized void update(ConnectTokens connectTokens) {
+        load();
+        if (activeAccount == null) {
+            set(connectTokens);
+            return;
+        }
+        getAccountStore(activeAccount).update(connectTokens);
+    }
+
+    /**
+     * Updates the tokens of the account with the subject, whether or not it is the active one.
+     * Nothing is saved if the account has been removed.
+     */
+    public synchronized void update(String subject, ConnectTokens connectTokens) {
+        load();
+        if (!accounts.contains(subject)) {
+            return;
+        }
+        getAccountStore(subject).update(connectTokens);
+    }
+
+    @Override
+    public synchronized ConnectTokens get() {
+        load();
+        return activeAccount != null ? getAccountStore(activeAccount).get() : null;
+    }
+
+    @Override
+    public synchronized IdToken getIdToken() {
+        load();
+        return activeAccount != null ? getAccountStore(activeAccount).getIdToken() : null;
+    }
+
+    /**
+     * Removes the saved tokens of the active account only.
+     */
+    @Override
+    public synchronized void clear() {
+        load();
+        if (activeAccount != null) {
+            remove(activeAccount);
+        }
+    }
+
+    private void load() {
+        if (accounts != null) {
+            return;
+        }
+        SharedPreferences preferences = getPreferences();
+        accounts = new HashSet<>(preferences.getStringSet(
+                PREFERENCE_KEY_ACCOUNTS, Collections.<String>emptySet()));
+        activeAccount = preferences.getString(PREFERENCE_KEY_ACTIVE_ACCOUNT, null);
+        if (!preferences.getBoolean(PREFERENCE_KEY_MIGRATED, false)) {
+            migrateSingleAccountTokens();
+        }
+    }
+
+    private void migrateSingleAccountTokens() {
+        BinaryTokenStore singleAccountStore = new BinaryTokenStore(context, tokenCipher);
+        ConnectTokens connectTokens = singleAccountStore.get();
+        if (connectTokens != null) {
+            String subject = getSubject(connectTokens);
+            getAccountStore(subject).set(connectTokens);
+            accounts.add(subject);
+            activeAccount = subject;
+        }
+        singleAccountStore.clear();
+        getPreferences()
+                .edit()
+                .putStringSet(PREFERENCE_KEY_ACCOUNTS, new HashSet<>(accounts))
+                .putString(PREFERENCE_KEY_ACTIVE_ACCOUNT, activeAccount)
+                .putBoolean(PREFERENCE_KEY_MIGRATED, true)
+                .apply();
+    }
+
+    private void saveIndex() {
+        getPreferences()
+                .edit()
+                .putStringSet(PREFERENCE_KEY_ACCOUNTS, new HashSet<>(accounts))
+                .putString(PREFERENCE_KEY_ACTIVE_ACCOUNT, activeAccount)
+                .apply();
+    }
+
+    private TokenStore getAccountStore(String subject) {
+        TokenStore store = accountStores.get(subject);
+        if (store == null) {
+            store = new BinaryTokenStore(context, tokenCipher, ACCOUNT_PREFERENCES_FILE_PREFIX
+                    + ByteString.encodeUtf8(subject).sha256().hex());
+            accountStores.put(subject, store);
+        }
+        return store;
+    }
+
+    private static String getSubject(ConnectTokens connectTokens) {
+        IdToken idToken = connectTokens.getIdToken();
+        String subject = idToken != null ? idToken.getSubject() : null;
+        return subject != null ? subject : UNKNOWN_SUBJECT;
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(VAULT_PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,59 @@
+package com.telenor.connect.sms;
+
+import android.content.Context;
+import android.content.IntentFilter;
+
+/**
+ * Reads SMS through the {@code SMS_RECEIVED} broadcast and the SMS inbox, which requires the
+ * {@code READ_SMS} and {@code RECEIVE_SMS} permissions.
+ */
+public class InboxSmsSource implements SmsSource, SmsHandler {
+
+    private final IntentFilter smsFilter
+            = new IntentFilter("android.provider.Telephony.SMS_RECEIVED");
+    private final Context context;
+    private final SmsBroadcastReceiver smsBroadcastReceiver;
+    private final SmsInboxWatcher smsInboxWatcher;
+
+    private volatile SmsHandler smsHandler;
+    private boolean started;
+
+    public InboxSmsSource(Context context) {
+        this.context = context;
+        this.smsBroadcastReceiver = new SmsBroadcastReceiver(this);
+        this.smsInboxWatcher = new SmsInboxWatcher(context, this);
+    }
+
+    @Override
+    public boolean needsSmsPermissions() {
+        return true;
+    }
+
+    @Override
+    public synchronized void start(SmsHandler smsHandler, long receivedAfter) {
+        if (started) {
+            return;
+        }
+        started = true;
+        this.smsHandler = smsHandler;
+        context.registerReceiver(smsBroadcastReceiver, smsFilter);
+        smsInboxWatcher.start(receivedAfter);
+    }
+
+    @Override
+    public synchronized void stop() {
+        started = false;
+        try {
+            context.unregisterReceiver(smsBroadcastReceiver);
+        } catch (IllegalArgumentException ignore) {}
+        smsInboxWatcher.stop();
+    }
+
+    @Override
+    public void receivedSms(String originatingAddress, String messageBody) {
+        SmsHandler handler = smsHandler;
+        if (handler != null) {
+            handler.receivedSms(originatingAddress, messageBody);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.telenor.connect.sms;
 
 import android.annotation.TargetApi;
-import android.content.Context;
+import android.content.ContentResolver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
@@ -18,28 +18,27 @@ public class SmsCursorUtil {
             : Uri.parse("content://sms/inbox");
     private static final String BODY = CAN_USE_API ? Telephony.Sms.Inbox.BODY : "body";
     private static final String DATE = CAN_USE_API ? Telephony.Sms.Inbox.DATE : "date";
+    private static final String ID = CAN_USE_API ? Telephony.Sms.Inbox._ID : "_id";
+    private static final String ADDRESS = CAN_USE_API ? Telephony.Sms.Inbox.ADDRESS : "address";
 
-    private static final String DEFAULT_SORT_ORDER = CAN_USE_API
-            ? Telephony.Sms.Inbox.DEFAULT_SORT_ORDER
-            : "date DESC";
+    public static Uri getSmsInboxUri() {
+        return smsInboxUri;
+    }
 
+    /**
+     * Queries the inbox for the messages with a higher {@code _id} than the last one seen, that
+     * were received after the given time, oldest first. The columns are the {@code _id},
+     * {@code address} and {@code body} of the messages.
+     */
     @Nullable
-    public static Cursor getSmsCursor(Context context, long receivedAfter) {
-        Uri mUri = smsInboxUri;
-        String[] mProjection = new String[] { BODY };
-
-        String mSelectionClause = DATE + " > ?";
-
-        String[] mSelectionArgs = new String[] { String.valueOf(receivedAfter) };
-
-        String mSortOrder = DEFAULT_SORT_ORDER;
-
-        return context.getContentResolver().query(
-                mUri,
-                mProjection,
-                mSelectionClause,
-                mSelectionArgs,
-                mSortOrder
+    public static Cursor getSmsCursor(
+            ContentResolver contentResolver, long receivedAfter, long afterId) {
+        return contentResolver.query(
+                smsInboxUri,
+                new String[] { ID, ADDRESS, BODY },
+                ID + " > ? AND " + DATE + " > ?",
+                new String[] { String.valueOf(afterId), String.valueOf(receivedAfter) },
+                ID + " ASC"
         );
     }
 
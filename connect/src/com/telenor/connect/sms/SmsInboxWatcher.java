@@ -0,0 +1,114 @@
+package com.telenor.connect.sms;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.telenor.connect.utils.ConnectUtils;
+
+/**
+ * Watches the SMS inbox for messages that arrive while it is started, and passes each of them
+ * to an {@link SmsHandler}. The inbox is queried on a background thread, once when the watcher
+ * is started and again whenever the inbox changes. Each query only asks for the messages newer
+ * than the last one seen, so no message is handed over twice, also across restarts.
+ */
+public class SmsInboxWatcher {
+
+    private final ContentResolver contentResolver;
+    private final SmsHandler smsHandler;
+    private final Runnable scan = new Runnable() {
+        @Override
+        public void run() {
+            scan();
+        }
+    };
+
+    private HandlerThread thread;
+    private Handler handler;
+    private ContentObserver observer;
+    private volatile long receivedAfter;
+    private volatile long lastSeenId = -1;
+
+    /**
+     * @param context the context whose {@link ContentResolver} is used to read the inbox.
+     * @param smsHandler the handler that is given the messages, on the watcher's thread.
+     */
+    public SmsInboxWatcher(Context context, SmsHandler smsHandler) {
+        this.contentResolver = context.getContentResolver();
+        this.smsHandler = smsHandler;
+    }
+
+    /**
+     * Starts watching the inbox, unless already started. Requires the {@code READ_SMS}
+     * permission.
+     *
+     * @param receivedAfter the time in milliseconds after which a message must have been
+     *                      received to be handed over.
+     */
+    public synchronized void start(long receivedAfter) {
+        if (handler != null || contentResolver == null) {
+            return;
+        }
+        this.receivedAfter = receivedAfter;
+        thread = new HandlerThread("ConnectSdk-sms-inbox");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                scan();
+            }
+        };
+        try {
+            contentResolver.registerContentObserver(
+                    SmsCursorUtil.getSmsInboxUri(), true, observer);
+        } catch (SecurityException e) {
+            Log.e(ConnectUtils.LOG_TAG, "Failed to watch SMS inbox", e);
+        }
+        handler.post(scan);
+    }
+
+    public synchronized void stop() {
+        if (handler == null) {
+            return;
+        }
+        contentResolver.unregisterContentObserver(observer);
+        handler.removeCallbacks(scan);
+        thread.quit();
+        thread = null;
+        handler = null;
+        observer = null;
+    }
+
+    long getLastSeenId() {
+        return lastSeenId;
+    }
+
+    private void scan() {
+        Cursor cursor;
+        try {
+            cursor = SmsCursorUtil.getSmsCursor(contentResolver, receivedAfter, lastSeenId);
+        } catch (SecurityException e) {
+            Log.e(ConnectUtils.LOG_TAG, "Failed to acquire SMS cursor", e);
+            return;
+        }
+        if (cursor != null) {
+            handleMessages(cursor);
+        }
+    }
+
+    void handleMessages(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                lastSeenId = Math.max(lastSeenId, cursor.getLong(0));
+                smsHandler.receivedSms(cursor.getString(1), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,9 +1,26 @@
 package com.telenor.connect.sms;
 
+import android.util.Log;
+
 import com.telenor.connect.ui.Instruction;
+import com.telenor.connect.utils.ConnectUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class SmsPinParseUtil {
 
@@ -12,20 +29,240 @@ public class SmsPinParseUtil {
     // checked for the keyword `CONNECT`. Otherwise a malicious person might use a regex that
     // grabs the entire sms, from all senders.
 
+    // The patterns come from the server, so a pattern that backtracks catastrophically must not
+    // be able to hang the thread that checks the SMS. Matching can not be stopped once it has
+    // started, so each match runs on a thread of its own that is abandoned if it takes longer
+    // than the time budget, and patterns with nested quantifiers are not used at all.
+    static final long MATCH_TIME_BUDGET_MILLIS = 50;
+    // A pattern is only left out after timing out this many times in a row, so that a slow
+    // device or a busy moment does not disable a valid pattern for good. This also limits the
+    // number of abandoned matches a pattern can leave running.
+    static final int MAX_PATTERN_TIMEOUTS = 3;
+    // Longer than any PIN SMS, also when it is sent in several parts.
+    static final int MAX_BODY_LENGTH = 1000;
+    private static final long MAX_START_DELAY_MILLIS = 1000;
+    private static final int MAX_CACHED_INSTRUCTIONS = 8;
+
+    private static final AtomicInteger matcherThreadCount = new AtomicInteger();
+    private static final ConcurrentHashMap<Pattern, AtomicInteger> patternTimeouts
+            = new ConcurrentHashMap<>();
+
+    private static final Map<List<Object>, List<Pattern>> compiledPatterns
+            = new LinkedHashMap<List<Object>, List<Pattern>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, List<Pattern>> eldest) {
+            return size() > MAX_CACHED_INSTRUCTIONS;
+        }
+    };
+
     public static String findPin(String body, Instruction instruction) {
         if (body == null || body.isEmpty() || !body.contains(MUST_CONTAIN)) {
             return null;
         }
+        if (body.length() > MAX_BODY_LENGTH) {
+            Log.w(ConnectUtils.LOG_TAG, "Ignored SMS of " + body.length() + " characters");
+            return null;
+        }
 
-        for (Object pattern: instruction.getArguments()) {
-            Pattern patternToMatch = Pattern.compile((String) pattern);
-            Matcher matcher = patternToMatch.matcher(body);
-            if (!matcher.find()) {
+        for (Pattern pattern : getPinPatterns(instruction)) {
+            AtomicInteger timeouts = patternTimeouts.get(pattern);
+            if (timeouts != null && timeouts.get() >= MAX_PATTERN_TIMEOUTS) {
                 continue;
             }
-
-            return matcher.group(1);
+            String pin = findPin(body, pattern);
+            if (pin != null) {
+                return pin;
+            }
         }
         return null;
     }
+
+    /**
+     * Matches the pattern on a new thread, and gives up if it takes longer than the time budget,
+     * counted from when the matching started. A thread that is given up on is left to finish
+     * the match at the lowest priority, and is never reused.
+     */
+    private static String findPin(String body, Pattern pattern) {
+        PinMatch match = new PinMatch(pattern, body);
+        FutureTask<String> future = new FutureTask<>(match);
+        Thread thread = new Thread(
+                future, "ConnectSdk-pin-matcher-" + matcherThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            if (!match.started.await(MAX_START_DELAY_MILLIS, TimeUnit.MILLISECONDS)) {
+                abandon(thread, future);
+                Log.w(ConnectUtils.LOG_TAG, "PIN matcher thread did not start, skipped "
+                        + pattern);
+                return null;
+            }
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(MATCH_TIME_BUDGET_MILLIS)
+                    - (System.nanoTime() - match.startedAt);
+            String pin = future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            patternTimeouts.remove(pattern);
+            return pin;
+        } catch (TimeoutException e) {
+            abandon(thread, future);
+            recordTimeout(pattern);
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to match PIN pattern " + pattern, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            abandon(thread, future);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static void abandon(Thread thread, FutureTask<String> future) {
+        future.cancel(false);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    private static void recordTimeout(Pattern pattern) {
+        AtomicInteger timeouts = patternTimeouts.get(pattern);
+        if (timeouts == null) {
+            AtomicInteger first = new AtomicInteger();
+            timeouts = patternTimeouts.putIfAbsent(pattern, first);
+            if (timeouts == null) {
+                timeouts = first;
+            }
+        }
+        int count = timeouts.incrementAndGet();
+        Log.w(ConnectUtils.LOG_TAG, "Gave up matching PIN pattern " + pattern + " (" + count
+                + (count >= MAX_PATTERN_TIMEOUTS ? " times, it will not be used again)" : ")"));
+    }
+
+    private static class PinMatch implements Callable<String> {
+
+        private final Pattern pattern;
+        private final String body;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile long startedAt;
+
+        PinMatch(Pattern pattern, String body) {
+            this.pattern = pattern;
+            this.body = body;
+        }
+
+        @Override
+        public String call() {
+            startedAt = System.nanoTime();
+            started.countDown();
+            Matcher matcher = pattern.matcher(body);
+            return matcher.find() ? matcher.group(1) : null;
+        }
+    }
+
+    /**
+     * Compiles the PIN patterns of the instruction, or returns them from the cache if they have
+     * been compiled before. Patterns that are not strings, do not compile or have no capturing
+     * group for the PIN are left out.
+     *
+     * @param instruction an instruction with PIN patterns as arguments.
+     * @return the valid patterns of the instruction.
+     */
+    public static List<Pattern> getPinPatterns(Instruction instruction) {
+        List<Object> arguments = instruction.getArguments();
+        if (arguments == null) {
+            return Collections.emptyList();
+        }
+        synchronized (compiledPatterns) {
+            List<Pattern> patterns = compiledPatterns.get(arguments);
+            if (patterns == null) {
+                patterns = compile(arguments);
+                compiledPatterns.put(new ArrayList<>(arguments), patterns);
+            }
+            return patterns;
+        }
+    }
+
+    private static List<Pattern> compile(List<Object> arguments) {
+        List<Pattern> patterns = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            if (!(argument instanceof String)) {
+                Log.w(ConnectUtils.LOG_TAG,
+                        "Ignored PIN pattern that is not a string: " + argument);
+                continue;
+            }
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile((String) argument);
+            } catch (PatternSyntaxException e) {
+                Log.w(ConnectUtils.LOG_TAG, "Ignored invalid PIN pattern " + argument, e);
+                continue;
+            }
+            if (pattern.matcher("").groupCount() < 1) {
+                Log.w(ConnectUtils.LOG_TAG, "Ignored PIN pattern without a group: " + argument);
+                continue;
+            }
+            if (hasNestedQuantifier((String) argument)) {
+                Log.w(ConnectUtils.LOG_TAG,
+                        "Ignored PIN pattern with a repeated group that repeats: " + argument);
+                continue;
+            }
+            patterns.add(pattern);
+        }
+        return Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * @return {@code true} if the pattern repeats a group that contains a quantifier itself,
+     * like {@code (a+)+} or {@code (.*a){20}}, which can backtrack exponentially.
+     */
+    static boolean hasNestedQuantifier(String pattern) {
+        // For each open group, whether it contains a quantifier so far.
+        List<Boolean> groups = new ArrayList<>();
+        boolean closedGroupQuantified = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            boolean afterGroup = closedGroupQuantified;
+            closedGroupQuantified = false;
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipCharacterClass(pattern, i);
+            } else if (c == '(') {
+                groups.add(false);
+            } else if (c == ')') {
+                if (!groups.isEmpty()) {
+                    closedGroupQuantified = groups.remove(groups.size() - 1);
+                    markQuantified(groups, closedGroupQuantified);
+                }
+            } else if (c == '*' || c == '+' || c == '{'
+                    || (c == '?' && i > 0 && pattern.charAt(i - 1) != '(')) {
+                if (afterGroup && c != '?') {
+                    return true;
+                }
+                markQuantified(groups, true);
+            }
+        }
+        return false;
+    }
+
+    private static void markQuantified(List<Boolean> groups, boolean quantified) {
+        if (quantified && !groups.isEmpty()) {
+            groups.set(groups.size() - 1, true);
+        }
+    }
+
+    private static int skipCharacterClass(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^') {
+            i++;
+        }
+        if (i < pattern.length() && pattern.charAt(i) == ']') {
+            i++;
+        }
+        for (; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        return i;
+    }
 }
@@ -0,0 +1,92 @@
+package com.telenor.connect.sms;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.phone.SmsRetriever;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.telenor.connect.utils.ConnectUtils;
+
+/**
+ * Reads the SMS that Google Play services hands to this app because it ends with the app's
+ * hash, see the SMS Retriever API. No SMS permissions are needed, but the server must send the
+ * PIN in such an SMS, and only SMS that arrive after the source was started are read.
+ */
+public class SmsRetrieverSmsSource extends BroadcastReceiver implements SmsSource {
+
+    // Only Google Play services holds this permission, so no other app can send a fake SMS.
+    private static final String SEND_PERMISSION
+            = "com.google.android.gms.auth.api.phone.permission.SEND";
+
+    private final Context context;
+
+    private SmsHandler smsHandler;
+    private boolean started;
+
+    public SmsRetrieverSmsSource(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public boolean needsSmsPermissions() {
+        return false;
+    }
+
+    @Override
+    public synchronized void start(SmsHandler smsHandler, long receivedAfter) {
+        if (started) {
+            return;
+        }
+        started = true;
+        this.smsHandler = smsHandler;
+        context.registerReceiver(
+                this, new IntentFilter(SmsRetriever.SMS_RETRIEVED_ACTION), SEND_PERMISSION, null);
+        SmsRetriever.getClient(context)
+                .startSmsRetriever()
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.e(ConnectUtils.LOG_TAG, "Failed to start SMS retriever", e);
+                    }
+                });
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        try {
+            context.unregisterReceiver(this);
+        } catch (IllegalArgumentException ignore) {}
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!SmsRetriever.SMS_RETRIEVED_ACTION.equals(intent.getAction())) {
+            return;
+        }
+        Bundle extras = intent.getExtras();
+        if (extras == null) {
+            return;
+        }
+        Status status = (Status) extras.get(SmsRetriever.EXTRA_STATUS);
+        if (status == null || status.getStatusCode() != CommonStatusCodes.SUCCESS) {
+            return;
+        }
+        SmsHandler handler;
+        synchronized (this) {
+            handler = started ? smsHandler : null;
+        }
+        if (handler != null) {
+            handler.receivedSms(null, extras.getString(SmsRetriever.EXTRA_SMS_MESSAGE));
+        }
+    }
+}
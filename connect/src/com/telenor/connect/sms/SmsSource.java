@@ -0,0 +1,25 @@
+package com.telenor.connect.sms;
+
+/**
+ * A source of incoming SMS that the PIN of a login can be read from.
+ */
+public interface SmsSource {
+
+    /**
+     * @return {@code true} if the source can only read SMS when the app has been granted the
+     * {@code READ_SMS} and {@code RECEIVE_SMS} permissions.
+     */
+    boolean needsSmsPermissions();
+
+    /**
+     * Starts passing the SMS that arrive to the handler, unless already started.
+     *
+     * @param smsHandler the handler that is given the SMS, on any thread.
+     * @param receivedAfter the time in milliseconds after which an SMS must have been received
+     *                      to be passed on, for sources that can also read SMS received before
+     *                      they were started.
+     */
+    void start(SmsHandler smsHandler, long receivedAfter);
+
+    void stop();
+}
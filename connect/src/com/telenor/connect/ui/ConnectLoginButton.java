@@ -33,11 +33,7 @@ public class ConnectLoginButton extends ConnectWebViewLoginButton {
     private static final Uri PRE_FETCH_URL
             = Uri.parse(
             ConnectUrlHelper
-                    .getConnectApiUrl()
-                    .newBuilder()
-                    .addPathSegment("id")
-                    .addPathSegment("android-sdk-prefetch-static-resources")
-                    .build()
+                    .getPrefetchStaticResourcesUrl(ConnectSdk.useStaging())
                     .uri()
                     .toString()
     );
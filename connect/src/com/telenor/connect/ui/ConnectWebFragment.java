@@ -3,6 +3,7 @@ package com.telenor.connect.ui;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -26,6 +27,7 @@ public class ConnectWebFragment extends Fragment {
     private ConnectCallback callback;
     private ConnectWebViewClient client;
     private WebView webView;
+    private LoginSessionKeepAlive keepAlive;
 
     @Override
     public void onAttach(Context context) {
@@ -57,6 +59,10 @@ public class ConnectWebFragment extends Fragment {
         loadingView.inflate();
         loadingView.setVisibility(View.VISIBLE);
         final String pageUrl = ConnectUrlHelper.getPageUrl(arguments);
+        final PrewarmedLoginPage prewarmedPage = LoginWebViewPool.take(pageUrl);
+        if (prewarmedPage != null) {
+            webView = replaceWebView(webView, prewarmedPage.getWebView());
+        }
         final WebErrorView webErrorView = view.findViewById(R.id.com_telenor_connect_error_view);
         setupErrorView(webView, loadingView, pageUrl, webErrorView, view);
 
@@ -67,10 +73,28 @@ public class ConnectWebFragment extends Fragment {
                 webErrorView,
                 new ParseTokenCallback(callback));
 
-        WebViewHelper.setupWebView(webView, client, pageUrl);
+        if (prewarmedPage != null) {
+            prewarmedPage.attach(getActivity(), client);
+            keepAlive = new LoginSessionKeepAlive(
+                    webView, pageUrl, prewarmedPage.getCreatedAt());
+        } else {
+            WebViewHelper.setupWebView(webView, client, pageUrl);
+            keepAlive = new LoginSessionKeepAlive(
+                    webView, pageUrl, SystemClock.elapsedRealtime());
+        }
+        client.setLoginSessionKeepAlive(keepAlive);
         return view;
     }
 
+    private static WebView replaceWebView(WebView layoutWebView, WebView prewarmedWebView) {
+        ViewGroup parent = (ViewGroup) layoutWebView.getParent();
+        int index = parent.indexOfChild(layoutWebView);
+        parent.removeViewAt(index);
+        prewarmedWebView.setId(layoutWebView.getId());
+        parent.addView(prewarmedWebView, index, layoutWebView.getLayoutParams());
+        return prewarmedWebView;
+    }
+
     private void setupErrorView(
             final WebView webView,
             final ViewStub loadingView,
@@ -93,6 +117,7 @@ public class ConnectWebFragment extends Fragment {
                         errorView.setVisibility(View.GONE);
                         loadingView.setVisibility(View.VISIBLE);
                         webView.loadUrl(pageUrl);
+                        keepAlive.onSessionStarted();
                     }
                 }, 1000);
             }
@@ -104,6 +129,7 @@ public class ConnectWebFragment extends Fragment {
         super.onPause();
         webView.onPause();
         client.onPause();
+        keepAlive.onPause();
     }
 
     @Override
@@ -111,6 +137,13 @@ public class ConnectWebFragment extends Fragment {
         super.onResume();
         webView.onResume();
         client.onResume();
+        keepAlive.onResume();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        keepAlive.onDestroyView();
     }
 
     @Override
@@ -3,13 +3,11 @@ package com.telenor.connect.ui;
 import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.net.Network;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.view.View;
@@ -22,29 +20,34 @@ import android.webkit.WebViewClient;
 import com.telenor.connect.ConnectCallback;
 import com.telenor.connect.ConnectSdk;
 import com.telenor.connect.WellKnownAPI;
-import com.telenor.connect.sms.SmsBroadcastReceiver;
-import com.telenor.connect.sms.SmsCursorUtil;
+import com.telenor.connect.sms.InboxSmsSource;
 import com.telenor.connect.sms.SmsHandler;
 import com.telenor.connect.sms.SmsPinParseUtil;
+import com.telenor.connect.sms.SmsRetrieverSmsSource;
+import com.telenor.connect.sms.SmsSource;
+import com.telenor.connect.utils.CellularFetcher;
+import com.telenor.connect.utils.ConnectExecutors;
 import com.telenor.connect.utils.ConnectUtils;
 import com.telenor.connect.utils.JavascriptUtil;
-
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.UnknownHostException;
+import com.telenor.connect.utils.NetworkAuthenticationTargetMatcher;
+import com.telenor.connect.utils.StaticResourceCache;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
-import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
-import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
-import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class ConnectWebViewClient extends WebViewClient implements SmsHandler, InstructionHandler {
 
-    private static final int RACE_CONDITION_DELAY_CHECK_ALREADY_RECEIVED_SMS = 700;
     private static final int READ_RECEIVE_SMS_REQUEST_CODE = 0x2321;
     private static final String[] SMS_PERMISSIONS
             = new String[]{Manifest.permission.READ_SMS, Manifest.permission.RECEIVE_SMS};
@@ -58,21 +61,41 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
             = "javascript:if (document.getElementById('android-instructions') !== null) {" +
             "window.AndroidInterface.processInstructions(document.getElementById('android-instructions').innerHTML)" +
             "}";
+    private static final String JAVASCRIPT_OBSERVES_INSTRUCTIONS
+            = "(function() {" +
+            "function send() {" +
+            "var element = document.getElementById('android-instructions');" +
+            "if (element === null || element.innerHTML.trim() === '') { return false; }" +
+            "window.AndroidInterface.processInstructions(element.innerHTML);" +
+            "return true;" +
+            "}" +
+            "if (send()) { return; }" +
+            "var observer = new MutationObserver(function() {" +
+            "if (send()) { observer.disconnect(); }" +
+            "});" +
+            "observer.observe(document, {childList: true, subtree: true, characterData: true});" +
+            "})();";
 
-    private final IntentFilter SMS_FILTER
-            = new IntentFilter("android.provider.Telephony.SMS_RECEIVED");
     private final Activity activity;
     private final View loadingView;
     private final WebErrorView errorView;
     private final WebView webView;
-    private final SmsBroadcastReceiver smsBroadcastReceiver;
+    private final SmsSource smsSource;
+    // Starts and stops the SMS source off the UI thread, in order.
+    private final Executor smsSourceExecutor = ConnectExecutors.newSerialExecutor();
+    private final Map<String, Long> instructionTimings = new HashMap<>();
     private final ConnectCallback connectCallback;
+    private final long createdAt = SystemClock.elapsedRealtime();
 
     private boolean waitingForPinSms = false;
-    private boolean instructionsReceived;
+    private volatile boolean instructionsReceived;
     private long pageLoadStarted;
     private Instruction callbackInstruction;
     private List<Instruction> smsPermissionsCallbackInstructions;
+    private NetworkAuthenticationTargetMatcher targetMatcher;
+    private boolean prewarmed;
+    private boolean firstPaintRecorded;
+    private LoginSessionKeepAlive keepAlive;
 
     public ConnectWebViewClient(
             Activity activity,
@@ -80,12 +103,25 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
             View loadingView,
             WebErrorView errorView,
             ConnectCallback callback) {
+        this(activity, webView, loadingView, errorView, callback,
+                ConnectSdk.isSmsRetrieverEnabled()
+                        ? new SmsRetrieverSmsSource(activity)
+                        : new InboxSmsSource(activity));
+    }
+
+    ConnectWebViewClient(
+            Activity activity,
+            WebView webView,
+            View loadingView,
+            WebErrorView errorView,
+            ConnectCallback callback,
+            SmsSource smsSource) {
         this.webView = webView;
         this.activity = activity;
         this.loadingView = loadingView;
         this.errorView = errorView;
         this.connectCallback = callback;
-        this.smsBroadcastReceiver = new SmsBroadcastReceiver(this);
+        this.smsSource = smsSource;
     }
 
     @Override
@@ -98,6 +134,10 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
         return false;
     }
 
+    void setLoginSessionKeepAlive(LoginSessionKeepAlive keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
     private String getOriginalState() {
         String url = activity.getIntent().getStringExtra(ConnectUtils.LOGIN_AUTH_URI);
         return Uri.parse(url).getQueryParameter("state");
@@ -106,84 +146,94 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
     @Override
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        WebResourceResponse response
+                = interceptThroughCellular(request.getUrl().toString(), getTargetMatcher());
+        return response != null ? response : interceptStaticResource(request);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    static WebResourceResponse interceptStaticResource(WebResourceRequest request) {
+        StaticResourceCache cache = ConnectSdk.getStaticResourceCache();
+        if (cache == null || !"GET".equals(request.getMethod())) {
+            return null;
+        }
+        StaticResourceCache.Resource resource = cache.get(request.getUrl().toString());
+        if (resource == null) {
+            return null;
+        }
+        return new WebResourceResponse(
+                resource.getMimeType(),
+                resource.getEncoding(),
+                200,
+                "OK",
+                resource.getHeaders(),
+                new ByteArrayInputStream(resource.getData()));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    static WebResourceResponse interceptThroughCellular(
+            String url, NetworkAuthenticationTargetMatcher targetMatcher) {
         if (!ConnectSdk.isCellularDataNetworkConnected()
                 || ConnectSdk.isCellularDataNetworkDefault()) {
             return null;
         }
-        if (shouldFetchThroughCellular(request.getUrl().toString())) {
-            return fetchUrlTroughCellular(request.getUrl().toString());
+        if (targetMatcher.matches(url)) {
+            return fetchThroughCellular(url, targetMatcher);
         }
         return null;
     }
 
     public boolean shouldFetchThroughCellular(String url) {
-        WellKnownAPI.WellKnownConfig wellKnownConfig =
-                (WellKnownAPI.WellKnownConfig) this.activity
-                .getIntent()
-                .getExtras()
-                .get(ConnectUtils.WELL_KNOWN_CONFIG_EXTRA);
-        if (wellKnownConfig == null ||
-                (wellKnownConfig.getNetworkAuthenticationTargetIps().isEmpty()
-                 && wellKnownConfig.getNetworkAuthenticationTargetUrls().isEmpty())) {
-            return false;
-        }
-        if (!wellKnownConfig.getNetworkAuthenticationTargetUrls().isEmpty()) {
-            for (String urlPrefix : wellKnownConfig.getNetworkAuthenticationTargetUrls()) {
-                if (url.contains(urlPrefix)) {
-                    return true;
-                }
-            }
-            return false;
-        } else {
-            String hostIp;
-            try {
-                String host = (new URL(url)).getHost();
-                hostIp = InetAddress.getByName(host).getHostAddress();
-            } catch (MalformedURLException | UnknownHostException e) {
-                return false;
-            }
-            return wellKnownConfig
-                    .getNetworkAuthenticationTargetIps()
-                    .contains(hostIp);
-        }
+        return getTargetMatcher().matches(url);
+    }
 
+    private synchronized NetworkAuthenticationTargetMatcher getTargetMatcher() {
+        if (targetMatcher == null) {
+            WellKnownAPI.WellKnownConfig wellKnownConfig =
+                    (WellKnownAPI.WellKnownConfig) this.activity
+                    .getIntent()
+                    .getExtras()
+                    .get(ConnectUtils.WELL_KNOWN_CONFIG_EXTRA);
+            targetMatcher = wellKnownConfig == null
+                    ? new NetworkAuthenticationTargetMatcher(
+                            Collections.<String>emptySet(),
+                            Collections.<String>emptySet(),
+                            ConnectSdk.getDnsCache())
+                    : new NetworkAuthenticationTargetMatcher(
+                            wellKnownConfig.getNetworkAuthenticationTargetUrls(),
+                            wellKnownConfig.getNetworkAuthenticationTargetIps(),
+                            ConnectSdk.getDnsCache());
+        }
+        return targetMatcher;
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public WebResourceResponse fetchUrlTroughCellular(String originalUrl) {
-        String newUrl = originalUrl;
-        int attempts = 0;
-        Network interfaceToUse = ConnectSdk.getCellularNetwork();
-        do {
-            int responseCode;
-            try {
-                HttpURLConnection connection
-                        = (HttpURLConnection)interfaceToUse.openConnection(new URL(newUrl));
-                connection.setInstanceFollowRedirects(false);
-                connection.connect();
-                responseCode = connection.getResponseCode();
-                attempts += 1;
-                if (responseCode != HTTP_SEE_OTHER
-                    && responseCode != HTTP_MOVED_TEMP
-                    && responseCode != HTTP_MOVED_PERM) {
-                    // Rely on the WebView to close the input stream when finished fetching data
-                    return new WebResourceResponse(
-                            connection.getContentType(),
-                            connection.getContentEncoding(),
-                            connection.getInputStream());
-                }
-                newUrl = connection.getHeaderField("Location");
-                // Close the input stream, but do not disconnect the connection as its socket might
-                // be reused during the next request.
-                connection.getInputStream().close();
-            } catch (final IOException e) {
-                return null;
-            }
-            interfaceToUse = shouldFetchThroughCellular(newUrl)
-                    ? ConnectSdk.getCellularNetwork()
-                    : ConnectSdk.getDefaultNetwork();
-        } while (attempts <= ConnectSdk.MAX_REDIRECTS_TO_FOLLOW_FOR_HE);
-        return null;
+        return fetchThroughCellular(originalUrl, getTargetMatcher());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static WebResourceResponse fetchThroughCellular(
+            String originalUrl, final NetworkAuthenticationTargetMatcher targetMatcher) {
+        Response response = ConnectSdk.getCellularFetcher().fetch(
+                originalUrl,
+                new CellularFetcher.Router() {
+                    @Override
+                    public boolean shouldFetchThroughCellular(String url) {
+                        return targetMatcher.matches(url);
+                    }
+                });
+        if (response == null) {
+            return null;
+        }
+        ResponseBody body = response.body();
+        MediaType contentType = body.contentType();
+        Charset charset = contentType != null ? contentType.charset() : null;
+        // Rely on the WebView to close the input stream when finished fetching data
+        return new WebResourceResponse(
+                contentType != null ? contentType.type() + "/" + contentType.subtype() : null,
+                charset != null ? charset.name() : null,
+                body.byteStream());
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
@@ -195,6 +245,18 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
         errorView.setVisibility(View.VISIBLE);
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onReceivedHttpError(
+            WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
+        super.onReceivedHttpError(view, request, errorResponse);
+        if (keepAlive != null
+                && request.isForMainFrame()
+                && LoginSessionKeepAlive.isSessionExpiredStatus(errorResponse.getStatusCode())) {
+            keepAlive.onSessionExpired();
+        }
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public void onReceivedError(WebView view, int errorCode,
@@ -226,27 +288,82 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
         }
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onPageCommitVisible(WebView view, String url) {
+        super.onPageCommitVisible(view, url);
+        recordFirstPaint();
+        if (!instructionsReceived) {
+            observeInstructions(view, url);
+        }
+    }
+
+    /**
+     * Makes the page send its instructions as soon as they are in the document, instead of
+     * waiting for the page to finish loading. The instructions are sent through the same
+     * {@code AndroidInterface} as by {@link #onPageFinished(WebView, String)}, which still checks
+     * the page in case the observer could not be installed.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    static void observeInstructions(WebView view, String url) {
+        if (shouldCheckPageForInstructions(url)) {
+            view.evaluateJavascript(JAVASCRIPT_OBSERVES_INSTRUCTIONS, null);
+        }
+    }
+
     @Override
     public void onPageFinished(WebView view, String url) {
         super.onPageFinished(view, url);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            recordFirstPaint();
+        }
         loadingView.setVisibility(View.GONE);
         if (!instructionsReceived && shouldCheckPageForInstructions(url)) {
             webView.loadUrl(JAVASCRIPT_PROCESSES_INSTRUCTIONS);
         }
     }
 
-    private boolean shouldCheckPageForInstructions(String url) {
-        return TD_HTTPS_PATTERN.matcher(url).find();
+    /**
+     * Takes over a page that was loaded by a {@link PrewarmedLoginPage} before this client was
+     * created, catching up on the page events that were missed.
+     */
+    void attachPrewarmedPage(
+            String url, long pageLoadStarted, boolean pageFinished, boolean painted) {
+        prewarmed = true;
+        if (pageLoadStarted > 0) {
+            this.pageLoadStarted = pageLoadStarted;
+        }
+        if (painted) {
+            recordFirstPaint();
+        }
+        if (pageFinished && url != null) {
+            onPageFinished(webView, url);
+        }
+    }
+
+    private void recordFirstPaint() {
+        if (firstPaintRecorded) {
+            return;
+        }
+        firstPaintRecorded = true;
+        LoginWebViewPool.recordTimeToFirstPaint(
+                SystemClock.elapsedRealtime() - createdAt, prewarmed);
+    }
+
+    private static boolean shouldCheckPageForInstructions(String url) {
+        return url != null && TD_HTTPS_PATTERN.matcher(url).find();
     }
 
     @Override
     public void givenInstructions(List<Instruction> instructions) {
-        if (instructionsReceived) {
-            return;
+        synchronized (this) {
+            if (instructionsReceived) {
+                return;
+            }
+            instructionsReceived = true;
         }
-        instructionsReceived = true;
 
-        if (containsSmsInstruction(instructions)) {
+        if (containsSmsInstruction(instructions) && smsSource.needsSmsPermissions()) {
             if (hasPermissionToReadSms()) {
                 executeInstructions(instructions);
             } else {
@@ -283,37 +400,91 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
         activity.requestPermissions(SMS_PERMISSIONS, READ_RECEIVE_SMS_REQUEST_CODE);
     }
 
+    /**
+     * Starts listening for the PIN SMS in the background and runs all JavaScript instructions
+     * in one go on the UI thread.
+     */
     private void executeInstructions(List<Instruction> instructions) {
+        final long deliveredAt = SystemClock.elapsedRealtime();
+        final List<Instruction> javascriptInstructions = new ArrayList<>(instructions.size());
         for (final Instruction instruction : instructions) {
             if (instruction.getName().equals(Instruction.PIN_INSTRUCTION_NAME)) {
                 getPinFromSms(instruction);
+                recordInstructionTiming(instruction, deliveredAt);
             } else {
-                runJavascriptInstruction(instruction);
+                javascriptInstructions.add(instruction);
             }
         }
-    }
-
-    private void runJavascriptInstruction(final Instruction instruction) {
+        if (javascriptInstructions.isEmpty()) {
+            return;
+        }
         webView.post(new Runnable() {
             @Override
             public void run() {
-                String javascript = JavascriptUtil.getJavascriptString(instruction);
-                webView.loadUrl("javascript:" + javascript);
+                runJavascript(JavascriptUtil.getJavascriptString(javascriptInstructions));
+                for (Instruction instruction : javascriptInstructions) {
+                    recordInstructionTiming(instruction, deliveredAt);
+                }
             }
         });
     }
 
+    private void runJavascript(String javascript) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            webView.evaluateJavascript(javascript, null);
+        } else {
+            webView.loadUrl("javascript:" + javascript);
+        }
+    }
+
+    private void recordInstructionTiming(Instruction instruction, long deliveredAt) {
+        long millis = SystemClock.elapsedRealtime() - deliveredAt;
+        synchronized (instructionTimings) {
+            instructionTimings.put(instruction.getName(), millis);
+        }
+        if (Log.isLoggable(ConnectUtils.LOG_TAG, Log.DEBUG)) {
+            Log.d(ConnectUtils.LOG_TAG,
+                    "Instruction " + instruction.getName() + " executed after " + millis + " ms");
+        }
+    }
+
+    /**
+     * @return for each instruction name, the time in milliseconds from the last instructions
+     * being handed over until that instruction had been run, or until its SMS listening had
+     * been set up.
+     */
+    Map<String, Long> getInstructionTimings() {
+        synchronized (instructionTimings) {
+            return new HashMap<>(instructionTimings);
+        }
+    }
+
     private void getPinFromSms(final Instruction instruction) {
         callbackInstruction = instruction;
         waitingForPinSms = true;
+        SmsPinParseUtil.getPinPatterns(instruction);
 
         subscribeToNewSms();
-        handleIfSmsAlreadyArrived(instruction);
         stopGetPin(CHECK_FOR_SMS_TIMEOUT);
     }
 
     private void subscribeToNewSms() {
-        activity.registerReceiver(smsBroadcastReceiver, SMS_FILTER);
+        final long receivedAfter = pageLoadStarted - CHECK_FOR_SMS_BACK_IN_TIME_MILLIS;
+        smsSourceExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                smsSource.start(ConnectWebViewClient.this, receivedAfter);
+            }
+        });
+    }
+
+    private void unsubscribeToNewSms() {
+        smsSourceExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                smsSource.stop();
+            }
+        });
     }
 
     private void stopGetPin(long delay) {
@@ -327,40 +498,7 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
 
     private void stopGetPin() {
         waitingForPinSms = false;
-        safeUnSubscribeToSmsReceived();
-    }
-
-    private void safeUnSubscribeToSmsReceived() {
-        try {
-            activity.unregisterReceiver(smsBroadcastReceiver);
-        } catch (IllegalArgumentException ignore) {}
-    }
-
-    private void handleIfSmsAlreadyArrived(final Instruction instruction) {
-        webView.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                Cursor cursor = null;
-                try {
-                    cursor = SmsCursorUtil.getSmsCursor(activity,
-                            pageLoadStarted-CHECK_FOR_SMS_BACK_IN_TIME_MILLIS);
-                } catch (SecurityException e) {
-                    Log.e(ConnectUtils.LOG_TAG, "Failed to acquire SMS cursor", e);
-                    return;
-                }
-
-                if (cursor == null || cursor.getCount() <= 0) {
-                    return;
-                }
-
-                if (!cursor.moveToFirst()) {
-                    return;
-                }
-
-                String body = cursor.getString(0);
-                handlePinFromSmsBodyIfPresent(body, instruction);
-            }
-        }, RACE_CONDITION_DELAY_CHECK_ALREADY_RECEIVED_SMS);
+        unsubscribeToNewSms();
     }
 
     private synchronized void handlePinFromSmsBodyIfPresent(String body, final Instruction instruction) {
@@ -385,13 +523,12 @@ public class ConnectWebViewClient extends WebViewClient implements SmsHandler, I
     }
 
     public void onPause() {
-        safeUnSubscribeToSmsReceived();
+        unsubscribeToNewSms();
     }
 
     public void onResume() {
         if (waitingForPinSms) {
             subscribeToNewSms();
-            handleIfSmsAlreadyArrived(callbackInstruction);
         }
     }
 
@@ -0,0 +1,296 @@
+package com.telenor.connect.ui;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebView;
+
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.ConnectUtils;
+import com.telenor.connect.utils.RestHelper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Reloads the login page when the server says its authorize session has expired, but only while
+ * the login fragment is resumed. A session that expires while the fragment is paused is reloaded
+ * when the fragment is resumed again, and nothing is reloaded after the fragment's view is
+ * destroyed.
+ * <p>
+ * The server says a session has expired by answering a login page request with one of the
+ * {@link #isSessionExpiredStatus(int) session expired statuses}, either while the page is used,
+ * see {@link #onSessionExpired()}, or when the session is checked. A session is checked once it
+ * has been open for {@link #SESSION_CHECK_MILLIS} while the fragment is resumed, and again every
+ * {@link #SESSION_CHECK_MILLIS} for as long as it is still valid.
+ * <p>
+ * The login page used to be reloaded every ten minutes without asking the server. Checks that
+ * find the session still valid are counted, see {@link #getAvoidedReloadCount()}.
+ */
+public class LoginSessionKeepAlive {
+
+    static final long SESSION_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final long CHECK_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // A session this new can not have expired, so an error status is not about the session, and
+    // reloading the page would most likely get the same status again.
+    static final long MIN_SESSION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final AtomicInteger reloads = new AtomicInteger();
+    private static final AtomicInteger avoidedReloads = new AtomicInteger();
+
+    private final WebView webView;
+    private final String pageUrl;
+    private final SessionCheck sessionCheck;
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            if (resumed) {
+                checkSession();
+            }
+        }
+    };
+
+    private long sessionStartedAt;
+    private long nextCheckAt;
+    private int avoidedReloadCount;
+    private boolean expired;
+    private boolean checking;
+    private boolean resumed;
+    private boolean destroyed;
+
+    /**
+     * @param webView the WebView showing the login page.
+     * @param pageUrl the authorize URL that starts a new session.
+     * @param sessionStartedAt the {@link SystemClock#elapsedRealtime()} at which the page was
+     *                         loaded, which may be before this keep-alive was created if the
+     *                         page was prewarmed.
+     */
+    LoginSessionKeepAlive(WebView webView, String pageUrl, long sessionStartedAt) {
+        this(webView, pageUrl, sessionStartedAt, new HttpSessionCheck());
+    }
+
+    LoginSessionKeepAlive(
+            WebView webView, String pageUrl, long sessionStartedAt, SessionCheck sessionCheck) {
+        this.webView = webView;
+        this.pageUrl = pageUrl;
+        this.sessionCheck = sessionCheck;
+        this.sessionStartedAt = sessionStartedAt;
+        this.nextCheckAt = sessionStartedAt + SESSION_CHECK_MILLIS;
+    }
+
+    /**
+     * @return how many times a login page has been reloaded because its session had expired.
+     */
+    public static int getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * @return how many times a login page would have been reloaded every ten minutes, but its
+     * session was found to be still valid.
+     */
+    public static int getAvoidedReloadCount() {
+        return avoidedReloads.get();
+    }
+
+    /**
+     * @return whether the server answers a login page request with this status when the
+     * authorize session is no longer known.
+     */
+    static boolean isSessionExpiredStatus(int statusCode) {
+        return statusCode == 401 || statusCode == 403 || statusCode == 410 || statusCode == 440;
+    }
+
+    /**
+     * Tells the keep-alive that the authorize URL has been loaded again, for example because the
+     * user tried again after an error.
+     */
+    void onSessionStarted() {
+        sessionStartedAt = SystemClock.elapsedRealtime();
+        nextCheckAt = sessionStartedAt + SESSION_CHECK_MILLIS;
+        expired = false;
+        if (resumed) {
+            scheduleCheck();
+        }
+    }
+
+    /**
+     * Tells the keep-alive that the server answered a login page request with a
+     * {@link #isSessionExpiredStatus(int) session expired status}.
+     */
+    void onSessionExpired() {
+        if (SystemClock.elapsedRealtime() - sessionStartedAt < MIN_SESSION_MILLIS) {
+            return;
+        }
+        expire();
+    }
+
+    void onResume() {
+        if (destroyed) {
+            return;
+        }
+        resumed = true;
+        if (expired) {
+            reload();
+        } else if (SystemClock.elapsedRealtime() >= nextCheckAt) {
+            checkSession();
+        } else {
+            scheduleCheck();
+        }
+    }
+
+    void onPause() {
+        resumed = false;
+        webView.removeCallbacks(check);
+    }
+
+    void onDestroyView() {
+        onPause();
+        if (destroyed) {
+            return;
+        }
+        destroyed = true;
+        if (avoidedReloadCount > 0 && Log.isLoggable(ConnectUtils.LOG_TAG, Log.DEBUG)) {
+            Log.d(ConnectUtils.LOG_TAG, "Avoided " + avoidedReloadCount + " login page reloads");
+        }
+    }
+
+    private void checkSession() {
+        if (checking) {
+            return;
+        }
+        checking = true;
+        String url = webView.getUrl();
+        sessionCheck.check(url != null ? url : pageUrl, new SessionCheck.Callback() {
+            @Override
+            public void onSessionValid() {
+                checking = false;
+                if (destroyed || expired) {
+                    return;
+                }
+                avoidedReloadCount++;
+                avoidedReloads.incrementAndGet();
+                nextCheckAt = SystemClock.elapsedRealtime() + SESSION_CHECK_MILLIS;
+                if (resumed) {
+                    scheduleCheck();
+                }
+            }
+
+            @Override
+            public void onSessionExpired() {
+                checking = false;
+                expire();
+            }
+
+            @Override
+            public void onCheckFailed() {
+                checking = false;
+                if (destroyed || expired) {
+                    return;
+                }
+                nextCheckAt = SystemClock.elapsedRealtime() + CHECK_RETRY_MILLIS;
+                if (resumed) {
+                    scheduleCheck();
+                }
+            }
+        });
+    }
+
+    private void expire() {
+        if (destroyed) {
+            return;
+        }
+        expired = true;
+        if (resumed) {
+            reload();
+        }
+    }
+
+    private void reload() {
+        webView.loadUrl(pageUrl);
+        reloads.incrementAndGet();
+        onSessionStarted();
+    }
+
+    private void scheduleCheck() {
+        webView.removeCallbacks(check);
+        long remaining = nextCheckAt - SystemClock.elapsedRealtime();
+        webView.postDelayed(check, Math.max(0, remaining));
+    }
+
+    /**
+     * Asks the server whether the session of a login page is still valid.
+     */
+    interface SessionCheck {
+
+        /**
+         * @param url the URL of the page whose session is checked.
+         * @param callback called on the main thread with the result.
+         */
+        void check(String url, Callback callback);
+
+        interface Callback {
+            void onSessionValid();
+            void onSessionExpired();
+            void onCheckFailed();
+        }
+    }
+
+    /**
+     * Checks a session with a {@code HEAD} request for the page, sent with the WebView's cookies,
+     * so that the page is not loaded again. Redirects are not followed, since only the status of
+     * the page itself says whether the session is still known.
+     */
+    static class HttpSessionCheck implements SessionCheck {
+
+        @Override
+        public void check(final String url, final Callback callback) {
+            final HttpUrl httpUrl = HttpUrl.parse(url);
+            if (httpUrl == null) {
+                callback.onCheckFailed();
+                return;
+            }
+            final String cookies = CookieManager.getInstance().getCookie(url);
+            ConnectExecutors.getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Request.Builder request = new Request.Builder().url(httpUrl).head();
+                    if (cookies != null) {
+                        request.header("Cookie", cookies);
+                    }
+                    OkHttpClient client = RestHelper.newClientBuilder()
+                            .followRedirects(false)
+                            .followSslRedirects(false)
+                            .build();
+                    Integer statusCode = null;
+                    try {
+                        Response response = client.newCall(request.build()).execute();
+                        statusCode = response.code();
+                        response.close();
+                    } catch (IOException e) {
+                        Log.w(ConnectUtils.LOG_TAG, "Failed to check login session", e);
+                    }
+                    final Integer result = statusCode;
+                    ConnectExecutors.getMainThreadExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (result == null) {
+                                callback.onCheckFailed();
+                            } else if (isSessionExpiredStatus(result)) {
+                                callback.onSessionExpired();
+                            } else {
+                                callback.onSessionValid();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+}
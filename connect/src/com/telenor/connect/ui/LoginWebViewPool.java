@@ -0,0 +1,169 @@
+package com.telenor.connect.ui;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.util.Log;
+
+import com.telenor.connect.utils.ConnectUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Keeps one login page loading in a hidden WebView, so that the next login with the same
+ * authorize URL shows a page that is already initialized and loaded instead of starting cold.
+ * The page is given up when it fails to load, after ten minutes, or when the system asks the
+ * app to trim memory. All methods must be called on the main thread.
+ * <p>
+ * The time from a login fragment being created until its page was first painted is recorded,
+ * so that prewarmed and cold logins can be compared.
+ */
+public class LoginWebViewPool {
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final String LOG_SESSION_ID_PARAMETER = "log_session_id";
+
+    private static final ComponentCallbacks2 trimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                release();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+
+        @Override
+        public void onLowMemory() {
+            release();
+        }
+    };
+
+    private static PrewarmedLoginPage prewarmedPage;
+    private static boolean registeredTrimMemoryCallbacks;
+    private static volatile long lastTimeToFirstPaintMillis = -1;
+    private static volatile boolean lastLoginPrewarmed;
+
+    private LoginWebViewPool() {}
+
+    /**
+     * Starts loading the page in a hidden WebView, replacing any page prewarmed before.
+     *
+     * @param context any context, only its application context is kept.
+     * @param pageUrl the authorize URL of the login that is expected to happen next.
+     */
+    public static void prewarm(Context context, String pageUrl) {
+        checkMainThread();
+        release();
+        Context applicationContext = context.getApplicationContext();
+        if (!registeredTrimMemoryCallbacks) {
+            applicationContext.registerComponentCallbacks(trimMemoryCallbacks);
+            registeredTrimMemoryCallbacks = true;
+        }
+        prewarmedPage = new PrewarmedLoginPage(applicationContext, pageUrl);
+    }
+
+    /**
+     * Destroys the prewarmed page, if any.
+     */
+    public static void release() {
+        checkMainThread();
+        if (prewarmedPage != null) {
+            prewarmedPage.destroy();
+            prewarmedPage = null;
+        }
+    }
+
+    /**
+     * @return the time in milliseconds from the last login page being requested until it was
+     * first painted, or {@code -1} if no login page has been painted yet.
+     */
+    public static long getLastTimeToFirstPaintMillis() {
+        return lastTimeToFirstPaintMillis;
+    }
+
+    /**
+     * @return {@code true} if the last painted login page had been prewarmed.
+     */
+    public static boolean isLastLoginPrewarmed() {
+        return lastLoginPrewarmed;
+    }
+
+    /**
+     * Takes the prewarmed page if it is still usable and was loaded for the same login.
+     *
+     * @return the prewarmed page, which is no longer kept by the pool, or {@code null}.
+     */
+    static PrewarmedLoginPage take(String pageUrl) {
+        checkMainThread();
+        PrewarmedLoginPage page = prewarmedPage;
+        if (page == null || !isSameLoginPage(page.getPageUrl(), pageUrl)) {
+            return null;
+        }
+        prewarmedPage = null;
+        if (page.hasFailed() || page.getAgeMillis() > MAX_AGE_MILLIS) {
+            page.destroy();
+            return null;
+        }
+        return page;
+    }
+
+    static void recordTimeToFirstPaint(long timeToFirstPaintMillis, boolean prewarmed) {
+        lastTimeToFirstPaintMillis = timeToFirstPaintMillis;
+        lastLoginPrewarmed = prewarmed;
+        if (Log.isLoggable(ConnectUtils.LOG_TAG, Log.DEBUG)) {
+            Log.d(ConnectUtils.LOG_TAG, "Login page painted after " + timeToFirstPaintMillis
+                    + " ms" + (prewarmed ? " (prewarmed)" : ""));
+        }
+    }
+
+    /**
+     * Compares two authorize URLs, ignoring the order of the query parameters and the
+     * {@code log_session_id}, which changes with every click on a login button.
+     */
+    static boolean isSameLoginPage(String first, String second) {
+        HttpUrl firstUrl = HttpUrl.parse(first);
+        HttpUrl secondUrl = HttpUrl.parse(second);
+        if (firstUrl == null || secondUrl == null) {
+            return first.equals(second);
+        }
+        if (!firstUrl.scheme().equals(secondUrl.scheme())
+                || !firstUrl.host().equals(secondUrl.host())
+                || firstUrl.port() != secondUrl.port()
+                || !firstUrl.encodedPath().equals(secondUrl.encodedPath())) {
+            return false;
+        }
+        if (!withoutLogSessionId(firstUrl).equals(withoutLogSessionId(secondUrl))) {
+            return false;
+        }
+        for (String name : firstUrl.queryParameterNames()) {
+            if (name.equals(LOG_SESSION_ID_PARAMETER)) {
+                continue;
+            }
+            List<String> firstValues = firstUrl.queryParameterValues(name);
+            if (!firstValues.equals(secondUrl.queryParameterValues(name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> withoutLogSessionId(HttpUrl url) {
+        Set<String> names = new HashSet<>(url.queryParameterNames());
+        names.remove(LOG_SESSION_ID_PARAMETER);
+        return names;
+    }
+
+    private static void checkMainThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Login pages must be prewarmed on the main thread");
+        }
+    }
+}
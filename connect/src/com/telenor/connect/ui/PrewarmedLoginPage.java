@@ -0,0 +1,184 @@
+package com.telenor.connect.ui;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.RequiresApi;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import com.telenor.connect.ConnectSdk;
+import com.telenor.connect.WellKnownAPI;
+import com.telenor.connect.utils.NetworkAuthenticationTargetMatcher;
+import com.telenor.connect.utils.WebViewHelper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A login page loading in a WebView that is not attached to any activity yet. The WebView is
+ * created on a {@link MutableContextWrapper} around the application context, so that it can be
+ * moved to the activity that shows it. Until then the page is fetched the same way
+ * {@link ConnectWebViewClient} would fetch it, but a redirect to the redirect URI is held back and
+ * instructions from the page are kept for the client that takes over.
+ */
+class PrewarmedLoginPage extends WebViewClient implements InstructionHandler {
+
+    private final MutableContextWrapper context;
+    private final WebView webView;
+    private final String pageUrl;
+    private final long createdAt = SystemClock.elapsedRealtime();
+    private final NetworkAuthenticationTargetMatcher targetMatcher;
+
+    private long pageLoadStarted;
+    private boolean pageFinished;
+    private boolean painted;
+    private boolean failed;
+    private String pendingRedirectUrl;
+    private List<Instruction> pendingInstructions;
+    private InstructionHandler instructionHandler;
+
+    PrewarmedLoginPage(Context applicationContext, String pageUrl) {
+        this.pageUrl = pageUrl;
+        WellKnownAPI.WellKnownConfig wellKnownConfig = ConnectSdk.getWellKnownConfig();
+        targetMatcher = wellKnownConfig == null
+                ? new NetworkAuthenticationTargetMatcher(
+                        Collections.<String>emptySet(),
+                        Collections.<String>emptySet(),
+                        ConnectSdk.getDnsCache())
+                : new NetworkAuthenticationTargetMatcher(
+                        wellKnownConfig.getNetworkAuthenticationTargetUrls(),
+                        wellKnownConfig.getNetworkAuthenticationTargetIps(),
+                        ConnectSdk.getDnsCache());
+        context = new MutableContextWrapper(applicationContext);
+        webView = new WebView(context);
+        webView.setWebViewClient(this);
+        WebViewHelper.configureWebView(webView, this);
+        webView.loadUrl(pageUrl);
+    }
+
+    String getPageUrl() {
+        return pageUrl;
+    }
+
+    WebView getWebView() {
+        return webView;
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtime()} at which the page started loading.
+     */
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getAgeMillis() {
+        return SystemClock.elapsedRealtime() - createdAt;
+    }
+
+    boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Moves the WebView to the activity and hands the page over to the client.
+     */
+    void attach(Activity activity, ConnectWebViewClient client) {
+        context.setBaseContext(activity);
+        webView.setWebViewClient(client);
+        List<Instruction> instructions;
+        synchronized (this) {
+            instructionHandler = client;
+            instructions = pendingInstructions;
+            pendingInstructions = null;
+        }
+        if (pendingRedirectUrl != null) {
+            client.shouldOverrideUrlLoading(webView, pendingRedirectUrl);
+            return;
+        }
+        client.attachPrewarmedPage(webView.getUrl(), pageLoadStarted, pageFinished, painted);
+        if (instructions != null) {
+            client.givenInstructions(instructions);
+        }
+    }
+
+    void destroy() {
+        webView.stopLoading();
+        webView.destroy();
+    }
+
+    @Override
+    public synchronized void givenInstructions(List<Instruction> instructions) {
+        if (instructionHandler != null) {
+            instructionHandler.givenInstructions(instructions);
+        } else {
+            pendingInstructions = instructions;
+        }
+    }
+
+    @Override
+    public boolean shouldOverrideUrlLoading(WebView view, String url) {
+        if (ConnectSdk.getRedirectUri() != null && url.startsWith(ConnectSdk.getRedirectUri())) {
+            pendingRedirectUrl = url;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        WebResourceResponse response = ConnectWebViewClient.interceptThroughCellular(
+                request.getUrl().toString(), targetMatcher);
+        return response != null
+                ? response : ConnectWebViewClient.interceptStaticResource(request);
+    }
+
+    @Override
+    public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        pageLoadStarted = System.currentTimeMillis();
+        pageFinished = false;
+        super.onPageStarted(view, url, favicon);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onPageCommitVisible(WebView view, String url) {
+        painted = true;
+        super.onPageCommitVisible(view, url);
+        ConnectWebViewClient.observeInstructions(view, url);
+    }
+
+    @Override
+    public void onPageFinished(WebView view, String url) {
+        pageFinished = true;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            painted = true;
+        }
+        super.onPageFinished(view, url);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+        super.onReceivedError(view, request, error);
+        if (request.isForMainFrame()) {
+            failed = true;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onReceivedError(WebView view, int errorCode,
+                                String description, String failingUrl) {
+        super.onReceivedError(view, errorCode, description, failingUrl);
+        failed = true;
+    }
+}
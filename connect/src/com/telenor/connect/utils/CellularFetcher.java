@@ -0,0 +1,392 @@
+package com.telenor.connect.utils;
+
+import android.annotation.TargetApi;
+import android.net.Network;
+import android.os.Build;
+import android.util.Log;
+
+import com.telenor.connect.ConnectSdk;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Fetches header enrichment URLs through the cellular network, following redirects itself so
+ * that every hop can be routed through the cellular or the default network. Each network gets
+ * its own OkHttp client bound to the network's socket factory and DNS, with its own connection
+ * pool, so sockets are reused across hops and fetches on the same network. Hosts are looked up
+ * on the cellular network through {@link ConnectSdk#getDnsCache()}, which has usually resolved
+ * them ahead of time. All clients are derived from {@link RestHelper#newClientBuilder()} and
+ * share its TLS session cache.
+ * <p>
+ * A hop that fails on the cellular network is retried once on the default network. The timing
+ * of every hop of the last fetch is kept, together with counters of fetches and fail-overs.
+ */
+public class CellularFetcher {
+
+    public interface Router {
+        /**
+         * @param url the URL of the next hop.
+         * @return {@code true} if the hop must be made through the cellular network.
+         */
+        boolean shouldFetchThroughCellular(String url);
+    }
+
+    /**
+     * Timing of a single request made while following redirects. Durations are in milliseconds
+     * and are {@code -1} for phases that did not happen, such as connecting on a pooled
+     * connection.
+     */
+    public static class Hop {
+        private final String url;
+        private final boolean cellular;
+        private int responseCode = -1;
+        private boolean failedOver;
+        private boolean connectionReused;
+        private long dnsMillis = -1;
+        private long connectMillis = -1;
+        private long secureConnectMillis = -1;
+        private long timeToResponseHeadersMillis = -1;
+        private long totalMillis = -1;
+
+        Hop(String url, boolean cellular) {
+            this.url = url;
+            this.cellular = cellular;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isCellular() {
+            return cellular;
+        }
+
+        /**
+         * @return the HTTP status code, or {@code -1} if the request failed.
+         */
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * @return {@code true} if the request failed on the cellular network and was retried
+         * on the default network in the next hop.
+         */
+        public boolean isFailedOver() {
+            return failedOver;
+        }
+
+        public boolean isConnectionReused() {
+            return connectionReused;
+        }
+
+        public long getDnsMillis() {
+            return dnsMillis;
+        }
+
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        public long getSecureConnectMillis() {
+            return secureConnectMillis;
+        }
+
+        public long getTimeToResponseHeadersMillis() {
+            return timeToResponseHeadersMillis;
+        }
+
+        /**
+         * @return the duration of the whole request. For the last hop this includes reading the
+         * body, so it is {@code -1} until the WebView has read it.
+         */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        @Override
+        public String toString() {
+            return (cellular ? "cellular " : "default ") + responseCode + " " + url
+                    + " dns=" + dnsMillis
+                    + " connect=" + connectMillis
+                    + " tls=" + secureConnectMillis
+                    + " headers=" + timeToResponseHeadersMillis
+                    + " total=" + totalMillis
+                    + (connectionReused ? " reused" : "")
+                    + (failedOver ? " failed over" : "");
+        }
+    }
+
+    private static class HopTimer extends EventListener {
+        private final Hop hop;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+
+        HopTimer(Hop hop) {
+            this.hop = hop;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            hop.dnsMillis = millisSince(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            hop.secureConnectMillis = millisSince(secureConnectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (connectStart != 0) {
+                hop.connectMillis = millisSince(connectStart);
+            } else {
+                hop.connectionReused = true;
+            }
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            hop.timeToResponseHeadersMillis = millisSince(callStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            hop.totalMillis = millisSince(callStart);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            hop.totalMillis = millisSince(callStart);
+        }
+
+        private static long millisSince(long start) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    private static final EventListener.Factory HOP_TIMER_FACTORY = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            Object tag = call.request().tag();
+            return tag instanceof HopTimer ? (HopTimer) tag : EventListener.NONE;
+        }
+    };
+
+    private final int maxRedirects;
+    private final Map<Network, OkHttpClient> networkClients = new HashMap<>();
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    private final AtomicInteger failoverCount = new AtomicInteger();
+
+    private OkHttpClient defaultClient;
+    private volatile List<Hop> lastHops = Collections.emptyList();
+
+    /**
+     * @param maxRedirects how many redirects to follow before giving up.
+     */
+    public CellularFetcher(int maxRedirects) {
+        this.maxRedirects = maxRedirects;
+    }
+
+    /**
+     * Fetches the URL through the cellular network, following redirects.
+     *
+     * @param url the URL to fetch.
+     * @param router decides which network each redirect is followed on.
+     * @return the first response that is not a redirect, with its body open, or {@code null}
+     * if the URL could not be fetched on any network or there were too many redirects.
+     */
+    public Response fetch(String url, Router router) {
+        fetchCount.incrementAndGet();
+        List<Hop> hops = new ArrayList<>();
+        try {
+            return followRedirects(url, router, hops);
+        } finally {
+            lastHops = Collections.unmodifiableList(hops);
+            if (Log.isLoggable(ConnectUtils.LOG_TAG, Log.DEBUG)) {
+                for (Hop hop : hops) {
+                    Log.d(ConnectUtils.LOG_TAG, "Header enrichment hop: " + hop);
+                }
+            }
+        }
+    }
+
+    private Response followRedirects(String url, Router router, List<Hop> hops) {
+        boolean cellular = true;
+        int attempts = 0;
+        do {
+            Response response = execute(url, cellular, hops);
+            if (response == null) {
+                return null;
+            }
+            attempts += 1;
+            if (!response.isRedirect()) {
+                return response;
+            }
+            HttpUrl location = response.request().url().resolve(response.header("Location", ""));
+            // Close the body so that the connection is returned to the pool for the next hop.
+            response.close();
+            if (location == null) {
+                return null;
+            }
+            url = location.toString();
+            cellular = router.shouldFetchThroughCellular(url);
+        } while (attempts <= maxRedirects);
+        return null;
+    }
+
+    private Response execute(String url, boolean cellular, List<Hop> hops) {
+        OkHttpClient client = cellular ? getCellularClient() : getDefaultNetworkClient();
+        if (client == null) {
+            return null;
+        }
+        Hop hop = new Hop(url, cellular);
+        hops.add(hop);
+        try {
+            Response response = client.newCall(new Request.Builder()
+                    .url(url)
+                    .tag(new HopTimer(hop))
+                    .build())
+                    .execute();
+            hop.responseCode = response.code();
+            return response;
+        } catch (IOException | IllegalArgumentException e) {
+            if (!cellular || e instanceof IllegalArgumentException) {
+                return null;
+            }
+            hop.failedOver = true;
+            failoverCount.incrementAndGet();
+            Log.w(ConnectUtils.LOG_TAG, "Failed to fetch through cellular, trying default", e);
+            return execute(url, false, hops);
+        }
+    }
+
+    OkHttpClient getCellularClient() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return null;
+        }
+        Network network = ConnectSdk.getCellularNetwork();
+        return network != null ? getNetworkClient(network, ConnectSdk.getDnsCache()) : null;
+    }
+
+    OkHttpClient getDefaultNetworkClient() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Network network = ConnectSdk.getDefaultNetwork();
+            if (network != null) {
+                return getNetworkClient(network, null);
+            }
+        }
+        return getDefaultClient();
+    }
+
+    synchronized OkHttpClient getDefaultClient() {
+        if (defaultClient == null) {
+            defaultClient = RestHelper.newClientBuilder()
+                    .followRedirects(false)
+                    .followSslRedirects(false)
+                    .eventListenerFactory(HOP_TIMER_FACTORY)
+                    .build();
+        }
+        return defaultClient;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private synchronized OkHttpClient getNetworkClient(final Network network, Dns dns) {
+        OkHttpClient client = networkClients.get(network);
+        if (client != null) {
+            return client;
+        }
+        evictLostNetworks();
+        client = getDefaultClient().newBuilder()
+                .socketFactory(network.getSocketFactory())
+                .dns(dns != null ? dns : new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        return Arrays.asList(network.getAllByName(hostname));
+                    }
+                })
+                .connectionPool(new ConnectionPool())
+                .build();
+        networkClients.put(network, client);
+        return client;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void evictLostNetworks() {
+        Network cellular = ConnectSdk.getCellularNetwork();
+        Network defaultNetwork = ConnectSdk.getDefaultNetwork();
+        Iterator<Map.Entry<Network, OkHttpClient>> iterator = networkClients.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Network, OkHttpClient> entry = iterator.next();
+            if (!entry.getKey().equals(cellular) && !entry.getKey().equals(defaultNetwork)) {
+                entry.getValue().connectionPool().evictAll();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the hops made by the last fetch, in order.
+     */
+    public List<Hop> getLastHops() {
+        return lastHops;
+    }
+
+    public int getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /**
+     * @return how many hops failed on the cellular network and were retried on the default
+     * network.
+     */
+    public int getFailoverCount() {
+        return failoverCount.get();
+    }
+}
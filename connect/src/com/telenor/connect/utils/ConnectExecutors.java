@@ -0,0 +1,207 @@
+package com.telenor.connect.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by the SDK for work that must not run on the main thread, and for delivering
+ * results back to it.
+ * <p>
+ * The work that follows a response from the API is split over three executors that apps can
+ * replace: parsing and validating responses, saving to disk, and calling back the app. Network
+ * requests run on the dispatcher of the {@code OkHttpClient}, see
+ * {@code ConnectSdk.setOkHttpClient}. Other work that blocks for long, like DNS lookups,
+ * downloads and initializing the SDK, runs on the I/O executor, so that it never delays the
+ * handling of a response.
+ */
+public class ConnectExecutors {
+
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int IO_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile Executor backgroundExecutor;
+    private static volatile Executor ioExecutor;
+    private static volatile Executor mainThreadExecutor;
+    private static volatile Executor persistenceExecutor;
+
+    private static volatile Executor parsingExecutorOverride;
+    private static volatile Executor persistenceExecutorOverride;
+    private static volatile Executor callbackExecutorOverride;
+
+    private ConnectExecutors() {}
+
+    public static Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            synchronized (ConnectExecutors.class) {
+                if (backgroundExecutor == null) {
+                    backgroundExecutor = newThreadPool(BACKGROUND_THREADS, "background");
+                }
+            }
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * @return the executor for work that blocks on the network or disk for long, apart from the
+     * threads that handle API responses.
+     */
+    public static Executor getIoExecutor() {
+        if (ioExecutor == null) {
+            synchronized (ConnectExecutors.class) {
+                if (ioExecutor == null) {
+                    ioExecutor = newThreadPool(IO_THREADS, "io");
+                }
+            }
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * @return an executor that runs its tasks one at a time, in the order they were submitted,
+     * on the background executor.
+     */
+    public static Executor newSerialExecutor() {
+        return new SerialExecutor(getBackgroundExecutor());
+    }
+
+    public static Executor getMainThreadExecutor() {
+        if (mainThreadExecutor == null) {
+            synchronized (ConnectExecutors.class) {
+                if (mainThreadExecutor == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    mainThreadExecutor = new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+            }
+        }
+        return mainThreadExecutor;
+    }
+
+    /**
+     * @return the executor responses from the API are handled on: parsed, validated and turned
+     * into the SDK's own types.
+     */
+    public static Executor getParsingExecutor() {
+        Executor executor = parsingExecutorOverride;
+        return executor != null ? executor : getBackgroundExecutor();
+    }
+
+    /**
+     * @return the executor tokens are saved on. Unless replaced it runs one write at a time, in
+     * the order they were submitted.
+     */
+    public static Executor getPersistenceExecutor() {
+        Executor executor = persistenceExecutorOverride;
+        if (executor != null) {
+            return executor;
+        }
+        if (persistenceExecutor == null) {
+            synchronized (ConnectExecutors.class) {
+                if (persistenceExecutor == null) {
+                    persistenceExecutor = newSerialExecutor();
+                }
+            }
+        }
+        return persistenceExecutor;
+    }
+
+    /**
+     * @return the executor the callbacks of the app are called on, by default the main thread.
+     */
+    public static Executor getCallbackExecutor() {
+        Executor executor = callbackExecutorOverride;
+        return executor != null ? executor : getMainThreadExecutor();
+    }
+
+    /**
+     * @param executor the executor to handle API responses on, or {@code null} for the default.
+     */
+    public static void setParsingExecutor(Executor executor) {
+        parsingExecutorOverride = executor;
+    }
+
+    /**
+     * @param executor the executor to save tokens on, or {@code null} for the default. Writes
+     *                 must be run in the order they were submitted.
+     */
+    public static void setPersistenceExecutor(Executor executor) {
+        persistenceExecutorOverride = executor;
+    }
+
+    /**
+     * @param executor the executor to call back the app on, or {@code null} for the main thread.
+     */
+    public static void setCallbackExecutor(Executor executor) {
+        callbackExecutorOverride = executor;
+    }
+
+    private static Executor newThreadPool(int threads, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(
+                                runnable, "ConnectSdk-" + name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class SerialExecutor implements Executor {
+
+        private final Executor executor;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable command) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                executor.execute(active);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.telenor.connect.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous operation of the SDK. Listeners are called on the executor they
+ * were added with once the operation completes, also if it had already completed when they were
+ * added. Blocking on the result with {@link #get()} must not be done on the main thread.
+ *
+ * @param <T> the type of the result.
+ */
+public class ConnectFuture<T> implements Future<T> {
+
+    public interface Listener<T> {
+        void onSuccess(T result);
+        void onFailure(Throwable error);
+    }
+
+    private final List<Runnable> pendingListeners = new ArrayList<>();
+
+    private boolean done;
+    private T result;
+    private Throwable error;
+
+    /**
+     * Completes the future with a result. Only the first completion has an effect.
+     *
+     * @return {@code false} if the future had already completed.
+     */
+    public boolean complete(T result) {
+        return finish(result, null);
+    }
+
+    /**
+     * Completes the future with an error. Only the first completion has an effect.
+     *
+     * @return {@code false} if the future had already completed.
+     */
+    public boolean fail(Throwable error) {
+        return finish(null, error);
+    }
+
+    /**
+     * Adds a listener that is called on the SDK's callback executor, by default the main thread.
+     */
+    public ConnectFuture<T> addListener(Listener<T> listener) {
+        return addListener(listener, ConnectExecutors.getCallbackExecutor());
+    }
+
+    public ConnectFuture<T> addListener(final Listener<T> listener, final Executor executor) {
+        Runnable notification = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverTo(listener);
+                    }
+                });
+            }
+        };
+        synchronized (this) {
+            if (!done) {
+                pendingListeners.add(notification);
+                return this;
+            }
+        }
+        notification.run();
+        return this;
+    }
+
+    /**
+     * Fails the future with a {@link CancellationException}. The operation itself is not
+     * stopped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return error instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    private boolean finish(T result, Throwable error) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+            this.error = error;
+            done = true;
+            notifyAll();
+            listeners = new ArrayList<>(pendingListeners);
+            pendingListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private void deliverTo(Listener<T> listener) {
+        T currentResult;
+        Throwable currentError;
+        synchronized (this) {
+            currentResult = result;
+            currentError = error;
+        }
+        if (currentError != null) {
+            listener.onFailure(currentError);
+        } else {
+            listener.onSuccess(currentResult);
+        }
+    }
+}
@@ -69,6 +69,18 @@ public class ConnectUrlHelper {
         return getConnectApiUrl(ConnectSdk.useStaging());
     }
 
+    /**
+     * @return the page that links the static resources of the login pages, for browsers and the
+     * SDK to cache ahead of the first login.
+     */
+    public static HttpUrl getPrefetchStaticResourcesUrl(boolean useStaging) {
+        return getConnectApiUrl(useStaging)
+                .newBuilder()
+                .addPathSegment("id")
+                .addPathSegment("android-sdk-prefetch-static-resources")
+                .build();
+    }
+
     public static Uri getAuthorizeUriStem(
             Map<String, String> parameters,
             String clientId,
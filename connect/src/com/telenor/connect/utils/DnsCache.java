@@ -0,0 +1,186 @@
+package com.telenor.connect.utils;
+
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dns;
+
+/**
+ * Caches the addresses of host names for a fixed time. {@link #getHostAddresses(String)} never
+ * blocks: a host that is not in the cache, or whose addresses have expired, is resolved on a
+ * background thread and is answered from the cache once resolved. Concurrent resolutions of the
+ * same host are shared. Hosts that are known to be needed can be resolved ahead of time with
+ * {@link #prefetch(Collection)}.
+ * <p>
+ * The cache can be used as the {@link Dns} of an OkHttp client, in which case a host that is
+ * not cached is resolved on the calling thread.
+ */
+public class DnsCache implements Dns {
+
+    public interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    public static final Resolver SYSTEM_RESOLVER = new Resolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static class Entry {
+        private final List<InetAddress> addresses;
+        private final Set<String> hostAddresses;
+        private final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            Set<String> hostAddresses = new HashSet<>();
+            for (InetAddress address : addresses) {
+                hostAddresses.add(address.getHostAddress());
+            }
+            this.addresses = Collections.unmodifiableList(addresses);
+            this.hostAddresses = Collections.unmodifiableSet(hostAddresses);
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh() {
+            return expiresAt > System.currentTimeMillis();
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> resolving = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final Resolver resolver;
+    private final Executor executor;
+    private final long ttlMillis;
+
+    /**
+     * @param resolver resolves hosts that are not cached, for example through a specific
+     *                 network.
+     */
+    public DnsCache(Resolver resolver) {
+        this(resolver, ConnectExecutors.getIoExecutor(), DEFAULT_TTL_MILLIS);
+    }
+
+    DnsCache(Resolver resolver, Executor executor, long ttlMillis) {
+        this.resolver = resolver;
+        this.executor = executor;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param host the host name to look up.
+     * @return the addresses of the host, or {@code null} if they are not known yet. In that case
+     * the host is resolved in the background. Expired addresses are returned while they are
+     * being refreshed.
+     */
+    public Set<String> getHostAddresses(String host) {
+        Entry entry = entries.get(host);
+        if (entry == null || !entry.isFresh()) {
+            misses.incrementAndGet();
+            resolveAsync(host);
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry != null ? entry.hostAddresses : null;
+    }
+
+    /**
+     * Returns the cached addresses of the host, resolving it on the calling thread if it is not
+     * cached or has expired.
+     */
+    @Override
+    public List<InetAddress> lookup(String host) throws UnknownHostException {
+        Entry entry = entries.get(host);
+        if (entry != null && entry.isFresh()) {
+            hits.incrementAndGet();
+            return entry.addresses;
+        }
+        misses.incrementAndGet();
+        return resolve(host).addresses;
+    }
+
+    /**
+     * Resolves the hosts in the background, unless their addresses are cached and fresh.
+     *
+     * @param hosts the host names to resolve.
+     */
+    public void prefetch(Collection<String> hosts) {
+        for (String host : hosts) {
+            Entry entry = entries.get(host);
+            if (entry == null || !entry.isFresh()) {
+                resolveAsync(host);
+            }
+        }
+    }
+
+    /**
+     * Forgets all cached addresses, for example because they were resolved on a network that is
+     * no longer used.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return how many lookups were answered with fresh addresses from the cache.
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many lookups found no addresses, or only expired ones, in the cache.
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    private void resolveAsync(final String host) {
+        if (!resolving.add(host)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolve(host);
+                } catch (UnknownHostException e) {
+                    Log.d(ConnectUtils.LOG_TAG, "Failed to resolve " + host, e);
+                } finally {
+                    resolving.remove(host);
+                }
+            }
+        });
+    }
+
+    private Entry resolve(String host) throws UnknownHostException {
+        Entry entry = new Entry(
+                Arrays.asList(resolver.resolve(host)),
+                System.currentTimeMillis() + ttlMillis);
+        entries.put(host, entry);
+        return entry;
+    }
+
+    void put(String host, List<InetAddress> addresses, long expiresAt) {
+        entries.put(host, new Entry(addresses, expiresAt));
+    }
+}
@@ -9,7 +9,9 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.CacheControl;
 import okhttp3.Headers;
 
 public class HeadersDateUtil {
@@ -34,4 +36,22 @@ public class HeadersDateUtil {
         return null;
     }
 
+    /**
+     * @param headers response headers.
+     * @param now the time the response was received, in milliseconds.
+     * @param defaultMaxAgeMillis how long to consider the response fresh if it has no
+     *                            {@code Cache-Control: max-age} directive.
+     * @return the time in milliseconds until which the response is fresh.
+     */
+    public static long extractExpirationTime(
+            @NonNull Headers headers, long now, long defaultMaxAgeMillis) {
+        CacheControl cacheControl = CacheControl.parse(headers);
+        if (cacheControl.noCache() || cacheControl.noStore()) {
+            return now;
+        }
+        int maxAgeSeconds = cacheControl.maxAgeSeconds();
+        return now + (maxAgeSeconds >= 0
+                ? TimeUnit.SECONDS.toMillis(maxAgeSeconds) : defaultMaxAgeMillis);
+    }
+
 }
@@ -1,11 +1,22 @@
 package com.telenor.connect.utils;
 
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyType;
+import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.ReadOnlyJWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import com.telenor.connect.ConnectException;
 import com.telenor.connect.ConnectSdk;
 import com.telenor.connect.id.IdToken;
+import com.telenor.connect.id.IdTokenClaimsCache;
 
+import java.security.GeneralSecurityException;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.HashSet;
@@ -14,12 +25,19 @@ import java.util.Set;
 
 public class IdTokenValidator {
 
-    public static void validate(final IdToken idToken, Date serverTimestamp) {
+    /**
+     * Validates the claims of the ID token, and its signature if the given cache is configured
+     * with a JWKS URI.
+     *
+     * @param jwkSetCache the keys the signature is verified against, or {@code null} to skip
+     *                    verifying it.
+     */
+    public static void validate(
+            final IdToken idToken, Date serverTimestamp, final JwkSetCache jwkSetCache) {
         final ReadOnlyJWTClaimsSet idTokenClaimsSet;
 
         try {
-            final SignedJWT signedJwt = SignedJWT.parse(idToken.getSerializedSignedJwt());
-            idTokenClaimsSet = signedJwt.getJWTClaimsSet();
+            idTokenClaimsSet = IdTokenClaimsCache.getClaims(idToken.getSerializedSignedJwt());
         } catch (final ParseException e) {
             throw new ConnectException(
                     "Failed to parse ID token. serializedIdToken="
@@ -80,6 +98,67 @@ public class IdTokenValidator {
             throw new ConnectException("ID token is missing the \"iat\" claim."
                     + " idTokenClaimsSet=" + idTokenClaimsSet.toJSONObject());
         }
+
+        if (jwkSetCache != null && jwkSetCache.isConfigured()) {
+            verifySignature(idToken, jwkSetCache);
+        }
+    }
+
+    /**
+     * Verifies the signature of the ID token against the cached key with the ID token's
+     * {@code kid}, or if it has none, against the only cached key for its {@code alg}. Does not
+     * access the network, so the key must already be cached, see
+     * {@link JwkSetCache#ensureKey(String, JwkSetCache.KeyCallback)}.
+     */
+    public static void verifySignature(final IdToken idToken, final JwkSetCache jwkSetCache) {
+        final SignedJWT signedJwt;
+        try {
+            signedJwt = IdTokenClaimsCache.getSignedJwt(idToken.getSerializedSignedJwt());
+        } catch (final ParseException e) {
+            throw new ConnectException(
+                    "Failed to parse ID token. serializedIdToken="
+                            + idToken.getSerializedSignedJwt(), e);
+        }
+
+        final String keyId = signedJwt.getHeader().getKeyID();
+        final JWSAlgorithm algorithm = signedJwt.getHeader().getAlgorithm();
+        final JWK key = keyId != null
+                ? jwkSetCache.getKey(keyId)
+                : jwkSetCache.getOnlyKey(getKeyType(algorithm), algorithm);
+        if (key == null) {
+            throw new ConnectException("ID token is signed with an unknown key. kid=" + keyId);
+        }
+
+        try {
+            if (!signedJwt.verify(getVerifier(key))) {
+                throw new ConnectException("ID token signature is not valid. kid=" + keyId);
+            }
+        } catch (final JOSEException | GeneralSecurityException e) {
+            throw new ConnectException("Failed to verify ID token signature. kid=" + keyId, e);
+        }
+    }
+
+    private static KeyType getKeyType(final JWSAlgorithm algorithm) {
+        final String name = algorithm.getName();
+        if (name.startsWith("ES")) {
+            return KeyType.EC;
+        }
+        if (name.startsWith("RS") || name.startsWith("PS")) {
+            return KeyType.RSA;
+        }
+        return KeyType.OCT;
+    }
+
+    private static JWSVerifier getVerifier(final JWK key) throws GeneralSecurityException {
+        if (key instanceof ECKey) {
+            final ECKey ecKey = (ECKey) key;
+            return new ECDSAVerifier(
+                    ecKey.getX().decodeToBigInteger(), ecKey.getY().decodeToBigInteger());
+        }
+        if (key instanceof RSAKey) {
+            return new RSASSAVerifier(((RSAKey) key).toRSAPublicKey());
+        }
+        throw new GeneralSecurityException("Unsupported key type: " + key.getKeyType());
     }
 
     public static boolean isValidExpirationTime(
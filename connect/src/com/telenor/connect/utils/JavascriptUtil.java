@@ -15,6 +15,20 @@ public class JavascriptUtil {
         return getJavascriptString(instruction.getName(), arguments);
     }
 
+    /**
+     * Joins the calls of the instructions into one script. Each call is run even if an earlier
+     * one throws.
+     */
+    public static String getJavascriptString(List<Instruction> instructions) {
+        StringBuilder javascript = new StringBuilder();
+        for (Instruction instruction : instructions) {
+            javascript.append("try {")
+                    .append(getJavascriptString(instruction))
+                    .append("} catch (e) {}");
+        }
+        return javascript.toString();
+    }
+
     public static String getJavascriptString(String function, String argument) {
         return "window[\"" + function + "\"](" + argument + ");";
     }
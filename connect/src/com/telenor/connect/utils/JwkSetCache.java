@@ -0,0 +1,312 @@
+package com.telenor.connect.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.nimbusds.jose.Algorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyType;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.telenor.connect.JwksAPI;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Keeps the keys used to sign ID tokens, fetched from the {@code jwks_uri} of the well-known
+ * configuration, in memory and on disk. The key set is refetched when it has expired according
+ * to its {@code Cache-Control} header, revalidated with its {@code ETag}, or when a token is
+ * signed with a key ID that is not in the set. Concurrent fetches are shared.
+ */
+public class JwkSetCache {
+
+    public interface KeyCallback {
+        void onKeyAvailable();
+
+        void onKeyUnavailable(Throwable error);
+    }
+
+    private static class PendingKey {
+        private final String keyId;
+        private final KeyCallback callback;
+
+        PendingKey(String keyId, KeyCallback callback) {
+            this.keyId = keyId;
+            this.callback = callback;
+        }
+    }
+
+    private static final String PREFERENCES_FILE = "com.telenor.connect.JWKS_PREFERENCES_FILE";
+    private static final String PREFERENCE_KEY_JWKS = "JWKS";
+    private static final String PREFERENCE_KEY_ETAG = "ETAG";
+    private static final String PREFERENCE_KEY_EXPIRES_AT = "EXPIRES_AT";
+
+    private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_REFETCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Context context;
+    private final JwksAPI jwksApi;
+    private final List<PendingKey> pendingCallbacks = new ArrayList<>();
+
+    private volatile String jwksUri;
+    private Map<String, JWK> keys;
+    private List<JWK> allKeys = Collections.emptyList();
+    private String etag;
+    private long expiresAt;
+    private long lastFetchedAt;
+    private boolean fetching;
+
+    public JwkSetCache(Context context, JwksAPI jwksApi) {
+        this.context = context;
+        this.jwksApi = jwksApi;
+    }
+
+    public void setJwksUri(String jwksUri) {
+        this.jwksUri = jwksUri;
+    }
+
+    /**
+     * @return {@code true} if the well-known configuration has a {@code jwks_uri}, so that ID
+     * token signatures can be verified.
+     */
+    public boolean isConfigured() {
+        return jwksUri != null;
+    }
+
+    /**
+     * @param keyId the {@code kid} of the key.
+     * @return the cached key, or {@code null} if it is not known.
+     */
+    public synchronized JWK getKey(String keyId) {
+        loadFromDisk();
+        return keyId != null ? keys.get(keyId) : null;
+    }
+
+    /**
+     * Finds the key of a token without a {@code kid}, which is only possible if a single key
+     * can have signed it.
+     *
+     * @param keyType the type of key the token's algorithm needs.
+     * @param algorithm the {@code alg} of the token.
+     * @return the only cached signing key of the type that is not meant for another algorithm,
+     * or {@code null} if there is no such key or more than one.
+     */
+    public synchronized JWK getOnlyKey(KeyType keyType, Algorithm algorithm) {
+        loadFromDisk();
+        JWK match = null;
+        for (JWK key : allKeys) {
+            if (!keyType.equals(key.getKeyType())
+                    || (key.getKeyUse() != null && key.getKeyUse() != KeyUse.SIGNATURE)
+                    || (key.getAlgorithm() != null && !key.getAlgorithm().equals(algorithm))) {
+                continue;
+            }
+            if (match != null) {
+                return null;
+            }
+            match = key;
+        }
+        return match;
+    }
+
+    /**
+     * Makes sure the key with the given ID is cached before calling back. Known keys are
+     * returned without network access, an expired key set is revalidated in the background.
+     * For a token without a key ID, any cached key set counts as known, see
+     * {@link #getOnlyKey(KeyType, Algorithm)}.
+     */
+    public void ensureKey(String keyId, KeyCallback callback) {
+        boolean known;
+        boolean recentlyFetched;
+        synchronized (this) {
+            loadFromDisk();
+            known = isKnown(keyId);
+            recentlyFetched = !fetching
+                    && System.currentTimeMillis() - lastFetchedAt < MIN_REFETCH_INTERVAL_MILLIS;
+            if (!known && !recentlyFetched) {
+                pendingCallbacks.add(new PendingKey(keyId, callback));
+            }
+        }
+        if (known) {
+            callback.onKeyAvailable();
+            refreshIfExpired();
+        } else if (recentlyFetched) {
+            callback.onKeyUnavailable(
+                    new IllegalStateException("Unknown ID token key ID: " + keyId));
+        } else {
+            fetch();
+        }
+    }
+
+    private boolean isKnown(String keyId) {
+        return keyId != null ? keys.containsKey(keyId) : !allKeys.isEmpty();
+    }
+
+    private void refreshIfExpired() {
+        synchronized (this) {
+            if (expiresAt > System.currentTimeMillis()) {
+                return;
+            }
+        }
+        fetch();
+    }
+
+    private void fetch() {
+        String uri;
+        String currentEtag;
+        synchronized (this) {
+            if (fetching) {
+                return;
+            }
+            uri = jwksUri;
+            currentEtag = etag;
+            fetching = uri != null;
+        }
+        if (uri == null) {
+            notifyPending(new IllegalStateException("No jwks_uri is configured"));
+            return;
+        }
+        jwksApi.getJwks(uri, currentEtag).enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                Throwable error = null;
+                try {
+                    handleResponse(response);
+                } catch (IOException | ParseException e) {
+                    Log.w(ConnectUtils.LOG_TAG, "Failed to read JWK set", e);
+                    error = e;
+                }
+                notifyPending(error);
+            }
+
+            @Override
+            public void onFailure(Call<ResponseBody> call, Throwable error) {
+                Log.w(ConnectUtils.LOG_TAG, "Failed to fetch JWK set", error);
+                notifyPending(error);
+            }
+        });
+    }
+
+    private void handleResponse(Response<ResponseBody> response)
+            throws IOException, ParseException {
+        long now = System.currentTimeMillis();
+        long newExpiresAt = HeadersDateUtil.extractExpirationTime(
+                response.headers(), now, DEFAULT_MAX_AGE_MILLIS);
+
+        if (response.code() == 304) {
+            synchronized (this) {
+                expiresAt = newExpiresAt;
+                lastFetchedAt = now;
+                saveToDisk(null);
+            }
+            return;
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            throw new IOException("Unexpected JWK set response: " + response.code());
+        }
+        String json = response.body().string();
+        JWKSet jwkSet = JWKSet.parse(json);
+        synchronized (this) {
+            keys = toKeyMap(jwkSet);
+            allKeys = jwkSet.getKeys();
+            etag = response.headers().get("ETag");
+            expiresAt = newExpiresAt;
+            lastFetchedAt = now;
+            saveToDisk(json);
+        }
+    }
+
+    private void notifyPending(Throwable error) {
+        List<PendingKey> callbacks;
+        synchronized (this) {
+            fetching = false;
+            callbacks = new ArrayList<>(pendingCallbacks);
+            pendingCallbacks.clear();
+        }
+        for (PendingKey pending : callbacks) {
+            boolean known;
+            synchronized (this) {
+                loadFromDisk();
+                known = isKnown(pending.keyId);
+            }
+            if (error != null) {
+                pending.callback.onKeyUnavailable(error);
+            } else if (!known) {
+                pending.callback.onKeyUnavailable(
+                        new IllegalStateException("Unknown ID token key ID: " + pending.keyId));
+            } else {
+                pending.callback.onKeyAvailable();
+            }
+        }
+    }
+
+    /**
+     * Replaces the cached keys, without saving them to disk.
+     */
+    synchronized void setJwkSet(JWKSet jwkSet, long expiresAt) {
+        keys = toKeyMap(jwkSet);
+        allKeys = jwkSet.getKeys();
+        this.expiresAt = expiresAt;
+    }
+
+    private void loadFromDisk() {
+        if (keys != null) {
+            return;
+        }
+        keys = new HashMap<>();
+        SharedPreferences preferences = getPreferences();
+        String json = preferences.getString(PREFERENCE_KEY_JWKS, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JWKSet jwkSet = JWKSet.parse(json);
+            keys = toKeyMap(jwkSet);
+            allKeys = jwkSet.getKeys();
+            etag = preferences.getString(PREFERENCE_KEY_ETAG, null);
+            expiresAt = preferences.getLong(PREFERENCE_KEY_EXPIRES_AT, 0);
+        } catch (ParseException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to parse saved JWK set", e);
+            preferences.edit().clear().apply();
+        }
+    }
+
+    private void saveToDisk(String json) {
+        SharedPreferences.Editor editor = getPreferences().edit();
+        if (json != null) {
+            editor.putString(PREFERENCE_KEY_JWKS, json);
+        }
+        if (etag != null) {
+            editor.putString(PREFERENCE_KEY_ETAG, etag);
+        } else {
+            editor.remove(PREFERENCE_KEY_ETAG);
+        }
+        editor.putLong(PREFERENCE_KEY_EXPIRES_AT, expiresAt).apply();
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+
+    private static Map<String, JWK> toKeyMap(JWKSet jwkSet) {
+        Map<String, JWK> map = new HashMap<>();
+        for (JWK key : jwkSet.getKeys()) {
+            if (key.getKeyID() != null) {
+                map.put(key.getKeyID(), key);
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,176 @@
+package com.telenor.connect.utils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a URL is a network authentication target of the well-known configuration,
+ * and so must be fetched through the cellular network.
+ * <p>
+ * When target URLs are configured, a URL matches if it contains any of them. All target URLs
+ * are compiled into one Aho-Corasick automaton, so a URL is matched in a single pass over its
+ * characters, however many targets there are. Otherwise a URL matches if its host resolves to
+ * one of the target IPs. Host names are looked up in a {@link DnsCache} and never resolved on the
+ * calling thread, so a host that has not been resolved yet does not match.
+ */
+public class NetworkAuthenticationTargetMatcher {
+
+    private static final Pattern IP_ADDRESS = Pattern.compile("^[0-9.]+$|:");
+
+    private final Set<String> targetIps;
+    private final DnsCache dnsCache;
+    private final boolean matchesAnyUrl;
+
+    // Automaton over the target URLs. The transitions of each state are sorted by character.
+    private final char[][] transitionChars;
+    private final int[][] transitionStates;
+    private final int[] failureStates;
+    private final boolean[] acceptingStates;
+
+    /**
+     * @param targetUrls URL fragments of which a matching URL contains at least one.
+     * @param targetIps IP addresses of which a matching URL's host has at least one. Only used
+     *                  when there are no target URLs.
+     * @param dnsCache the cache used to resolve hosts to IP addresses.
+     */
+    public NetworkAuthenticationTargetMatcher(
+            Collection<String> targetUrls, Collection<String> targetIps, DnsCache dnsCache) {
+        this.targetIps = new HashSet<>(targetIps);
+        this.dnsCache = dnsCache;
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> accepting = new ArrayList<>();
+        trie.add(new TreeMap<Character, Integer>());
+        accepting.add(false);
+        boolean anyUrl = false;
+        for (String targetUrl : targetUrls) {
+            anyUrl |= targetUrl.isEmpty();
+            int state = 0;
+            for (int i = 0; i < targetUrl.length(); i++) {
+                Integer next = trie.get(state).get(targetUrl.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    accepting.add(false);
+                    trie.get(state).put(targetUrl.charAt(i), next);
+                }
+                state = next;
+            }
+            accepting.set(state, true);
+        }
+        matchesAnyUrl = anyUrl;
+
+        int states = trie.size();
+        transitionChars = new char[states][];
+        transitionStates = new int[states][];
+        failureStates = new int[states];
+        acceptingStates = new boolean[states];
+        for (int state = 0; state < states; state++) {
+            TreeMap<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionStates[state] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionStates[state][i] = transition.getValue();
+                i++;
+            }
+            acceptingStates[state] = accepting.get(state);
+        }
+
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionStates[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                int child = transitionStates[state][i];
+                int failure = failureStates[state];
+                int next = next(failure, transitionChars[state][i]);
+                while (failure != 0 && next == -1) {
+                    failure = failureStates[failure];
+                    next = next(failure, transitionChars[state][i]);
+                }
+                failureStates[child] = next == -1 || next == child ? 0 : next;
+                acceptingStates[child] |= acceptingStates[failureStates[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the matcher has no targets, so no URL can match.
+     */
+    public boolean isEmpty() {
+        return transitionChars.length == 1 && !matchesAnyUrl && targetIps.isEmpty();
+    }
+
+    public boolean matches(String url) {
+        if (hasTargetUrls()) {
+            return matchesTargetUrl(url);
+        }
+        if (targetIps.isEmpty()) {
+            return false;
+        }
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        if (IP_ADDRESS.matcher(host).find()) {
+            return targetIps.contains(host.replace("[", "").replace("]", ""));
+        }
+        Set<String> hostAddresses = dnsCache.getHostAddresses(host);
+        if (hostAddresses == null) {
+            return false;
+        }
+        for (String hostAddress : hostAddresses) {
+            if (targetIps.contains(hostAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasTargetUrls() {
+        return matchesAnyUrl || transitionChars.length > 1;
+    }
+
+    private boolean matchesTargetUrl(String url) {
+        if (matchesAnyUrl) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            int next = next(state, c);
+            while (state != 0 && next == -1) {
+                state = failureStates[state];
+                next = next(state, c);
+            }
+            state = next == -1 ? 0 : next;
+            if (acceptingStates[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(transitionChars[state], c);
+        return i >= 0 ? transitionStates[state][i] : -1;
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.telenor.connect.AnalyticsAPI;
 import com.telenor.connect.BuildConfig;
+import com.telenor.connect.JwksAPI;
 import com.telenor.connect.WellKnownAPI;
 import com.telenor.connect.id.ConnectAPI;
 import com.telenor.connect.id.IdToken;
@@ -12,8 +13,12 @@ import com.telenor.connect.id.IdTokenDeserializer;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Authenticator;
+import okhttp3.CookieJar;
+import okhttp3.EventListener;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Response;
@@ -26,6 +31,30 @@ public class RestHelper {
     private static Map<String, ConnectAPI> connectApiMap = new HashMap<>();
     private static Map<String, WellKnownAPI> wellKnownApiMap = new HashMap<>();
     private static Map<String, AnalyticsAPI> analyticsApiMap = new HashMap<>();
+    private static Map<String, JwksAPI> jwksApiMap = new HashMap<>();
+    private static OkHttpClient sharedClient;
+
+    private static final Interceptor ACCEPT_JSON = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            return chain.proceed(chain.request().newBuilder()
+                    .header("Accept", "application/json")
+                    .build());
+        }
+    };
+
+    // Looked up on every response, so that a parsing executor set after an API was created is
+    // still used.
+    private static final Executor PARSING_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ConnectExecutors.getParsingExecutor().execute(command);
+        }
+    };
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(IdToken.class, new IdTokenDeserializer())
+            .create();
 
     public static ConnectAPI getConnectApi(String endpoint) {
         return getApi(connectApiMap, endpoint, ConnectAPI.class);
@@ -39,6 +68,66 @@ public class RestHelper {
         return getApi(analyticsApiMap, endpoint, AnalyticsAPI.class);
     }
 
+    public static JwksAPI getJwksApi(String endpoint) {
+        return getApi(jwksApiMap, endpoint, JwksAPI.class);
+    }
+
+    /**
+     * Sets the client all API clients are derived from, so that they share its connection pool,
+     * dispatcher and TLS settings. Its interceptors, authenticators, cookies, cache and timeouts
+     * are not used by the SDK. APIs that were already created keep their client.
+     *
+     * @param okHttpClient the client to derive API clients from, or {@code null} to use the
+     *                     SDK's default client.
+     */
+    public static synchronized void setOkHttpClient(OkHttpClient okHttpClient) {
+        sharedClient = okHttpClient;
+        connectApiMap.clear();
+        wellKnownApiMap.clear();
+        analyticsApiMap.clear();
+        jwksApiMap.clear();
+    }
+
+    /**
+     * @return the client the API clients are derived from. Derive SDK clients from it with
+     * {@link #newClientBuilder()} rather than {@link OkHttpClient#newBuilder()}, so that the
+     * app's interceptors and settings are left out.
+     */
+    public static synchronized OkHttpClient getOkHttpClient() {
+        if (sharedClient == null) {
+            sharedClient = withSdkDefaults(new OkHttpClient.Builder()).build();
+        }
+        return sharedClient;
+    }
+
+    /**
+     * @return a builder for an SDK client that shares the connection pool, dispatcher and TLS
+     * settings of {@link #getOkHttpClient()}, but none of the interceptors, authenticators,
+     * cookies, cache or timeouts an app may have set on it.
+     */
+    public static OkHttpClient.Builder newClientBuilder() {
+        OkHttpClient.Builder builder = getOkHttpClient().newBuilder();
+        builder.interceptors().clear();
+        builder.networkInterceptors().clear();
+        return withSdkDefaults(builder
+                .authenticator(Authenticator.NONE)
+                .proxyAuthenticator(Authenticator.NONE)
+                .cookieJar(CookieJar.NO_COOKIES)
+                .cache(null)
+                .eventListener(EventListener.NONE)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .retryOnConnectionFailure(true));
+    }
+
+    private static OkHttpClient.Builder withSdkDefaults(OkHttpClient.Builder builder) {
+        return builder
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .pingInterval(0, TimeUnit.MILLISECONDS);
+    }
+
     private static synchronized <T> T getApi(Map<String, T> map, String endpoint, Class<T> type) {
         T api = map.get(endpoint);
         if (api == null) {
@@ -53,31 +142,16 @@ public class RestHelper {
         logging.setLevel(BuildConfig.DEBUG ? HttpLoggingInterceptor.Level.BODY :
                 HttpLoggingInterceptor.Level.NONE);
 
-        final Interceptor headers = new Interceptor() {
-            @Override
-            public Response intercept(Chain chain) throws IOException {
-                return chain.proceed(chain.request().newBuilder()
-                        .header("Accept", "application/json")
-                        .build());
-            }
-        };
-
-        final OkHttpClient httpClient = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(10, TimeUnit.SECONDS)
-                .writeTimeout(10, TimeUnit.SECONDS)
+        final OkHttpClient httpClient = newClientBuilder()
                 .addInterceptor(logging)
-                .addInterceptor(headers)
+                .addInterceptor(ACCEPT_JSON)
                 .build();
 
-        final Gson gson = new GsonBuilder()
-                .registerTypeAdapter(IdToken.class, new IdTokenDeserializer())
-                .create();
-
         return new Retrofit.Builder()
                 .callFactory(httpClient)
+                .callbackExecutor(PARSING_EXECUTOR)
                 .baseUrl(endpoint)
-                .addConverterFactory(GsonConverterFactory.create(gson))
+                .addConverterFactory(GsonConverterFactory.create(GSON))
                 .build();
     }
 }
@@ -0,0 +1,72 @@
+package com.telenor.connect.utils;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Marks sections of SDK startup, both as systrace sections on API level 18 and above and as
+ * durations that can be read back with {@link #getDurationsNanos()} to measure startup cost.
+ * Sections must be ended on the thread that began them, in reverse order.
+ */
+public class StartupTrace {
+
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static final ThreadLocal<Deque<Section>> openSections
+            = new ThreadLocal<Deque<Section>>() {
+        @Override
+        protected Deque<Section> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    private static final Map<String, Long> durations = new LinkedHashMap<>();
+
+    private static class Section {
+        private final String name;
+        private final long startNanos;
+
+        Section(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private StartupTrace() {}
+
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name.length() > MAX_SECTION_NAME_LENGTH
+                    ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+        }
+        openSections.get().push(new Section(name, System.nanoTime()));
+    }
+
+    public static void endSection() {
+        Section section = openSections.get().poll();
+        if (section == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        long duration = System.nanoTime() - section.startNanos;
+        synchronized (durations) {
+            durations.put(section.name, duration);
+        }
+    }
+
+    /**
+     * @return the duration of the last run of each ended section, in nanoseconds.
+     */
+    public static Map<String, Long> getDurationsNanos() {
+        synchronized (durations) {
+            return new LinkedHashMap<>(durations);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package com.telenor.connect.utils;
+
+import android.support.v4.util.AtomicFile;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Keeps the static resources of the Connect login pages (style sheets, scripts, fonts and
+ * images) on disk, so that the WebView does not download them again on every login.
+ * <p>
+ * The resources to keep are listed by the {@code android-sdk-prefetch-static-resources} page,
+ * which is fetched at most once per refresh interval and revalidated with its ETag. The ETag is
+ * the version of the cache: when it changes, resources that are no longer listed are removed and
+ * new ones are downloaded. Resources with a subresource integrity attribute are only kept if
+ * their content matches it. The SHA-256 of every resource is checked again before it is served,
+ * and a resource that no longer matches is removed. When the cache grows beyond its size limit
+ * the least recently served resources are removed.
+ */
+public class StaticResourceCache {
+
+    /**
+     * A cached resource, ready to be served to a WebView.
+     */
+    public static class Resource {
+        private final String mimeType;
+        private final String encoding;
+        private final Map<String, String> headers;
+        private final byte[] data;
+
+        Resource(String mimeType, String encoding, Map<String, String> headers, byte[] data) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = headers;
+            this.data = data;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        /**
+         * @return the response headers to serve the resource with, which are the CORS headers
+         * it was downloaded with, so that cross-origin fonts and scripts keep working.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static class Entry {
+        private final String url;
+        private final String mimeType;
+        private final String encoding;
+        private final String allowOrigin;
+        private final byte[] sha256;
+        private final long size;
+
+        Entry(String url,
+              String mimeType,
+              String encoding,
+              String allowOrigin,
+              byte[] sha256,
+              long size) {
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.allowOrigin = allowOrigin;
+            this.sha256 = sha256;
+            this.size = size;
+        }
+    }
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String INDEX_FILE = "index";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ALLOW_ORIGIN_HEADER = "Access-Control-Allow-Origin";
+    private static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private static final Pattern RESOURCE_TAG
+            = Pattern.compile("<(?:link|script|img)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE
+            = Pattern.compile("\\b(href|src|integrity)\\s*=\\s*[\"']([^\"']*)[\"']",
+                    Pattern.CASE_INSENSITIVE);
+
+    private final File directory;
+    private final AtomicFile indexFile;
+    private final OkHttpClient client;
+    private final String manifestUrl;
+    private final long maxBytes;
+    private final long refreshIntervalMillis;
+    private final Object refreshLock = new Object();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    // In least recently served order.
+    private LinkedHashMap<String, Entry> entries;
+    private String version;
+    private long checkedAt;
+    private long totalBytes;
+
+    /**
+     * @param directory the directory to keep the resources in.
+     * @param client the client to download the resources with.
+     * @param manifestUrl the URL of the page listing the resources to keep.
+     */
+    public StaticResourceCache(File directory, OkHttpClient client, String manifestUrl) {
+        this(directory, client, manifestUrl, DEFAULT_MAX_BYTES, DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    StaticResourceCache(
+            File directory,
+            OkHttpClient client,
+            String manifestUrl,
+            long maxBytes,
+            long refreshIntervalMillis) {
+        this.directory = directory;
+        this.indexFile = new AtomicFile(new File(directory, INDEX_FILE));
+        this.client = client;
+        this.manifestUrl = manifestUrl;
+        this.maxBytes = maxBytes;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Refreshes the cache in the background, unless it was refreshed recently.
+     */
+    public void refreshAsync() {
+        ConnectExecutors.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (IOException e) {
+                    Log.w(ConnectUtils.LOG_TAG, "Failed to refresh static resources", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param url the URL the WebView requests.
+     * @return the cached resource, or {@code null} if it is not cached or is corrupt.
+     */
+    public Resource get(String url) {
+        Entry entry;
+        synchronized (this) {
+            load();
+            entry = entries.get(url);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        byte[] data;
+        try {
+            data = readFile(fileFor(url));
+        } catch (IOException e) {
+            data = null;
+        }
+        if (data == null || !Arrays.equals(sha256(data), entry.sha256)) {
+            Log.w(ConnectUtils.LOG_TAG, "Removing corrupt static resource " + url);
+            synchronized (this) {
+                if (entries.get(url) == entry) {
+                    remove(url);
+                    save();
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesServed.addAndGet(data.length);
+        Map<String, String> headers = entry.allowOrigin != null
+                ? Collections.singletonMap(ALLOW_ORIGIN_HEADER, entry.allowOrigin)
+                : Collections.<String, String>emptyMap();
+        return new Resource(entry.mimeType, entry.encoding, headers, data);
+    }
+
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return how many bytes were served from disk instead of the network.
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    void refresh() throws IOException {
+        synchronized (refreshLock) {
+            long now = System.currentTimeMillis();
+            String currentVersion;
+            Set<String> cachedUrls;
+            synchronized (this) {
+                load();
+                if (now - checkedAt < refreshIntervalMillis) {
+                    return;
+                }
+                currentVersion = version;
+                cachedUrls = new HashSet<>(entries.keySet());
+            }
+            Request.Builder request = new Request.Builder().url(manifestUrl);
+            if (currentVersion != null) {
+                request.header("If-None-Match", currentVersion);
+            }
+            Response response = client.newCall(request.build()).execute();
+            try {
+                if (response.code() == 304) {
+                    synchronized (this) {
+                        checkedAt = now;
+                        save();
+                    }
+                    return;
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected response for static resources: " + response);
+                }
+                Map<String, String> resources = parseManifest(
+                        response.request().url(), response.body().string());
+                // Download outside the lock, so that the WebView is not kept waiting.
+                List<Entry> downloaded = new ArrayList<>();
+                for (Map.Entry<String, String> resource : resources.entrySet()) {
+                    if (!cachedUrls.contains(resource.getKey())) {
+                        Entry entry = download(resource.getKey(), resource.getValue());
+                        if (entry != null) {
+                            downloaded.add(entry);
+                        }
+                    }
+                }
+                synchronized (this) {
+                    for (String url : new ArrayList<>(entries.keySet())) {
+                        if (!resources.containsKey(url)) {
+                            remove(url);
+                        }
+                    }
+                    for (Entry entry : downloaded) {
+                        Entry replaced = entries.put(entry.url, entry);
+                        totalBytes += entry.size - (replaced != null ? replaced.size : 0);
+                    }
+                    evict();
+                    version = response.header("ETag");
+                    checkedAt = now;
+                    save();
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * @return the URLs of the resources linked from the page, each with its integrity
+     * attribute, or {@code null} if it has none.
+     */
+    static Map<String, String> parseManifest(HttpUrl baseUrl, String html) {
+        Map<String, String> resources = new LinkedHashMap<>();
+        Matcher tag = RESOURCE_TAG.matcher(html);
+        while (tag.find()) {
+            String location = null;
+            String integrity = null;
+            Matcher attribute = ATTRIBUTE.matcher(tag.group());
+            while (attribute.find()) {
+                if (attribute.group(1).equalsIgnoreCase("integrity")) {
+                    integrity = attribute.group(2);
+                } else {
+                    location = attribute.group(2);
+                }
+            }
+            HttpUrl url = location != null ? baseUrl.resolve(location) : null;
+            if (url != null) {
+                resources.put(url.toString(), integrity);
+            }
+        }
+        return resources;
+    }
+
+    private Entry download(String url, String integrity) {
+        Response response = null;
+        try {
+            response = client.newCall(new Request.Builder().url(url).build()).execute();
+            ResponseBody body = response.body();
+            MediaType contentType = body.contentType();
+            if (!response.isSuccessful()
+                    || contentType == null
+                    || contentType.subtype().equalsIgnoreCase("html")) {
+                return null;
+            }
+            byte[] data = body.bytes();
+            if (integrity != null && !matchesIntegrity(data, integrity)) {
+                Log.w(ConnectUtils.LOG_TAG, "Integrity check failed for " + url);
+                return null;
+            }
+            writeFile(fileFor(url), data);
+            return new Entry(
+                    url,
+                    contentType.type() + "/" + contentType.subtype(),
+                    contentType.charset() != null ? contentType.charset().name() : null,
+                    response.header(ALLOW_ORIGIN_HEADER),
+                    sha256(data),
+                    data.length);
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to download static resource " + url, e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Checks the data against a subresource integrity attribute, using the strongest of the
+     * supported hash algorithms it lists.
+     */
+    static boolean matchesIntegrity(byte[] data, String integrity) {
+        String[] algorithms = {"sha512", "sha384", "sha256"};
+        for (String algorithm : algorithms) {
+            boolean listed = false;
+            for (String hash : integrity.trim().split("\\s+")) {
+                int separator = hash.indexOf('-');
+                if (separator < 0 || !hash.substring(0, separator).equals(algorithm)) {
+                    continue;
+                }
+                listed = true;
+                String expected = hash.substring(separator + 1).split("\\?")[0];
+                String actual = Base64.encodeToString(
+                        digest(algorithm.toUpperCase(Locale.US).replace("SHA", "SHA-"), data),
+                        Base64.NO_WRAP);
+                if (actual.equals(expected)) {
+                    return true;
+                }
+            }
+            if (listed) {
+                return false;
+            }
+        }
+        // No supported algorithm is listed, so the attribute cannot be checked.
+        return true;
+    }
+
+    private void evict() {
+        Iterator<String> iterator = new ArrayList<>(entries.keySet()).iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            remove(iterator.next());
+        }
+    }
+
+    private void remove(String url) {
+        Entry entry = entries.remove(url);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            fileFor(url).delete();
+        }
+    }
+
+    private File fileFor(String url) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : sha256(url.getBytes(UTF_8))) {
+            name.append(String.format("%02x", b));
+        }
+        return new File(directory, name.toString());
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexFile.readFully()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            version = in.readBoolean() ? in.readUTF() : null;
+            checkedAt = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                String mimeType = in.readUTF();
+                String encoding = in.readBoolean() ? in.readUTF() : null;
+                String allowOrigin = in.readBoolean() ? in.readUTF() : null;
+                byte[] sha256 = new byte[in.readInt()];
+                in.readFully(sha256);
+                long size = in.readLong();
+                entries.put(url, new Entry(url, mimeType, encoding, allowOrigin, sha256, size));
+                totalBytes += size;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to read static resource index, clearing it", e);
+            for (String url : new ArrayList<>(entries.keySet())) {
+                remove(url);
+            }
+            version = null;
+            checkedAt = 0;
+        }
+    }
+
+    private void save() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = indexFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            writeNullableUTF(out, version);
+            out.writeLong(checkedAt);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.url);
+                out.writeUTF(entry.mimeType);
+                writeNullableUTF(out, entry.encoding);
+                writeNullableUTF(out, entry.allowOrigin);
+                out.writeInt(entry.sha256.length);
+                out.write(entry.sha256);
+                out.writeLong(entry.size);
+            }
+            out.flush();
+            indexFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(ConnectUtils.LOG_TAG, "Failed to save static resource index", e);
+            if (stream != null) {
+                indexFile.failWrite(stream);
+            }
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private void writeFile(File file, byte[] data) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = atomicFile.startWrite();
+        try {
+            stream.write(data);
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            atomicFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            return source.readByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return digest("SHA-256", data);
+    }
+
+    private static byte[] digest(String algorithm, byte[] data) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -26,18 +26,24 @@ public class Validator {
         }
     }
 
+    /**
+     * Throws unless the SDK is initialized, first waiting for an initialization started with
+     * {@code sdkInitializeAsync} to complete. Must not be called while holding the
+     * {@code ConnectSdk} class lock, which the initialization thread may need.
+     */
     public static void sdkInitialized() {
-        if (!ConnectSdk.isInitialized()) {
+        if (!ConnectSdk.isInitialized() && !ConnectSdk.awaitInitialization()) {
             throw new ConnectNotInitializedException("The SDK was not initialized, call " +
                     "ConnectSdk.sdkInitialize() first");
         }
     }
 
-    public static void validateTokens(ConnectTokensTO tokens, Date serverTimestamp) {
+    public static void validateTokens(
+            ConnectTokensTO tokens, Date serverTimestamp, JwkSetCache jwkSetCache) {
         Validator.notNullOrEmpty(tokens.getAccessToken(), "access_token");
         Validator.notNullOrEmpty(tokens.getTokenType(), "token_type");
         if (tokens.getIdToken() != null) {
-            IdTokenValidator.validate(tokens.getIdToken(), serverTimestamp);
+            IdTokenValidator.validate(tokens.getIdToken(), serverTimestamp, jwkSetCache);
         }
         Validator.notNullOrEmpty(tokens.getScope(), "scope");
         Validator.notNull(tokens.getExpiresIn(), "expires_in");
@@ -9,21 +9,34 @@ import android.webkit.WebView;
 
 import com.telenor.connect.sms.HtmlToAndroidInstructionsInterface;
 import com.telenor.connect.ui.ConnectWebViewClient;
+import com.telenor.connect.ui.InstructionHandler;
 
 public class WebViewHelper {
 
-    private static final int WEB_VIEW_TIMEOUT = 60*10*1000; // 60 seconds * 10 minutes * 1000 millis
-
-    // 1. HtmlToAndroidInstructionsInterface has no public fields.
-    // 2. We need JS for the web page.
-    @SuppressLint({"AddJavascriptInterface", "SetJavaScriptEnabled"})
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static void setupWebView(
             final WebView webView,
             ConnectWebViewClient client,
             final String pageToLoad) {
 
         webView.setWebViewClient(client);
+        configureWebView(webView, client);
+
+        webView.loadUrl(pageToLoad);
+    }
+
+    /**
+     * Applies the settings the Connect pages need, without loading a page.
+     *
+     * @param webView the WebView to configure.
+     * @param instructionHandler receives the instructions of the pages loaded by the WebView.
+     */
+    // 1. HtmlToAndroidInstructionsInterface has no public fields.
+    // 2. We need JS for the web page.
+    @SuppressLint({"AddJavascriptInterface", "SetJavaScriptEnabled"})
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static void configureWebView(
+            final WebView webView,
+            InstructionHandler instructionHandler) {
         webView.setVerticalScrollBarEnabled(true);
         webView.setHorizontalScrollBarEnabled(false);
         final WebSettings settings = webView.getSettings();
@@ -33,7 +46,7 @@ public class WebViewHelper {
             settings.setMixedContentMode(WebSettings.MIXED_CONTENT_COMPATIBILITY_MODE);
         }
         webView.addJavascriptInterface(
-                new HtmlToAndroidInstructionsInterface(client), "AndroidInterface");
+                new HtmlToAndroidInstructionsInterface(instructionHandler), "AndroidInterface");
         webView.setFocusable(true);
         webView.setFocusableInTouchMode(true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -41,29 +54,6 @@ public class WebViewHelper {
         }
 
         acceptAllCookies(webView);
-
-        webView.loadUrl(pageToLoad);
-
-        webView.postDelayed(
-                new RepeatingDelayedPageReloader(webView, pageToLoad), WEB_VIEW_TIMEOUT);
-    }
-
-    private static class RepeatingDelayedPageReloader implements Runnable {
-
-        private final WebView webView;
-        private final String pageToLoad;
-
-        public RepeatingDelayedPageReloader(final WebView webView, String pageToLoad) {
-            this.webView = webView;
-            this.pageToLoad = pageToLoad;
-        }
-
-        @Override
-        public void run() {
-            webView.loadUrl(pageToLoad);
-            webView.postDelayed(
-                    new RepeatingDelayedPageReloader(webView, pageToLoad), WEB_VIEW_TIMEOUT);
-        }
     }
 
     private static void acceptAllCookies(WebView webView) {
@@ -0,0 +1,59 @@
+package com.telenor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal microbenchmark harness for comparing implementations in unit tests. Measures the
+ * average time and, where the JVM supports it, the bytes allocated per operation, for the test
+ * to assert on.
+ */
+public class MicroBenchmark {
+
+    public static class Result {
+        public final String name;
+        public final double nanosPerOperation;
+        public final long bytesPerOperation;
+
+        Result(String name, double nanosPerOperation, long bytesPerOperation) {
+            this.name = name;
+            this.nanosPerOperation = nanosPerOperation;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.0f ns/op, %s B/op", name, nanosPerOperation,
+                    bytesPerOperation >= 0 ? String.valueOf(bytesPerOperation) : "n/a");
+        }
+    }
+
+    public static Result run(String name, int warmupIterations, int iterations, Runnable operation) {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run();
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        long bytesPerOperation = allocatedBefore >= 0 && allocatedAfter >= 0
+                ? (allocatedAfter - allocatedBefore) / iterations : -1;
+        return new Result(name, (double) elapsed / iterations, bytesPerOperation);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,129 @@
+package com.telenor.connect;
+
+import android.os.Looper;
+
+import com.telenor.TestHelper;
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.StartupTrace;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasKey;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class ConnectSdkInitializationTest {
+
+    @Test
+    public void sdkInitializeAsyncCallsBackOnMainThreadWhenInitialized() {
+        final AtomicBoolean initialized = new AtomicBoolean();
+        ConnectSdk.sdkInitializeAsync(
+                RuntimeEnvironment.application, true, new SdkInitializationCallback() {
+                    @Override
+                    public void onInitialized() {
+                        assertThat(Looper.myLooper() == Looper.getMainLooper(), is(true));
+                        initialized.set(true);
+                    }
+
+                    @Override
+                    public void onError(RuntimeException error) {
+                        fail("Initialization failed: " + error);
+                    }
+                });
+
+        boolean calledBack = TestHelper.flushForegroundTasksUntilCallerIsSatisifed(
+                10000,
+                new TestHelper.BooleanSupplier() {
+                    @Override
+                    public boolean getAsBoolean() {
+                        return initialized.get();
+                    }
+                });
+
+        assertThat(calledBack, is(true));
+        assertThat(ConnectSdk.getClientId(), is("connect-tests"));
+        Map<String, Long> durations = StartupTrace.getDurationsNanos();
+        assertThat(durations, hasKey("ConnectSdk.sdkInitializeAsync"));
+    }
+
+    @Test
+    public void entryPointsWaitForAsyncInitializationWithoutHoldingClassLock() throws Exception {
+        Whitebox.setInternalState(ConnectSdk.class, "isInitialized", false);
+        // Keep initialization from running until the entry point is waiting for it.
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blockIoThread = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // More than there are I/O threads, so that initialization is queued behind them.
+        for (int i = 0; i < 8; i++) {
+            ConnectExecutors.getIoExecutor().execute(blockIoThread);
+        }
+        ConnectSdk.sdkInitializeAsync(RuntimeEnvironment.application, true, null);
+
+        final AtomicBoolean confidentialClientRead = new AtomicBoolean();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ConnectSdk.isConfidentialClient();
+                ConnectSdk.disableBackgroundTokenRefresh();
+                confidentialClientRead.set(true);
+            }
+        });
+        caller.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (caller.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(caller.getState(), is(Thread.State.WAITING));
+
+        Thread lockTaker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectSdk.class) {
+                    // Only checks that the lock is free.
+                }
+            }
+        });
+        lockTaker.start();
+        lockTaker.join(5000);
+        assertThat(lockTaker.isAlive(), is(false));
+
+        release.countDown();
+        caller.join(10000);
+        assertThat(confidentialClientRead.get(), is(true));
+        assertThat(ConnectSdk.isInitialized(), is(true));
+    }
+
+    @Test
+    public void startupTraceRecordsNestedSections() {
+        StartupTrace.beginSection("outer");
+        StartupTrace.beginSection("inner");
+        StartupTrace.endSection();
+        StartupTrace.endSection();
+
+        Map<String, Long> durations = StartupTrace.getDurationsNanos();
+        assertThat(durations, hasKey("inner"));
+        assertThat(durations.get("outer"), greaterThanOrEqualTo(durations.get("inner")));
+    }
+}
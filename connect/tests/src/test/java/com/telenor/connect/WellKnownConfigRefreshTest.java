@@ -0,0 +1,157 @@
+package com.telenor.connect;
+
+import com.google.gson.Gson;
+import com.telenor.connect.id.ConnectStore;
+import com.telenor.connect.id.TokenStore;
+import com.telenor.connect.utils.ConnectExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class WellKnownConfigRefreshTest {
+
+    private static final String SAVED_ETAG = "\"saved\"";
+
+    private MockWebServer server;
+    private WellKnownConfigStore store;
+    private CountDownLatch handled;
+
+    @Before
+    public void beforeEach() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        handled = new CountDownLatch(1);
+        ConnectExecutors.setParsingExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                try {
+                    command.run();
+                } finally {
+                    handled.countDown();
+                }
+            }
+        });
+        store = new WellKnownConfigStore(RuntimeEnvironment.application);
+        Whitebox.setInternalState(ConnectSdk.class, "lastSeenWellKnownConfigStore", store);
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        ConnectExecutors.setParsingExecutor(null);
+        server.shutdown();
+    }
+
+    @Test
+    public void freshSavedConfigIsNotFetched() throws Exception {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        saveConfig(expiresAt);
+
+        refresh();
+
+        assertThat(handled.await(500, TimeUnit.MILLISECONDS), is(false));
+        assertThat(server.getRequestCount(), is(0));
+        assertThat(store.getExpiresAt(), is(expiresAt));
+    }
+
+    @Test
+    public void notModifiedResponseExtendsExpiryAndKeepsSavedConfig() throws Exception {
+        long now = System.currentTimeMillis();
+        saveConfig(now - 1000);
+        server.enqueue(new MockResponse()
+                .setResponseCode(304)
+                .setHeader("Cache-Control", "max-age=3600"));
+
+        refresh();
+        awaitHandled();
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("If-None-Match"), is(SAVED_ETAG));
+        assertThat(store.getExpiresAt(), is(greaterThan(now + TimeUnit.MINUTES.toMillis(59))));
+        assertThat(store.getFetchedAt(), is(greaterThan(now - 1)));
+        assertSavedConfigKept();
+    }
+
+    @Test
+    public void serverErrorKeepsSavedConfig() throws Exception {
+        long expiresAt = System.currentTimeMillis() - 1000;
+        saveConfig(expiresAt);
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        refresh();
+        awaitHandled();
+
+        assertThat(server.getRequestCount(), is(1));
+        assertThat(store.getExpiresAt(), is(expiresAt));
+        assertSavedConfigKept();
+    }
+
+    @Test
+    public void networkFailureKeepsSavedConfig() throws Exception {
+        long expiresAt = System.currentTimeMillis() - 1000;
+        saveConfig(expiresAt);
+        String url = server.url("/").toString();
+        server.shutdown();
+
+        Whitebox.invokeMethod(ConnectSdk.class, "refreshWellKnownConfig", url);
+        awaitHandled();
+
+        assertThat(store.getExpiresAt(), is(expiresAt));
+        assertSavedConfigKept();
+    }
+
+    @Test
+    public void clearingTokensKeepsSavedConfig() throws Exception {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        saveConfig(expiresAt);
+
+        new ConnectStore(RuntimeEnvironment.application, mock(TokenStore.class)).clear();
+
+        assertThat(store.getExpiresAt(), is(expiresAt));
+        assertSavedConfigKept();
+    }
+
+    private void saveConfig(long expiresAt) {
+        WellKnownAPI.WellKnownConfig config = new Gson().fromJson(
+                "{\"issuer\":\"https://saved.example.com\"}", WellKnownAPI.WellKnownConfig.class);
+        store.set(config, SAVED_ETAG, expiresAt - TimeUnit.HOURS.toMillis(1), expiresAt);
+        Whitebox.setInternalState(ConnectSdk.class, "wellKnownConfig", config);
+    }
+
+    private void refresh() throws Exception {
+        Whitebox.invokeMethod(
+                ConnectSdk.class, "refreshWellKnownConfig", server.url("/").toString());
+    }
+
+    private void awaitHandled() throws InterruptedException {
+        assertThat(handled.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    private void assertSavedConfigKept() {
+        WellKnownAPI.WellKnownConfig config
+                = Whitebox.getInternalState(ConnectSdk.class, "wellKnownConfig");
+        assertThat(config.getIssuer(), is("https://saved.example.com"));
+        assertThat(store.get().getIssuer(), is("https://saved.example.com"));
+        assertThat(store.getEtag(), is(SAVED_ETAG));
+    }
+}
@@ -0,0 +1,196 @@
+package com.telenor.connect.analytics;
+
+import com.telenor.connect.AnalyticsAPI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class AnalyticsPipelineTest {
+
+    private File queueFile;
+    private MockWebServer server;
+
+    @Before
+    public void before() throws Exception {
+        queueFile = File.createTempFile("analytics", ".queue");
+        queueFile.delete();
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.shutdown();
+        queueFile.delete();
+    }
+
+    @Test
+    public void flushIsDueOncePerWindow() {
+        long lastRequestAt = 5000;
+
+        long flushAt = AnalyticsPipeline.getFlushTime(lastRequestAt, 0);
+
+        assertThat(flushAt, is(lastRequestAt + AnalyticsPipeline.FLUSH_WINDOW_MILLIS));
+    }
+
+    @Test
+    public void flushWaitsForBackoff() {
+        long flushAt = AnalyticsPipeline.getFlushTime(0, 100000);
+
+        assertThat(flushAt, is(100000L));
+    }
+
+    @Test
+    public void backoffIsBounded() {
+        assertThat(AnalyticsPipeline.getBackoffDelay(2),
+                is(2 * AnalyticsPipeline.INITIAL_BACKOFF_MILLIS));
+        assertThat(AnalyticsPipeline.getBackoffDelay(1000),
+                is(AnalyticsPipeline.MAX_BACKOFF_MILLIS));
+    }
+
+    @Test
+    public void queuedEventsSurviveRestart() {
+        AnalyticsEventQueue queue = new AnalyticsEventQueue(queueFile, 10);
+        queue.add(new AnalyticsEventQueue.Event(1, "{\"a\":1}", "subject a"));
+        queue.add(new AnalyticsEventQueue.Event(2, "{\"b\":2}", null));
+
+        AnalyticsEventQueue restarted = new AnalyticsEventQueue(queueFile, 10);
+
+        assertThat(restarted.size(), is(2));
+        assertThat(restarted.peek(1).get(0).enqueuedAt, is(1L));
+        assertThat(restarted.peek(1).get(0).json, is("{\"a\":1}"));
+        assertThat(restarted.peek(1).get(0).subject, is("subject a"));
+        assertThat(restarted.peek(2).get(1).subject, is(nullValue()));
+    }
+
+    @Test
+    public void fullQueueDropsOldestEvent() {
+        AnalyticsEventQueue queue = new AnalyticsEventQueue(queueFile, 2);
+        queue.add(new AnalyticsEventQueue.Event(1, "1", null));
+        queue.add(new AnalyticsEventQueue.Event(2, "2", null));
+        queue.add(new AnalyticsEventQueue.Event(3, "3", null));
+
+        assertThat(queue.size(), is(2));
+        assertThat(queue.peek(1).get(0).enqueuedAt, is(2L));
+    }
+
+    @Test
+    public void oneEventIsSentPerWindowWithAuthorizationFetchedWhenSent() throws Exception {
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse());
+        final List<String> authorizedSubjects = new CopyOnWriteArrayList<>();
+        AnalyticsPipeline pipeline = new AnalyticsPipeline(
+                RuntimeEnvironment.application,
+                new TestTarget() {
+                    @Override
+                    public String getAuthorization(String subject) {
+                        authorizedSubjects.add(subject);
+                        return "Bearer token of " + subject;
+                    }
+                },
+                queueFile);
+
+        pipeline.enqueue(event("first app"), "first subject");
+        pipeline.enqueue(event("second app"), "second subject");
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertThat(request, is(notNullValue()));
+        assertThat(request.getPath(), is("/V1/android"));
+        assertThat(request.getHeader("Authorization"), is("Bearer token of first subject"));
+        assertThat(request.getBody().readUtf8(), containsString("\"first app\""));
+        Thread.sleep(500);
+        assertThat(server.getRequestCount(), is(1));
+        assertThat(authorizedSubjects, is(Collections.singletonList("first subject")));
+        assertThat(new AnalyticsEventQueue(queueFile, AnalyticsPipeline.MAX_EVENTS).size(),
+                is(1));
+    }
+
+    @Test
+    public void eventIsSentWithoutAuthorizationWhenNoneIsGiven() throws Exception {
+        server.enqueue(new MockResponse());
+        AnalyticsPipeline pipeline = new AnalyticsPipeline(
+                RuntimeEnvironment.application, new TestTarget(), queueFile);
+
+        pipeline.enqueue(event("app"), "signed out subject");
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertThat(request, is(notNullValue()));
+        assertThat(request.getHeader("Authorization"), is(nullValue()));
+    }
+
+    @Test
+    public void unauthorizedEventIsKeptForRetry() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+        AnalyticsPipeline pipeline = new AnalyticsPipeline(
+                RuntimeEnvironment.application, new TestTarget(), queueFile);
+
+        pipeline.enqueue(event("app"), null);
+
+        server.takeRequest(10, TimeUnit.SECONDS);
+        Thread.sleep(500);
+        assertThat(server.getRequestCount(), is(1));
+        assertThat(new AnalyticsEventQueue(queueFile, AnalyticsPipeline.MAX_EVENTS).size(),
+                is(1));
+    }
+
+    @Test
+    public void eventIsKeptWhenAuthorizationIsNotAvailable() throws Exception {
+        AnalyticsPipeline pipeline = new AnalyticsPipeline(
+                RuntimeEnvironment.application,
+                new TestTarget() {
+                    @Override
+                    public String getAuthorization(String subject) throws IOException {
+                        throw new IOException("offline");
+                    }
+                },
+                queueFile);
+
+        pipeline.enqueue(event("app"), "subject");
+
+        Thread.sleep(500);
+        assertThat(server.getRequestCount(), is(0));
+        assertThat(new AnalyticsEventQueue(queueFile, AnalyticsPipeline.MAX_EVENTS).size(),
+                is(1));
+    }
+
+    private class TestTarget implements AnalyticsPipeline.Target {
+        @Override
+        public String getEndpoint() {
+            return server.url("/").toString();
+        }
+
+        @Override
+        public String getAuthorization(String subject) throws IOException {
+            return null;
+        }
+    }
+
+    private static AnalyticsAPI.SDKAnalyticsData event(String appName) {
+        return new AnalyticsAPI.SDKAnalyticsData(
+                appName, "1.0", "subject", "session", null, 1, 2, 3, 4);
+    }
+}
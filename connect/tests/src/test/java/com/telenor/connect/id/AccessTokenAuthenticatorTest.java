@@ -0,0 +1,223 @@
+package com.telenor.connect.id;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.telenor.connect.ConnectNotSignedInException;
+import com.telenor.connect.ConnectSdk;
+import com.telenor.connect.utils.ConnectFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.BDDMockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(PowerMockRunner.class)
+@Config(sdk = 18)
+@PowerMockIgnore({ "javax.net.ssl.*", "okhttp3.*", "okio.*" })
+@PrepareForTest({ConnectSdk.class, Looper.class, Log.class})
+public class AccessTokenAuthenticatorTest {
+
+    private enum RefreshResult { SUCCESS, FAILURE, NO_SIGNED_IN_USER, NONE }
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private AtomicInteger refreshes;
+    private volatile String accessToken;
+
+    @Before
+    public void beforeEach() throws Exception {
+        PowerMockito.mockStatic(ConnectSdk.class);
+        PowerMockito.mockStatic(Looper.class);
+        PowerMockito.mockStatic(Log.class);
+        BDDMockito.given(Looper.getMainLooper()).willReturn(PowerMockito.mock(Looper.class));
+        accessToken = "old token";
+        BDDMockito.given(ConnectSdk.getAccessToken()).willAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return accessToken;
+            }
+        });
+        refreshes = new AtomicInteger();
+        refreshingWith(RefreshResult.SUCCESS, null);
+
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new AccessTokenInterceptor())
+                .authenticator(new AccessTokenAuthenticator(200))
+                .build();
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void unauthorizedResponseRefreshesOnceAndRetriesWithNewToken() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        Response response = execute();
+
+        assertThat(response.code(), is(200));
+        assertThat(refreshes.get(), is(1));
+        assertThat(server.getRequestCount(), is(2));
+        assertThat(server.takeRequest().getHeader("Authorization"), is("Bearer old token"));
+        assertThat(server.takeRequest().getHeader("Authorization"), is("Bearer new token"));
+    }
+
+    @Test
+    public void concurrentUnauthorizedResponsesShareOneRefresh() throws Exception {
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final AtomicBoolean firstRejected = new AtomicBoolean();
+        refreshingWith(RefreshResult.SUCCESS, refreshed);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if ("Bearer new token".equals(request.getHeader("Authorization"))) {
+                    return new MockResponse();
+                }
+                if (firstRejected.compareAndSet(false, true)) {
+                    return new MockResponse().setResponseCode(401);
+                }
+                refreshed.await(5, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(401);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Response response = execute();
+                response.close();
+                return response.code();
+            }
+        };
+        Future<Integer> first = executor.submit(call);
+        Future<Integer> second = executor.submit(call);
+        Future<Integer> third = executor.submit(call);
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(200));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(200));
+        assertThat(third.get(5, TimeUnit.SECONDS), is(200));
+        assertThat(refreshes.get(), is(1));
+        assertThat(server.getRequestCount(), is(6));
+        executor.shutdown();
+    }
+
+    @Test
+    public void givesUpWhenRequestWithRefreshedTokenIsRejected() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        Response response = execute();
+
+        assertThat(response.code(), is(401));
+        assertThat(refreshes.get(), is(1));
+        assertThat(server.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void failedRefreshReturnsUnauthorizedResponse() throws Exception {
+        refreshingWith(RefreshResult.FAILURE, null);
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        Response response = execute();
+
+        assertThat(response.code(), is(401));
+        assertThat(refreshes.get(), is(1));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void refreshWithoutSignedInUserReturnsUnauthorizedResponse() throws Exception {
+        refreshingWith(RefreshResult.NO_SIGNED_IN_USER, null);
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        Response response = execute();
+
+        assertThat(response.code(), is(401));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void timedOutRefreshReturnsUnauthorizedResponse() throws Exception {
+        refreshingWith(RefreshResult.NONE, null);
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        Response response = execute();
+
+        assertThat(response.code(), is(401));
+        assertThat(refreshes.get(), is(1));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    private Response execute() throws IOException {
+        return client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+    }
+
+    private void refreshingWith(final RefreshResult result, final CountDownLatch refreshed) {
+        PowerMockito.doAnswer(new Answer<ConnectFuture<String>>() {
+            @Override
+            public ConnectFuture<String> answer(InvocationOnMock invocation) {
+                ConnectFuture<String> future = new ConnectFuture<>();
+                refreshes.incrementAndGet();
+                switch (result) {
+                    case SUCCESS:
+                        accessToken = "new token";
+                        if (refreshed != null) {
+                            refreshed.countDown();
+                        }
+                        future.complete(accessToken);
+                        break;
+                    case FAILURE:
+                        future.fail(new IOException("refresh failed"));
+                        break;
+                    case NO_SIGNED_IN_USER:
+                        future.fail(new ConnectNotSignedInException("No user is signed in."));
+                        break;
+                    default:
+                        break;
+                }
+                return future;
+            }
+        }).when(ConnectSdk.class);
+        ConnectSdk.updateTokens();
+    }
+}
@@ -0,0 +1,85 @@
+package com.telenor.connect.id;
+
+import com.telenor.connect.ConnectSdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.BDDMockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.robolectric.annotation.Config;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(PowerMockRunner.class)
+@Config(sdk = 18)
+@PowerMockIgnore({ "javax.net.ssl.*", "okhttp3.*", "okio.*" })
+@PrepareForTest({ConnectSdk.class})
+public class AccessTokenInterceptorTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void beforeEach() throws Exception {
+        PowerMockito.mockStatic(ConnectSdk.class);
+        server = new MockWebServer();
+        server.enqueue(new MockResponse());
+        server.start();
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new AccessTokenInterceptor())
+                .build();
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void addsBearerAuthorizationHeader() throws Exception {
+        BDDMockito.given(ConnectSdk.getAccessToken()).willReturn("access token");
+
+        client.newCall(new Request.Builder().url(server.url("/")).build()).execute().close();
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Authorization"), is("Bearer access token"));
+    }
+
+    @Test
+    public void doesNotAddHeaderWhenNoUserIsSignedIn() throws Exception {
+        BDDMockito.given(ConnectSdk.getAccessToken()).willReturn(null);
+
+        client.newCall(new Request.Builder().url(server.url("/")).build()).execute().close();
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Authorization"), is(nullValue()));
+    }
+
+    @Test
+    public void keepsExistingAuthorizationHeader() throws Exception {
+        BDDMockito.given(ConnectSdk.getAccessToken()).willReturn("access token");
+
+        client.newCall(new Request.Builder()
+                .url(server.url("/"))
+                .header("Authorization", "Basic abc")
+                .build())
+                .execute()
+                .close();
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Authorization"), is("Basic abc"));
+    }
+}
@@ -1,24 +1,50 @@
 package com.telenor.connect.id;
 
+import com.telenor.TestHelper;
 import com.telenor.connect.ConnectNotSignedInException;
+import com.telenor.connect.utils.ConnectExecutors;
+import com.telenor.connect.utils.ConnectFuture;
+import com.telenor.connect.utils.RestHelper;
 import com.telenor.connect.utils.Validator;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
-
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 
 import static junit.framework.Assert.fail;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -218,4 +244,216 @@ public class ConnectIdServiceTest {
 
         verify(connectStore, times(1)).get();
     }
+
+    @Test
+    public void concurrentUpdateTokensCallsShareOneRefreshRequest() throws Exception {
+        final int callers = 1000;
+        final CountDownLatch allCallersAttached = new CountDownLatch(callers);
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                allCallersAttached.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody("{" +
+                        "\"access_token\":\"new access token\"," +
+                        "\"expires_in\":3600," +
+                        "\"refresh_token\":\"new refresh token\"," +
+                        "\"scope\":\"openid\"," +
+                        "\"token_type\":\"Bearer\"}");
+            }
+        });
+        server.start();
+
+        ConnectStore connectStore = mock(ConnectStore.class);
+        ConnectTokens connectTokens = mock(ConnectTokens.class);
+        when(connectTokens.getRefreshToken()).thenReturn("refresh_token");
+        when(connectStore.get()).thenReturn(connectTokens);
+        ConnectAPI connectApi = RestHelper.getConnectApi(server.url("/").toString());
+        final ConnectIdService connectIdService
+                = new ConnectIdService(connectStore, connectApi, "", "");
+
+        final AtomicInteger successes = new AtomicInteger();
+        final AccessTokenCallback callback = new AccessTokenCallback() {
+            @Override
+            public void success(String accessToken) {
+                assertThat(accessToken, is("new access token"));
+                successes.incrementAndGet();
+            }
+
+            @Override
+            public void unsuccessfulResult(Response response, boolean userDataRemoved) {
+                fail();
+            }
+
+            @Override
+            public void failure(Call<ConnectTokensTO> call, Throwable error) {
+                fail();
+            }
+
+            @Override
+            public void noSignedInUser() {
+                fail();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < callers; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connectIdService.updateTokens(callback);
+                    allCallersAttached.countDown();
+                }
+            });
+        }
+
+        boolean allCallersNotified = TestHelper.flushForegroundTasksUntilCallerIsSatisifed(
+                10000,
+                new TestHelper.BooleanSupplier() {
+                    @Override
+                    public boolean getAsBoolean() {
+                        return successes.get() == callers;
+                    }
+                });
+        executor.shutdown();
+        server.shutdown();
+
+        assertThat(allCallersNotified, is(true));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void getValidAccessTokenFutureCompletesWithAccessTokenThatIsntExpired()
+            throws Exception {
+        ConnectStore connectStore = mock(ConnectStore.class);
+        ConnectTokens connectTokens = mock(ConnectTokens.class);
+        when(connectTokens.accessTokenHasExpired()).thenReturn(false);
+        when(connectTokens.getAccessToken()).thenReturn("access_token");
+        when(connectStore.get()).thenReturn(connectTokens);
+        ConnectIdService connectIdService
+                = new ConnectIdService(connectStore, mock(ConnectAPI.class), "", "");
+
+        ConnectFuture<String> future = connectIdService.getValidAccessToken();
+
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get(), is("access_token"));
+    }
+
+    @Test
+    public void getValidAccessTokenFutureFailsWhenTokensAreMissing() throws Exception {
+        ConnectStore connectStore = mock(ConnectStore.class);
+        when(connectStore.get()).thenReturn(null);
+        ConnectIdService connectIdService
+                = new ConnectIdService(connectStore, mock(ConnectAPI.class), "", "");
+
+        ConnectFuture<String> future = connectIdService.getValidAccessToken();
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ConnectNotSignedInException.class));
+        }
+    }
+
+    @Test
+    public void refreshResultIsGivenToCallbackOnCallbackExecutor() {
+        ConnectStore connectStore = mock(ConnectStore.class);
+        ConnectTokens connectTokens = mock(ConnectTokens.class);
+        when(connectTokens.getRefreshToken()).thenReturn("refresh_token");
+        when(connectStore.get()).thenReturn(connectTokens);
+        ConnectAPI connectApi = mock(ConnectAPI.class);
+        final Call<ConnectTokensTO> call = mock(Call.class);
+        when(connectApi.refreshAccessTokens(anyString(), anyString(), anyString()))
+                .thenReturn(call);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Callback<ConnectTokensTO> callback
+                        = (Callback<ConnectTokensTO>) invocation.getArguments()[0];
+                callback.onFailure(call, new IOException("offline"));
+                return null;
+            }
+        }).when(call).enqueue(any(Callback.class));
+        final List<Runnable> dispatched = new ArrayList<>();
+        ConnectExecutors.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                dispatched.add(command);
+            }
+        });
+        AccessTokenCallback callback = mock(AccessTokenCallback.class);
+        try {
+            new ConnectIdService(connectStore, connectApi, "", "").updateTokens(callback);
+
+            verify(callback, times(0)).failure(any(Call.class), any(Throwable.class));
+            assertThat(dispatched.size(), is(1));
+            dispatched.get(0).run();
+            verify(callback).failure(any(Call.class), any(IOException.class));
+        } finally {
+            ConnectExecutors.setCallbackExecutor(null);
+        }
+    }
+
+    @Test
+    public void refreshResultIsSavedToAccountThatStartedRefresh() throws Exception {
+        ConnectStore connectStore = mock(ConnectStore.class);
+        ConnectTokens bobTokens = mock(ConnectTokens.class);
+        when(bobTokens.getRefreshToken()).thenReturn("bob refresh token");
+        when(bobTokens.getAccessToken()).thenReturn("bob access token");
+        when(connectStore.get()).thenReturn(bobTokens);
+        when(connectStore.getActiveAccount()).thenReturn("alice", "bob");
+        ConnectAPI connectApi = refreshRespondingWith(Response.success(new ConnectTokensTO(
+                "alice access token", 3600, null, "alice refresh token", "openid", "Bearer")));
+        ConnectIdService connectIdService = new ConnectIdService(connectStore, connectApi, "", "");
+
+        ConnectFuture<String> future = connectIdService.updateTokens();
+
+        assertThat(future.isDone(), is(true));
+        verify(connectStore).update(eq("alice"), any(ConnectTokens.class));
+        verify(connectStore, times(0)).update(any(ConnectTokens.class));
+        assertThat(connectIdService.getAccessToken(), is("bob access token"));
+    }
+
+    @Test
+    public void rejectedRefreshOnlyRemovesAccountThatStartedRefresh() throws Exception {
+        ConnectStore connectStore = mock(ConnectStore.class);
+        ConnectTokens bobTokens = mock(ConnectTokens.class);
+        when(bobTokens.getRefreshToken()).thenReturn("bob refresh token");
+        when(bobTokens.getAccessToken()).thenReturn("bob access token");
+        when(connectStore.get()).thenReturn(bobTokens);
+        when(connectStore.getActiveAccount()).thenReturn("alice", "bob");
+        ConnectAPI connectApi = refreshRespondingWith(Response.<ConnectTokensTO>error(
+                400, ResponseBody.create(MediaType.parse("application/json"), "{}")));
+        ConnectIdService connectIdService = new ConnectIdService(connectStore, connectApi, "", "");
+
+        ConnectFuture<String> future = connectIdService.updateTokens();
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ConnectNotSignedInException.class));
+        }
+        verify(connectStore).removeAccount("alice");
+        verify(connectStore, times(0)).clear();
+        assertThat(connectIdService.getAccessToken(), is("bob access token"));
+    }
+
+    private static ConnectAPI refreshRespondingWith(final Response<ConnectTokensTO> response) {
+        ConnectAPI connectApi = mock(ConnectAPI.class);
+        final Call<ConnectTokensTO> call = mock(Call.class);
+        when(connectApi.refreshAccessTokens(anyString(), anyString(), anyString()))
+                .thenReturn(call);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Callback<ConnectTokensTO> callback
+                        = (Callback<ConnectTokensTO>) invocation.getArguments()[0];
+                callback.onResponse(call, response);
+                return null;
+            }
+        }).when(call).enqueue(any(Callback.class));
+        return connectApi;
+    }
 }
@@ -1,8 +1,5 @@
 package com.telenor.connect.id;
 
-import android.content.Context;
-import android.support.v4.content.LocalBroadcastManager;
-
 import com.telenor.connect.ConnectSdk;
 
 import org.junit.Rule;
@@ -23,7 +20,7 @@ import static org.mockito.Mockito.mock;
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = 18)
 @PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*" })
-@PrepareForTest({ConnectSdk.class, LocalBroadcastManager.class})
+@PrepareForTest({ConnectSdk.class})
 public class ConnectTokensTOStateTrackerTest {
 
     @Rule
@@ -45,13 +42,8 @@ public class ConnectTokensTOStateTrackerTest {
     public void constructingStartsTracking() {
         PowerMockito.mockStatic(ConnectSdk.class);
         BDDMockito.given(ConnectSdk.isInitialized()).willReturn(true);
-        Context context = mock(Context.class);
-        BDDMockito.given(ConnectSdk.getContext()).willReturn(context);
 
-        PowerMockito.mockStatic(LocalBroadcastManager.class);
-        LocalBroadcastManager localBroadcastManager = mock(LocalBroadcastManager.class);
-        BDDMockito.given(LocalBroadcastManager.getInstance(context))
-                .willReturn(localBroadcastManager);
+        BDDMockito.given(ConnectSdk.getTokenStateStream()).willReturn(new TokenStateStream());
 
         StateTracker stateTracker = new StateTracker();
 
@@ -62,16 +54,42 @@ public class ConnectTokensTOStateTrackerTest {
     public void constructingDoesNotCallOnTokenStateChanged() {
         PowerMockito.mockStatic(ConnectSdk.class);
         BDDMockito.given(ConnectSdk.isInitialized()).willReturn(true);
-        Context context = mock(Context.class);
-        BDDMockito.given(ConnectSdk.getContext()).willReturn(context);
 
-        PowerMockito.mockStatic(LocalBroadcastManager.class);
-        LocalBroadcastManager localBroadcastManager = mock(LocalBroadcastManager.class);
-        BDDMockito.given(LocalBroadcastManager.getInstance(context))
-                .willReturn(localBroadcastManager);
+        BDDMockito.given(ConnectSdk.getTokenStateStream()).willReturn(new TokenStateStream());
+
+        StateTracker stateTracker = new StateTracker();
+
+        assertThat(stateTracker.onTokenStateChangedHasBeenCalled, is(false));
+    }
+
+    @Test
+    public void signInAndSignOutEventsCallOnTokenStateChanged() {
+        PowerMockito.mockStatic(ConnectSdk.class);
+        BDDMockito.given(ConnectSdk.isInitialized()).willReturn(true);
+        TokenStateStream tokenStateStream = new TokenStateStream();
+        BDDMockito.given(ConnectSdk.getTokenStateStream()).willReturn(tokenStateStream);
+        StateTracker stateTracker = new StateTracker();
+        ConnectTokens connectTokens = mock(ConnectTokens.class);
+
+        tokenStateStream.publish(
+                new TokenStateEvent(TokenStateEvent.Type.SIGNED_IN, connectTokens));
+        assertThat(stateTracker.hasTokensValue, is(true));
+
+        tokenStateStream.publish(new TokenStateEvent(TokenStateEvent.Type.SIGNED_OUT, null));
+        assertThat(stateTracker.hasTokensValue, is(false));
+    }
 
+    @Test
+    public void refreshEventsDoNotCallOnTokenStateChanged() {
+        PowerMockito.mockStatic(ConnectSdk.class);
+        BDDMockito.given(ConnectSdk.isInitialized()).willReturn(true);
+        TokenStateStream tokenStateStream = new TokenStateStream();
+        BDDMockito.given(ConnectSdk.getTokenStateStream()).willReturn(tokenStateStream);
         StateTracker stateTracker = new StateTracker();
 
+        tokenStateStream.publish(new TokenStateEvent(
+                TokenStateEvent.Type.REFRESHED, mock(ConnectTokens.class)));
+
         assertThat(stateTracker.onTokenStateChangedHasBeenCalled, is(false));
     }
 }
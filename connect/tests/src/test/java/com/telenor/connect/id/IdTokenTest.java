@@ -0,0 +1,51 @@
+package com.telenor.connect.id;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class IdTokenTest {
+
+    private String serializedSignedJwt;
+
+    @Before
+    public void before() throws Exception {
+        IdTokenClaimsCache.clear();
+        JWTClaimsSet claimsSet = new JWTClaimsSet();
+        claimsSet.setSubject("12345678");
+        claimsSet.setCustomClaim("td_au", "4790000000");
+        claimsSet.setCustomClaim("custom", "custom value");
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        jwt.sign(new MACSigner("0123456789abcdef0123456789abcdef".getBytes("UTF-8")));
+        serializedSignedJwt = jwt.serialize();
+    }
+
+    @Test
+    public void getClaimReturnsCustomClaims() {
+        IdToken idToken = new IdToken(serializedSignedJwt);
+
+        assertThat(idToken.getAuthenticationUsername(), is("4790000000"));
+        assertThat((String) idToken.getClaim("custom"), is("custom value"));
+        assertThat(idToken.getClaim("missing"), is(nullValue()));
+    }
+
+    @Test
+    public void sameSerializedJwtIsOnlyParsedOnce() {
+        IdToken first = new IdToken(serializedSignedJwt);
+        IdToken second = new IdToken(new String(serializedSignedJwt));
+
+        assertThat(second.getClaimsSet(), is(sameInstance(first.getClaimsSet())));
+    }
+}
@@ -0,0 +1,162 @@
+package com.telenor.connect.id;
+
+import android.app.Activity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class TokenRefreshSchedulerTest {
+
+    @Test
+    public void refreshDelayIsSkewBeforeExpiration() {
+        long now = 1000000;
+        Date expiration = new Date(now + 3600 * 1000);
+
+        long delay = TokenRefreshScheduler.getRefreshDelay(expiration, 60 * 1000, now);
+
+        assertThat(delay, is(3540 * 1000L));
+    }
+
+    @Test
+    public void refreshSkewIsCappedAtFractionOfRemainingLifetime() {
+        long now = 1000000;
+        Date expiration = new Date(now + 30 * 1000);
+
+        long delay = TokenRefreshScheduler.getRefreshDelay(expiration, 60 * 1000, now);
+
+        assertThat(delay, is(15 * 1000L));
+    }
+
+    @Test
+    public void refreshDelayIsNeverShorterThanMinimum() {
+        long now = 1000000;
+        Date expiration = new Date(now - 30 * 1000);
+
+        long delay = TokenRefreshScheduler.getRefreshDelay(expiration, 60 * 1000, now);
+
+        assertThat(delay, is(TokenRefreshScheduler.MIN_REFRESH_DELAY_MILLIS));
+    }
+
+    @Test
+    public void activityStartedBeforeSchedulerKeepsRefreshRunning() {
+        ConnectIdService connectIdService = mock(ConnectIdService.class);
+        TokenRefreshScheduler scheduler = startScheduler(connectIdService, new AtomicBoolean(true));
+        Activity otherActivity = mock(Activity.class);
+
+        scheduler.onActivityStarted(otherActivity);
+        scheduler.onActivityStopped(otherActivity);
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+
+        verify(connectIdService).updateTokens(any(AccessTokenCallback.class));
+    }
+
+    @Test
+    public void refreshIsPausedWhenActivityStartedBeforeSchedulerIsStopped() {
+        ConnectIdService connectIdService = mock(ConnectIdService.class);
+        AtomicBoolean foreground = new AtomicBoolean(true);
+        TokenRefreshScheduler scheduler = startScheduler(connectIdService, foreground);
+
+        foreground.set(false);
+        scheduler.onActivityStopped(mock(Activity.class));
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+
+        verify(connectIdService, never()).updateTokens(any(AccessTokenCallback.class));
+    }
+
+    @Test
+    public void refreshKeepsRunningWhileAnotherActivityStartedBeforeSchedulerIsStarted() {
+        ConnectIdService connectIdService = mock(ConnectIdService.class);
+        TokenRefreshScheduler scheduler = startScheduler(connectIdService, new AtomicBoolean(true));
+
+        scheduler.onActivityStopped(mock(Activity.class));
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+
+        verify(connectIdService).updateTokens(any(AccessTokenCallback.class));
+    }
+
+    @Test
+    public void refreshIsPausedWhenAppIsBackgroundedJustAfterActivityStartedBeforeSchedulerStops() {
+        ConnectIdService connectIdService = mock(ConnectIdService.class);
+        AtomicBoolean foreground = new AtomicBoolean(true);
+        TokenRefreshScheduler scheduler = startScheduler(connectIdService, foreground);
+
+        scheduler.onActivityStopped(mock(Activity.class));
+        foreground.set(false);
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+
+        verify(connectIdService, never()).updateTokens(any(AccessTokenCallback.class));
+    }
+
+    @Test
+    public void refreshWaitsForActivityWhenStartedInBackground() {
+        ConnectIdService connectIdService = mock(ConnectIdService.class);
+        TokenRefreshScheduler scheduler
+                = startScheduler(connectIdService, new AtomicBoolean(false));
+
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+        verify(connectIdService, never()).updateTokens(any(AccessTokenCallback.class));
+
+        scheduler.onActivityStarted(mock(Activity.class));
+        Robolectric.getForegroundThreadScheduler().advanceBy(80, TimeUnit.SECONDS);
+        verify(connectIdService).updateTokens(any(AccessTokenCallback.class));
+    }
+
+    @Test
+    public void backoffDelayGrowsWithFailedAttempts() {
+        long first = TokenRefreshScheduler.getBackoffDelay(1, 1.0);
+        long second = TokenRefreshScheduler.getBackoffDelay(2, 1.0);
+
+        assertThat(second, is(first * 2));
+    }
+
+    @Test
+    public void backoffDelayIsJitteredBetweenHalfAndFullBackoff() {
+        long full = TokenRefreshScheduler.getBackoffDelay(3, 1.0);
+        long jittered = TokenRefreshScheduler.getBackoffDelay(3, 0.3);
+
+        assertThat(jittered, greaterThanOrEqualTo(full / 2));
+        assertThat(jittered, lessThanOrEqualTo(full));
+    }
+
+    @Test
+    public void backoffDelayIsBounded() {
+        long delay = TokenRefreshScheduler.getBackoffDelay(1000, 1.0);
+
+        assertThat(delay, is(5 * 60 * 1000L));
+    }
+
+    private static TokenRefreshScheduler startScheduler(
+            ConnectIdService connectIdService, final AtomicBoolean appInForeground) {
+        when(connectIdService.getAccessTokenExpirationTime())
+                .thenReturn(new Date(System.currentTimeMillis() + 130 * 1000));
+        TokenRefreshScheduler scheduler = new TokenRefreshScheduler(
+                RuntimeEnvironment.application, connectIdService, 60 * 1000) {
+            @Override
+            boolean isAppInForeground() {
+                return appInForeground.get();
+            }
+        };
+        scheduler.start();
+        return scheduler;
+    }
+}
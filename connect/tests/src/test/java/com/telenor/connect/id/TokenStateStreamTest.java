@@ -0,0 +1,85 @@
+package com.telenor.connect.id;
+
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+@Config(sdk = 18)
+public class TokenStateStreamTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingListener implements TokenStateListener {
+
+        final List<TokenStateEvent> events = new ArrayList<>();
+
+        @Override
+        public void onTokenStateChanged(TokenStateEvent event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void listenersAreGivenPublishedEventWithTokens() {
+        TokenStateStream stream = new TokenStateStream();
+        RecordingListener listener = new RecordingListener();
+        stream.addListener(listener, DIRECT);
+        ConnectTokens connectTokens = mock(ConnectTokens.class);
+
+        TokenStateEvent event
+                = new TokenStateEvent(TokenStateEvent.Type.REFRESHED, connectTokens);
+        stream.publish(event);
+
+        assertThat(listener.events.size(), is(1));
+        assertThat(listener.events.get(0), is(sameInstance(event)));
+        assertThat(listener.events.get(0).getTokens(), is(sameInstance(connectTokens)));
+        assertThat(stream.getLatest(), is(sameInstance(event)));
+    }
+
+    @Test
+    public void listenersAreCalledOnTheirExecutor() {
+        TokenStateStream stream = new TokenStateStream();
+        final List<Runnable> queued = new ArrayList<>();
+        RecordingListener listener = new RecordingListener();
+        stream.addListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+
+        stream.publish(new TokenStateEvent(TokenStateEvent.Type.SIGNED_OUT, null));
+
+        assertThat(listener.events.size(), is(0));
+        queued.get(0).run();
+        assertThat(listener.events.get(0).getType(), is(TokenStateEvent.Type.SIGNED_OUT));
+        assertThat(listener.events.get(0).getTokens(), is(nullValue()));
+    }
+
+    @Test
+    public void removedListenersAreNotCalled() {
+        TokenStateStream stream = new TokenStateStream();
+        RecordingListener listener = new RecordingListener();
+        stream.addListener(listener, DIRECT);
+        stream.addListener(listener, DIRECT);
+        stream.publish(new TokenStateEvent(TokenStateEvent.Type.SIGNED_OUT, null));
+        stream.removeListener(listener);
+        stream.publish(new TokenStateEvent(TokenStateEvent.Type.SIGNED_OUT, null));
+
+        assertThat(listener.events.size(), is(1));
+    }
+}
@@ -0,0 +1,305 @@
+package com.telenor.connect.id;
+
+import android.content.Context;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.telenor.MicroBenchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class TokenStoreBenchmarkTest {
+
+    private Context context;
+    private ConnectTokens connectTokens;
+
+    @Before
+    public void before() throws Exception {
+        context = RuntimeEnvironment.application;
+        JWTClaimsSet claimsSet = new JWTClaimsSet();
+        claimsSet.setSubject("12345678");
+        claimsSet.setExpirationTime(new Date(System.currentTimeMillis() + 3600 * 1000));
+        claimsSet.setCustomClaim("name", "Ola Nordmann");
+        claimsSet.setCustomClaim("phone_number", "4790000000");
+        claimsSet.setCustomClaim("phone_number_verified", true);
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        jwt.sign(new MACSigner("0123456789abcdef0123456789abcdef".getBytes("UTF-8")));
+        connectTokens = new ConnectTokens(
+                "access token",
+                new Date(1500000000000L),
+                new IdToken(jwt.serialize()),
+                "refresh token",
+                "openid profile",
+                "Bearer");
+    }
+
+    @Test
+    public void binaryStoreRoundTripsTokens() {
+        BinaryTokenStore store = new BinaryTokenStore(context, null);
+        store.set(connectTokens);
+
+        assertSameTokens(store.get(), connectTokens);
+        assertThat(store.getIdToken().getSubject(), is("12345678"));
+    }
+
+    @Test
+    public void binaryStoreMigratesLegacyJsonTokens() {
+        new JsonTokenStore(context).set(connectTokens);
+
+        BinaryTokenStore store = new BinaryTokenStore(context, null);
+
+        assertSameTokens(store.get(), connectTokens);
+        assertThat(store.getIdToken().getSubject(), is("12345678"));
+        assertThat(new JsonTokenStore(context).hasTokens(), is(false));
+    }
+
+    @Test
+    public void binaryStoreKeepsSavedIdTokenOnUpdate() {
+        BinaryTokenStore store = new BinaryTokenStore(context, null);
+        store.set(connectTokens);
+        ConnectTokens refreshed = new ConnectTokens(
+                "new access token", new Date(1600000000000L), null, "refresh token", null, "Bearer");
+
+        store.update(refreshed);
+
+        assertThat(store.get().getAccessToken(), is("new access token"));
+        assertThat(store.get().getIdToken(), is(nullValue()));
+        assertThat(store.getIdToken(), is(notNullValue()));
+    }
+
+    @Test
+    public void encryptedBinaryStoreRoundTripsTokens() {
+        BinaryTokenStore store = new BinaryTokenStore(context, new XorTokenCipher());
+        store.set(connectTokens);
+
+        assertSameTokens(store.get(), connectTokens);
+    }
+
+    @Test
+    public void encryptedEntriesAreClearedWhenTheyCannotBeDecrypted() {
+        new BinaryTokenStore(context, new XorTokenCipher()).set(connectTokens);
+
+        BinaryTokenStore store = new BinaryTokenStore(context, null);
+
+        assertThat(store.get(), is(nullValue()));
+        assertThat(store.getIdToken(), is(nullValue()));
+    }
+
+    @Test
+    public void binaryEncodingIsSmallerThanJson() {
+        new JsonTokenStore(context).set(connectTokens);
+        int jsonSize = savedSize();
+        new JsonTokenStore(context).clear();
+
+        new BinaryTokenStore(context, null).set(connectTokens);
+        int binarySize = savedSize();
+
+        assertThat(binarySize, lessThan(jsonSize));
+    }
+
+    @Test
+    public void coldReadBenchmark() {
+        final JsonTokenStore jsonStore = new JsonTokenStore(context);
+        jsonStore.set(connectTokens);
+        MicroBenchmark.Result json = MicroBenchmark.run(
+                "json cold read", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                new JsonTokenStore(context).get();
+            }
+        });
+        jsonStore.clear();
+
+        final BinaryTokenStore binaryStore = new BinaryTokenStore(context, null);
+        binaryStore.set(connectTokens);
+        MicroBenchmark.Result binary = MicroBenchmark.run(
+                "binary cold read", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                new BinaryTokenStore(context, null).get();
+            }
+        });
+
+        assertThat(binary.nanosPerOperation, lessThan(json.nanosPerOperation));
+        assertThat(binary.bytesPerOperation, lessThanOrEqualTo(json.bytesPerOperation));
+        assertSameTokens(binaryStore.get(), connectTokens);
+    }
+
+    @Test
+    public void updatesMadeWhileAWriteIsPendingAreWrittenOnce() {
+        QueueingExecutor executor = new QueueingExecutor();
+        BinaryTokenStore store = new BinaryTokenStore(
+                context, null, ConnectStore.PREFERENCES_FILE, executor);
+        store.set(connectTokens);
+
+        for (int i = 0; i < 10; i++) {
+            store.update(refreshedTokens("access token " + i));
+        }
+
+        assertThat(executor.tasks.size(), is(1));
+        assertThat(store.get().getAccessToken(), is("access token 9"));
+        executor.runAll();
+        assertThat(new BinaryTokenStore(context, null).get().getAccessToken(),
+                is("access token 9"));
+    }
+
+    @Test
+    public void clearDropsPendingUpdate() {
+        QueueingExecutor executor = new QueueingExecutor();
+        BinaryTokenStore store = new BinaryTokenStore(
+                context, null, ConnectStore.PREFERENCES_FILE, executor);
+        store.set(connectTokens);
+        store.update(refreshedTokens("new access token"));
+
+        store.clear();
+        executor.runAll();
+
+        assertThat(store.get(), is(nullValue()));
+    }
+
+    @Test
+    public void tokensSavedNextToIdTokenAreMoved() {
+        new BinaryTokenStore(context, null).set(connectTokens);
+        String tokensFile = ConnectStore.PREFERENCES_FILE + ".TOKENS";
+        String entry = context.getSharedPreferences(tokensFile, Context.MODE_PRIVATE)
+                .getString("CONNECT_TOKENS_V1", null);
+        context.getSharedPreferences(tokensFile, Context.MODE_PRIVATE).edit().clear().commit();
+        context.getSharedPreferences(ConnectStore.PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .edit()
+                .putString("CONNECT_TOKENS_V1", entry)
+                .commit();
+
+        BinaryTokenStore store = new BinaryTokenStore(context, null);
+
+        assertSameTokens(store.get(), connectTokens);
+        assertThat(context.getSharedPreferences(ConnectStore.PREFERENCES_FILE, Context.MODE_PRIVATE)
+                .contains("CONNECT_TOKENS_V1"), is(false));
+    }
+
+    @Test
+    public void bytesWrittenPerRefreshBenchmark() {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        String tokensFile = ConnectStore.PREFERENCES_FILE + ".TOKENS";
+        final BinaryTokenStore store = new BinaryTokenStore(
+                context, null, ConnectStore.PREFERENCES_FILE, direct);
+        store.set(connectTokens);
+        store.update(refreshedTokens("new access token"));
+
+        // A refresh rewrites the whole preferences file the tokens are saved in. Before the
+        // split, that file also held the ID token.
+        int combinedBytes = savedSize(ConnectStore.PREFERENCES_FILE) + savedSize(tokensFile);
+        int tokensBytes = savedSize(tokensFile);
+        assertThat(tokensBytes, lessThan(200));
+        assertThat(tokensBytes, lessThan(combinedBytes / 2));
+
+        MicroBenchmark.Result update = MicroBenchmark.run(
+                "binary update", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                store.update(refreshedTokens("new access token"));
+            }
+        });
+
+        assertThat(update.nanosPerOperation,
+                lessThan((double) TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    private ConnectTokens refreshedTokens(String accessToken) {
+        return new ConnectTokens(
+                accessToken,
+                new Date(1600000000000L),
+                connectTokens.getIdToken(),
+                "refresh token",
+                "openid profile",
+                "Bearer");
+    }
+
+    private int savedSize() {
+        return savedSize(ConnectStore.PREFERENCES_FILE)
+                + savedSize(ConnectStore.PREFERENCES_FILE + ".TOKENS");
+    }
+
+    private int savedSize(String preferencesFile) {
+        int size = 0;
+        Map<String, ?> all = context
+                .getSharedPreferences(preferencesFile, Context.MODE_PRIVATE)
+                .getAll();
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            size += entry.getKey().length() + String.valueOf(entry.getValue()).length();
+        }
+        return size;
+    }
+
+    private static void assertSameTokens(ConnectTokens actual, ConnectTokens expected) {
+        assertThat(actual.getAccessToken(), is(expected.getAccessToken()));
+        assertThat(actual.getExpirationDate(), is(expected.getExpirationDate()));
+        assertThat(actual.getIdToken().getSerializedSignedJwt(),
+                is(expected.getIdToken().getSerializedSignedJwt()));
+        assertThat(actual.getRefreshToken(), is(expected.getRefreshToken()));
+        assertThat(actual.getScope(), is(expected.getScope()));
+        assertThat(actual.getTokenType(), is(expected.getTokenType()));
+    }
+
+    private static class QueueingExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+
+    private static class XorTokenCipher implements TokenCipher {
+        @Override
+        public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+            byte[] result = new byte[plaintext.length];
+            for (int i = 0; i < plaintext.length; i++) {
+                result[i] = (byte) (plaintext[i] ^ 0x5a);
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] decrypt(byte[] ciphertext) throws GeneralSecurityException {
+            return encrypt(ciphertext);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.telenor.connect.id;
+
+import android.content.Context;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class TokenVaultTest {
+
+    private Context context;
+    private ConnectTokens aliceTokens;
+    private ConnectTokens bobTokens;
+
+    @Before
+    public void before() throws Exception {
+        context = RuntimeEnvironment.application;
+        aliceTokens = createTokens("alice", "alice access token");
+        bobTokens = createTokens("bob", "bob access token");
+    }
+
+    @Test
+    public void setAddsAccountAndMakesItActive() {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+
+        assertThat(vault.getAccounts(), is(accounts("alice", "bob")));
+        assertThat(vault.getActiveAccount(), is("bob"));
+        assertThat(vault.get().getAccessToken(), is("bob access token"));
+        assertThat(vault.getIdToken().getSubject(), is("bob"));
+    }
+
+    @Test
+    public void setActiveAccountSwitchesTokens() {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+
+        assertThat(vault.setActiveAccount("alice"), is(true));
+        assertThat(vault.get().getAccessToken(), is("alice access token"));
+        assertThat(vault.getIdToken().getSubject(), is("alice"));
+        assertThat(vault.setActiveAccount("carol"), is(false));
+        assertThat(vault.getActiveAccount(), is("alice"));
+    }
+
+    @Test
+    public void updateOnlyChangesActiveAccount() throws Exception {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+        vault.update(createTokens("bob", "refreshed access token"));
+
+        vault.setActiveAccount("alice");
+        assertThat(vault.get().getAccessToken(), is("alice access token"));
+        vault.setActiveAccount("bob");
+        assertThat(vault.get().getAccessToken(), is("refreshed access token"));
+    }
+
+    @Test
+    public void updateOfSubjectChangesThatAccountOnly() throws Exception {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+        vault.update("alice", createTokens("alice", "refreshed access token"));
+        vault.update("carol", createTokens("carol", "carol access token"));
+
+        assertThat(vault.getAccounts(), is(accounts("alice", "bob")));
+        assertThat(vault.get().getAccessToken(), is("bob access token"));
+        vault.setActiveAccount("alice");
+        assertThat(vault.get().getAccessToken(), is("refreshed access token"));
+    }
+
+    @Test
+    public void accountsAndActiveAccountArePersisted() {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+        vault.setActiveAccount("alice");
+
+        TokenVault reloaded = new TokenVault(context, null);
+
+        assertThat(reloaded.getAccounts(), is(accounts("alice", "bob")));
+        assertThat(reloaded.getActiveAccount(), is("alice"));
+        assertThat(reloaded.get().getAccessToken(), is("alice access token"));
+    }
+
+    @Test
+    public void clearOnlyRemovesActiveAccount() {
+        TokenVault vault = new TokenVault(context, null);
+        vault.set(aliceTokens);
+        vault.set(bobTokens);
+        vault.clear();
+
+        assertThat(vault.getAccounts(), is(accounts("alice")));
+        assertThat(vault.getActiveAccount(), is(nullValue()));
+        assertThat(vault.get(), is(nullValue()));
+        assertThat(vault.setActiveAccount("alice"), is(true));
+        assertThat(vault.get().getAccessToken(), is("alice access token"));
+    }
+
+    @Test
+    public void singleAccountTokensAreMigrated() {
+        new BinaryTokenStore(context, null).set(aliceTokens);
+
+        TokenVault vault = new TokenVault(context, null);
+
+        assertThat(vault.getAccounts(), is(accounts("alice")));
+        assertThat(vault.getActiveAccount(), is("alice"));
+        assertThat(vault.get().getAccessToken(), is("alice access token"));
+        assertThat(new BinaryTokenStore(context, null).get(), is(nullValue()));
+    }
+
+    private static Set<String> accounts(String... subjects) {
+        return new HashSet<>(Arrays.asList(subjects));
+    }
+
+    private static ConnectTokens createTokens(String subject, String accessToken)
+            throws Exception {
+        JWTClaimsSet claimsSet = new JWTClaimsSet();
+        claimsSet.setSubject(subject);
+        claimsSet.setExpirationTime(new Date(System.currentTimeMillis() + 3600 * 1000));
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        jwt.sign(new MACSigner("0123456789abcdef0123456789abcdef".getBytes("UTF-8")));
+        return new ConnectTokens(
+                accessToken,
+                new Date(1500000000000L),
+                new IdToken(jwt.serialize()),
+                "refresh token",
+                "openid profile",
+                "Bearer");
+    }
+}
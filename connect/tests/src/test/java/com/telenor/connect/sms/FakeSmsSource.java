@@ -0,0 +1,59 @@
+package com.telenor.connect.sms;
+
+/**
+ * An {@link SmsSource} that passes on the SMS that a test delivers to it.
+ */
+public class FakeSmsSource implements SmsSource {
+
+    private final boolean needsSmsPermissions;
+    private volatile SmsHandler smsHandler;
+
+    public FakeSmsSource(boolean needsSmsPermissions) {
+        this.needsSmsPermissions = needsSmsPermissions;
+    }
+
+    @Override
+    public boolean needsSmsPermissions() {
+        return needsSmsPermissions;
+    }
+
+    @Override
+    public synchronized void start(SmsHandler smsHandler, long receivedAfter) {
+        this.smsHandler = smsHandler;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void stop() {
+        smsHandler = null;
+        notifyAll();
+    }
+
+    public boolean isStarted() {
+        return smsHandler != null;
+    }
+
+    /**
+     * Waits for the source to be started or stopped, as it may be on another thread.
+     *
+     * @return {@code true} if the source reached the state within the time.
+     */
+    public synchronized boolean awaitStarted(boolean started, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (isStarted() != started) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public void deliver(String originatingAddress, String messageBody) {
+        if (smsHandler != null) {
+            smsHandler.receivedSms(originatingAddress, messageBody);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.telenor.connect.sms;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class InboxSmsSourceTest {
+
+    @Test
+    public void startingTwiceRegistersReceiverOnce() {
+        Context context = mock(Context.class);
+        InboxSmsSource source = new InboxSmsSource(context);
+
+        source.start(mock(SmsHandler.class), 0);
+        source.start(mock(SmsHandler.class), 0);
+
+        verify(context, times(1))
+                .registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+    }
+
+    @Test
+    public void startingAfterStopRegistersReceiverAgain() {
+        Context context = mock(Context.class);
+        InboxSmsSource source = new InboxSmsSource(context);
+
+        source.start(mock(SmsHandler.class), 0);
+        source.stop();
+        source.start(mock(SmsHandler.class), 0);
+
+        verify(context, times(2))
+                .registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+        verify(context).unregisterReceiver(any(BroadcastReceiver.class));
+    }
+}
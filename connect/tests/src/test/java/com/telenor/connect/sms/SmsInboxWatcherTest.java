@@ -0,0 +1,67 @@
+package com.telenor.connect.sms;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class SmsInboxWatcherTest {
+
+    private static MatrixCursor inbox(Object[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "address", "body" });
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    @Test
+    public void everyNewMessageIsHandedOverAndCursorIsClosed() {
+        MatrixCursor cursor = inbox(
+                new Object[] { 41L, "Telenor", "Your CONNECT code is 1234" },
+                new Object[] { 42L, "Bank", "Your balance is 0.00" });
+        SmsHandler smsHandler = mock(SmsHandler.class);
+        SmsInboxWatcher watcher = new SmsInboxWatcher(mock(Context.class), smsHandler);
+
+        watcher.handleMessages(cursor);
+
+        verify(smsHandler).receivedSms("Telenor", "Your CONNECT code is 1234");
+        verify(smsHandler).receivedSms("Bank", "Your balance is 0.00");
+        assertThat(cursor.isClosed(), is(true));
+    }
+
+    @Test
+    public void lastSeenIdIsHighestHandedOverId() {
+        SmsInboxWatcher watcher = new SmsInboxWatcher(
+                mock(Context.class), mock(SmsHandler.class));
+        assertThat(watcher.getLastSeenId(), is(-1L));
+
+        watcher.handleMessages(inbox(new Object[] { 41L, "Telenor", "CONNECT 1234" }));
+        watcher.handleMessages(inbox());
+
+        assertThat(watcher.getLastSeenId(), is(41L));
+    }
+
+    @Test
+    public void watcherWithoutContentResolverDoesNothing() {
+        SmsHandler smsHandler = mock(SmsHandler.class);
+        SmsInboxWatcher watcher = new SmsInboxWatcher(mock(Context.class), smsHandler);
+
+        watcher.start(0);
+        watcher.stop();
+
+        verify(smsHandler, never()).receivedSms(anyString(), anyString());
+    }
+}
@@ -0,0 +1,207 @@
+package com.telenor.connect.sms;
+
+import com.telenor.MicroBenchmark;
+import com.telenor.connect.ui.Instruction;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class SmsPinParseUtilBenchmarkTest {
+
+    private static final String[] SMS_CORPUS = {
+            "Your verification code for ''HipstaGram'' is 3456 - CONNECT by Telenor Digital.",
+            "3456 is your verification code for ''HipstaGram''  - CONNECT by Telenor Digital.",
+            "RM1234.56 Capture: 0022 is your verification code for CONNECT",
+            "My Contacts:Вашият CONNECT код за потвърждение е 3151.Не го споделяйте",
+            "Your verification code is 0102 - CONNECT by Telenor Digital. RM1234.56",
+            "RM0.00 Hi. Please click on the link below to change "
+                    + "your CONNECT password: https://s.telenordigital.com/abcde",
+            "Google: 0022 is your verification code",
+            "Telenor are currently having connectivity issues. Expected fix time"
+                    + " is by 20:00 tonight.",
+    };
+
+    private static Instruction pinInstruction(String... patterns) {
+        Instruction instruction = new Instruction();
+        instruction.setName(Instruction.PIN_INSTRUCTION_NAME);
+        instruction.setArguments(new ArrayList<Object>(Arrays.asList(patterns)));
+        return instruction;
+    }
+
+    // Polynomial backtracking without nested quantifiers, which takes around a second on a
+    // desktop JVM, far longer than the time budget.
+    private static String slowPattern(String letter) {
+        return "CONNECT .*.*.*.*.*.*.*(" + letter + ")x";
+    }
+
+    private static String slowBody(String letter) {
+        StringBuilder body = new StringBuilder("CONNECT ");
+        for (int i = 0; i < 40; i++) {
+            body.append(letter);
+        }
+        return body.append('!').toString();
+    }
+
+    @Test
+    public void patternsAreCompiledOncePerPatternList() {
+        Instruction first = pinInstruction(".* ([0-9]{4}).*", ".*([0-9]{4}) .*");
+        Instruction second = pinInstruction(".* ([0-9]{4}).*", ".*([0-9]{4}) .*");
+
+        assertThat(SmsPinParseUtil.getPinPatterns(second),
+                is(sameInstance(SmsPinParseUtil.getPinPatterns(first))));
+    }
+
+    @Test
+    public void invalidPatternsAreLeftOut() {
+        Instruction instruction = pinInstruction("([0-9]{4}", "[0-9]{4}", "CONNECT ([0-9]{4})");
+        instruction.getArguments().add(1234);
+
+        List<Pattern> patterns = SmsPinParseUtil.getPinPatterns(instruction);
+
+        assertThat(patterns.size(), is(1));
+        assertThat(patterns.get(0).pattern(), is("CONNECT ([0-9]{4})"));
+        assertThat(SmsPinParseUtil.findPin("CONNECT 1234", instruction), is("1234"));
+    }
+
+    @Test
+    public void patternsWithNestedQuantifiersAreLeftOut() {
+        Instruction instruction = pinInstruction(
+                "CONNECT (.*a){20}(b)", "CONNECT ((a+)+)b", "CONNECT (?:[0-9]{2})? ([0-9]{4})");
+
+        List<Pattern> patterns = SmsPinParseUtil.getPinPatterns(instruction);
+
+        assertThat(patterns.size(), is(1));
+        assertThat(patterns.get(0).pattern(), is("CONNECT (?:[0-9]{2})? ([0-9]{4})"));
+    }
+
+    @Test
+    public void nestedQuantifiersAreDetected() {
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("(a+)+"), is(true));
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("(x(a*)b)*"), is(true));
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("(.*a){20}b"), is(true));
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("(?:a|b)+ ([0-9]{4})"), is(false));
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("([0-9]{4})?"), is(false));
+        assertThat(SmsPinParseUtil.hasNestedQuantifier("[(a+)]+ (\\(+)"), is(false));
+    }
+
+    @Test
+    public void tooLongSmsIsIgnored() {
+        Instruction instruction = pinInstruction("CONNECT ([0-9]{4})");
+        StringBuilder body = new StringBuilder("CONNECT 1234");
+        while (body.length() <= SmsPinParseUtil.MAX_BODY_LENGTH) {
+            body.append(' ');
+        }
+
+        assertThat(SmsPinParseUtil.findPin(body.toString(), instruction), is(nullValue()));
+    }
+
+    @Test
+    public void slowPatternIsGivenUpWithinBudget() {
+        Instruction instruction = pinInstruction(slowPattern("a"), "CONNECT a+(!)");
+
+        long start = System.currentTimeMillis();
+        String pin = SmsPinParseUtil.findPin(slowBody("a"), instruction);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(pin, is("!"));
+        assertThat(elapsed, lessThan(SmsPinParseUtil.MATCH_TIME_BUDGET_MILLIS * 10));
+    }
+
+    @Test
+    public void slowPatternIsNotUsedAfterRepeatedTimeouts() {
+        Instruction instruction = pinInstruction(slowPattern("b"));
+        for (int i = 0; i < SmsPinParseUtil.MAX_PATTERN_TIMEOUTS; i++) {
+            SmsPinParseUtil.findPin(slowBody("b"), instruction);
+        }
+
+        long start = System.currentTimeMillis();
+        assertThat(SmsPinParseUtil.findPin(slowBody("b"), instruction), is(nullValue()));
+
+        assertThat(System.currentTimeMillis() - start,
+                lessThan(SmsPinParseUtil.MATCH_TIME_BUDGET_MILLIS));
+    }
+
+    // Matching can not be interrupted, so the abandoned matches are still running here.
+    @Test
+    public void abandonedMatchesDoNotHoldUpNewMatches() {
+        Instruction slow = pinInstruction(slowPattern("c"));
+        Instruction valid = pinInstruction("CONNECT ([0-9]{4})");
+        for (int i = 0; i < SmsPinParseUtil.MAX_PATTERN_TIMEOUTS; i++) {
+            assertThat(SmsPinParseUtil.findPin(slowBody("c"), slow), is(nullValue()));
+        }
+
+        long start = System.currentTimeMillis();
+        assertThat(SmsPinParseUtil.findPin("CONNECT 1234", valid), is("1234"));
+
+        assertThat(System.currentTimeMillis() - start,
+                lessThan(SmsPinParseUtil.MATCH_TIME_BUDGET_MILLIS * 10));
+    }
+
+    @Test
+    public void slowFirstMatchDoesNotDisableValidPattern() {
+        Instruction instruction = pinInstruction("CONNECT ([0-9]{4})|" + slowPattern("d"));
+
+        assertThat(SmsPinParseUtil.findPin(slowBody("d"), instruction), is(nullValue()));
+
+        assertThat(SmsPinParseUtil.findPin("CONNECT 1234", instruction), is("1234"));
+    }
+
+    @Test
+    public void findPinBenchmark() {
+        final Instruction instruction = pinInstruction(".* ([0-9]{4}).*", ".*([0-9]{4}) .*");
+        MicroBenchmark.Result compiling = MicroBenchmark.run(
+                "compile per SMS", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                for (String body : SMS_CORPUS) {
+                    findPinCompilingPatterns(body, instruction);
+                }
+            }
+        });
+        MicroBenchmark.Result cached = MicroBenchmark.run(
+                "cached patterns", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                for (String body : SMS_CORPUS) {
+                    SmsPinParseUtil.findPin(body, instruction);
+                }
+            }
+        });
+
+        assertThat(cached.nanosPerOperation, lessThan(compiling.nanosPerOperation));
+        for (String body : SMS_CORPUS) {
+            assertThat(SmsPinParseUtil.findPin(body, instruction),
+                    is(findPinCompilingPatterns(body, instruction)));
+        }
+    }
+
+    // How PINs were found before the patterns were cached.
+    private static String findPinCompilingPatterns(String body, Instruction instruction) {
+        if (!body.contains("CONNECT")) {
+            return null;
+        }
+        for (Object pattern : instruction.getArguments()) {
+            Matcher matcher = Pattern.compile((String) pattern).matcher(body);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+    }
+}
@@ -5,10 +5,12 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.support.annotation.NonNull;
 import android.view.View;
+import android.webkit.ValueCallback;
 import android.webkit.WebView;
 
 import com.telenor.connect.ConnectCallback;
 import com.telenor.connect.ConnectSdk;
+import com.telenor.connect.sms.FakeSmsSource;
 import com.telenor.connect.sms.SmsBroadcastReceiver;
 import com.telenor.connect.utils.ConnectUtils;
 import com.telenor.connect.id.ParseTokenCallback;
@@ -16,6 +18,7 @@ import com.telenor.connect.id.ParseTokenCallback;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -23,8 +26,11 @@ import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -32,9 +38,13 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doNothing;
@@ -72,6 +82,27 @@ public class ConnectWebViewClientTest {
         verify(webView).loadUrl(expected);
     }
 
+    @Test
+    @Config(sdk = 23)
+    @SuppressWarnings("unchecked")
+    public void instructionsAreObservedWhenTelenorDigitalHttpsPageIsCommitted() throws Exception {
+        ConnectCallback callback = mock(ConnectCallback.class);
+        Activity activity = mock(Activity.class);
+        WebView webView = mock(WebView.class);
+        View loadingView = mock(View.class);
+        WebErrorView errorView = mock(WebErrorView.class);
+
+        ConnectWebViewClient connectWebViewClient
+                = new ConnectWebViewClient(activity, webView, loadingView, errorView, callback);
+        connectWebViewClient.onPageCommitVisible(
+                webView, "https://any.telenordigital.com/something");
+        connectWebViewClient.onPageCommitVisible(
+                webView, "https://any.telenordigital.com.fish.biz/foo");
+
+        verify(webView, times(1)).evaluateJavascript(
+                contains("MutationObserver"), (ValueCallback<String>) isNull());
+    }
+
     @Test
     public void checkForInstructionsIsNotCalledOnNonHttpsPages() throws Exception {
         ConnectCallback callback = mock(ConnectCallback.class);
@@ -120,12 +151,118 @@ public class ConnectWebViewClientTest {
         List<Instruction> instructions = Collections.singletonList(instruction);
         connectWebViewClient.givenInstructions(instructions);
 
-        verify(activity)
+        verify(activity, timeout(1000))
                 .registerReceiver(
                         any(SmsBroadcastReceiver.class),
                         argThat(new IntentActionMatcher<>(smsReceivedFilter)));
     }
 
+    @Test
+    public void pinInstructionStartsSourceThatNeedsNoPermissionsWithoutCheckingThem()
+            throws Exception {
+        ConnectCallback callback = mock(ConnectCallback.class);
+        Activity activity = mock(Activity.class);
+        WebView webView = mock(WebView.class);
+        View loadingView = mock(View.class);
+        WebErrorView errorView = mock(WebErrorView.class);
+        FakeSmsSource smsSource = new FakeSmsSource(false);
+
+        ConnectWebViewClient connectWebViewClient = new ConnectWebViewClient(
+                activity, webView, loadingView, errorView, callback, smsSource);
+        connectWebViewClient.givenInstructions(
+                Collections.singletonList(getPinInstruction("CONNECT code is ([0-9]{4})")));
+
+        assertThat(smsSource.awaitStarted(true, 1000), is(true));
+        verify(activity, never()).checkCallingOrSelfPermission(anyString());
+    }
+
+    @Test
+    public void pinFromSmsSourceIsGivenToPage() throws Exception {
+        ConnectCallback callback = mock(ConnectCallback.class);
+        Activity activity = mock(Activity.class);
+        WebView webView = mock(WebView.class);
+        View loadingView = mock(View.class);
+        WebErrorView errorView = mock(WebErrorView.class);
+        FakeSmsSource smsSource = new FakeSmsSource(false);
+        ConnectWebViewClient connectWebViewClient = new ConnectWebViewClient(
+                activity, webView, loadingView, errorView, callback, smsSource);
+        connectWebViewClient.givenInstructions(
+                Collections.singletonList(getPinInstruction("CONNECT code is ([0-9]{4})")));
+        smsSource.awaitStarted(true, 1000);
+
+        smsSource.deliver(null, "Your CONNECT code is 1234\nabcdefghijk");
+
+        ArgumentCaptor<Runnable> fillInPin = ArgumentCaptor.forClass(Runnable.class);
+        verify(webView).post(fillInPin.capture());
+        fillInPin.getValue().run();
+        verify(webView).loadUrl("javascript:window[\"pinCallback\"]('1234');");
+        assertThat(smsSource.awaitStarted(false, 1000), is(true));
+    }
+
+    @Test
+    public void javascriptInstructionsAreRunInOneScript() throws Exception {
+        ConnectCallback callback = mock(ConnectCallback.class);
+        Activity activity = mock(Activity.class);
+        WebView webView = mock(WebView.class);
+        View loadingView = mock(View.class);
+        WebErrorView errorView = mock(WebErrorView.class);
+        ConnectWebViewClient connectWebViewClient = new ConnectWebViewClient(
+                activity, webView, loadingView, errorView, callback, new FakeSmsSource(false));
+        Instruction first = new Instruction();
+        first.setName("showPhoneNumber");
+        Instruction second = new Instruction();
+        second.setName("setStep");
+        second.setArguments(Collections.<Object>singletonList("2"));
+
+        connectWebViewClient.givenInstructions(Arrays.asList(first, second));
+
+        ArgumentCaptor<Runnable> script = ArgumentCaptor.forClass(Runnable.class);
+        verify(webView, times(1)).post(script.capture());
+        script.getValue().run();
+        verify(webView).loadUrl("javascript:"
+                + "try {window[\"showPhoneNumber\"]();} catch (e) {}"
+                + "try {window[\"setStep\"](2);} catch (e) {}");
+        assertThat(connectWebViewClient.getInstructionTimings().keySet(),
+                is((Set<String>) new HashSet<>(Arrays.asList("showPhoneNumber", "setStep"))));
+    }
+
+    @Test
+    @Config(sdk = 19)
+    @SuppressWarnings("unchecked")
+    public void javascriptInstructionsAreEvaluatedOncePerDelivery() throws Exception {
+        ConnectCallback callback = mock(ConnectCallback.class);
+        Activity activity = mock(Activity.class);
+        WebView webView = mock(WebView.class);
+        View loadingView = mock(View.class);
+        WebErrorView errorView = mock(WebErrorView.class);
+        ConnectWebViewClient connectWebViewClient = new ConnectWebViewClient(
+                activity, webView, loadingView, errorView, callback, new FakeSmsSource(false));
+        Instruction first = new Instruction();
+        first.setName("showPhoneNumber");
+        Instruction second = new Instruction();
+        second.setName("setStep");
+        second.setArguments(Collections.<Object>singletonList("2"));
+
+        connectWebViewClient.givenInstructions(Arrays.asList(first, second));
+
+        ArgumentCaptor<Runnable> script = ArgumentCaptor.forClass(Runnable.class);
+        verify(webView, times(1)).post(script.capture());
+        script.getValue().run();
+        verify(webView, times(1)).evaluateJavascript(
+                eq("try {window[\"showPhoneNumber\"]();} catch (e) {}"
+                        + "try {window[\"setStep\"](2);} catch (e) {}"),
+                (ValueCallback<String>) isNull());
+        verify(webView, never()).loadUrl(anyString());
+    }
+
+    @NonNull
+    private Instruction getPinInstruction(String pattern) {
+        Instruction instruction = getPinInstruction();
+        instruction.setArguments(Collections.<Object>singletonList(pattern));
+        instruction.setPinCallbackName("pinCallback");
+        return instruction;
+    }
+
     @NonNull
     private Instruction getPinInstruction() {
         Instruction instruction = new Instruction();
@@ -0,0 +1,179 @@
+package com.telenor.connect.ui;
+
+import android.os.SystemClock;
+import android.webkit.WebView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class LoginSessionKeepAliveTest {
+
+    private static final String PAGE_URL = "https://connect.telenordigital.com/oauth/authorize";
+
+    private WebView webView;
+    private FakeSessionCheck sessionCheck;
+
+    @Before
+    public void beforeEach() {
+        webView = mock(WebView.class);
+        sessionCheck = new FakeSessionCheck();
+    }
+
+    @Test
+    public void resumingFreshSessionOnlySchedulesCheck() {
+        LoginSessionKeepAlive keepAlive = keepAlive(SystemClock.elapsedRealtime());
+
+        keepAlive.onResume();
+
+        assertThat(sessionCheck.callback, is(nullValue()));
+        verify(webView, never()).loadUrl(anyString());
+        verify(webView).postDelayed(any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void resumingOldSessionChecksItInsteadOfReloading() {
+        LoginSessionKeepAlive keepAlive = keepAlive(oldSessionStart());
+
+        keepAlive.onResume();
+
+        assertThat(sessionCheck.url, is(PAGE_URL));
+        verify(webView, never()).loadUrl(anyString());
+    }
+
+    @Test
+    public void expiredSessionFoundByCheckIsReloaded() {
+        LoginSessionKeepAlive keepAlive = keepAlive(oldSessionStart());
+        int reloads = LoginSessionKeepAlive.getReloadCount();
+        int avoided = LoginSessionKeepAlive.getAvoidedReloadCount();
+        keepAlive.onResume();
+
+        sessionCheck.callback.onSessionExpired();
+
+        verify(webView).loadUrl(PAGE_URL);
+        assertThat(LoginSessionKeepAlive.getReloadCount(), is(reloads + 1));
+        assertThat(LoginSessionKeepAlive.getAvoidedReloadCount(), is(avoided));
+    }
+
+    @Test
+    public void validSessionFoundByCheckIsCountedAsAvoidedReload() {
+        LoginSessionKeepAlive keepAlive = keepAlive(SystemClock.elapsedRealtime());
+        int avoided = LoginSessionKeepAlive.getAvoidedReloadCount();
+        keepAlive.onResume();
+        ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        verify(webView).postDelayed(check.capture(), anyLong());
+
+        check.getValue().run();
+        sessionCheck.callback.onSessionValid();
+
+        verify(webView, never()).loadUrl(anyString());
+        verify(webView, times(2)).postDelayed(any(Runnable.class), anyLong());
+        assertThat(LoginSessionKeepAlive.getAvoidedReloadCount(), is(avoided + 1));
+    }
+
+    @Test
+    public void failedCheckIsNeitherReloadNorAvoidedReload() {
+        LoginSessionKeepAlive keepAlive = keepAlive(oldSessionStart());
+        int avoided = LoginSessionKeepAlive.getAvoidedReloadCount();
+        keepAlive.onResume();
+
+        sessionCheck.callback.onCheckFailed();
+
+        verify(webView, never()).loadUrl(anyString());
+        verify(webView).postDelayed(any(Runnable.class), anyLong());
+        assertThat(LoginSessionKeepAlive.getAvoidedReloadCount(), is(avoided));
+    }
+
+    @Test
+    public void checkDueAfterPauseDoesNotCheckOrReload() {
+        LoginSessionKeepAlive keepAlive = keepAlive(SystemClock.elapsedRealtime());
+        keepAlive.onResume();
+        ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        verify(webView).postDelayed(check.capture(), anyLong());
+
+        keepAlive.onPause();
+        check.getValue().run();
+
+        assertThat(sessionCheck.callback, is(nullValue()));
+        verify(webView, never()).loadUrl(anyString());
+    }
+
+    @Test
+    public void sessionExpiredByServerWhilePausedIsReloadedOnResume() {
+        LoginSessionKeepAlive keepAlive = keepAlive(oldSessionStart());
+
+        keepAlive.onSessionExpired();
+        verify(webView, never()).loadUrl(anyString());
+        keepAlive.onResume();
+
+        verify(webView).loadUrl(PAGE_URL);
+        assertThat(sessionCheck.callback, is(nullValue()));
+    }
+
+    @Test
+    public void errorStatusForNewSessionIsNotTakenAsExpiry() {
+        LoginSessionKeepAlive keepAlive = keepAlive(SystemClock.elapsedRealtime());
+        keepAlive.onResume();
+
+        keepAlive.onSessionExpired();
+
+        verify(webView, never()).loadUrl(anyString());
+    }
+
+    @Test
+    public void resumingAfterDestroyViewDoesNotCheckOrReload() {
+        LoginSessionKeepAlive keepAlive = keepAlive(oldSessionStart());
+        keepAlive.onSessionExpired();
+
+        keepAlive.onDestroyView();
+        keepAlive.onResume();
+
+        assertThat(sessionCheck.callback, is(nullValue()));
+        verify(webView, never()).loadUrl(anyString());
+    }
+
+    @Test
+    public void sessionExpiredStatuses() {
+        assertThat(LoginSessionKeepAlive.isSessionExpiredStatus(401), is(true));
+        assertThat(LoginSessionKeepAlive.isSessionExpiredStatus(440), is(true));
+        assertThat(LoginSessionKeepAlive.isSessionExpiredStatus(200), is(false));
+        assertThat(LoginSessionKeepAlive.isSessionExpiredStatus(302), is(false));
+        assertThat(LoginSessionKeepAlive.isSessionExpiredStatus(500), is(false));
+    }
+
+    private LoginSessionKeepAlive keepAlive(long sessionStartedAt) {
+        return new LoginSessionKeepAlive(webView, PAGE_URL, sessionStartedAt, sessionCheck);
+    }
+
+    private static long oldSessionStart() {
+        return SystemClock.elapsedRealtime() - LoginSessionKeepAlive.SESSION_CHECK_MILLIS;
+    }
+
+    private static class FakeSessionCheck implements LoginSessionKeepAlive.SessionCheck {
+
+        String url;
+        Callback callback;
+
+        @Override
+        public void check(String url, Callback callback) {
+            this.url = url;
+            this.callback = callback;
+        }
+    }
+}
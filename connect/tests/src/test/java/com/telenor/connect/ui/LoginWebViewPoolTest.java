@@ -0,0 +1,47 @@
+package com.telenor.connect.ui;
+
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class LoginWebViewPoolTest {
+
+    private static final String AUTHORIZE_URL = "https://connect.telenordigital.com/oauth/authorize"
+            + "?client_id=client&scope=openid&state=abc&log_session_id=1";
+
+    @Test
+    public void sameLoginPageIgnoresLogSessionId() {
+        String otherSession = AUTHORIZE_URL.replace("log_session_id=1", "log_session_id=2");
+
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, otherSession), is(true));
+    }
+
+    @Test
+    public void sameLoginPageIgnoresParameterOrder() {
+        String reordered = "https://connect.telenordigital.com/oauth/authorize"
+                + "?state=abc&scope=openid&client_id=client";
+
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, reordered), is(true));
+    }
+
+    @Test
+    public void differentParametersAreDifferentLoginPages() {
+        String otherScope = AUTHORIZE_URL.replace("scope=openid", "scope=openid%20profile");
+        String otherState = AUTHORIZE_URL.replace("state=abc", "state=def");
+        String extraParameter = AUTHORIZE_URL + "&prompt=no_seam";
+
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, otherScope), is(false));
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, otherState), is(false));
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, extraParameter), is(false));
+    }
+
+    @Test
+    public void differentHostIsDifferentLoginPage() {
+        String staging = AUTHORIZE_URL.replace("connect.", "connect.staging.");
+
+        assertThat(LoginWebViewPool.isSameLoginPage(AUTHORIZE_URL, staging), is(false));
+    }
+}
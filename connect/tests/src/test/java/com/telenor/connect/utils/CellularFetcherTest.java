@@ -0,0 +1,119 @@
+package com.telenor.connect.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class CellularFetcherTest {
+
+    private static final CellularFetcher.Router NEVER_CELLULAR = new CellularFetcher.Router() {
+        @Override
+        public boolean shouldFetchThroughCellular(String url) {
+            return false;
+        }
+    };
+
+    private MockWebServer server;
+
+    @Before
+    public void before() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void followsRedirectsOnPooledConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(302).setHeader("Location", "/next"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        CellularFetcher fetcher = new TestCellularFetcher(5, null);
+
+        Response response = fetcher.fetch(server.url("/start").toString(), NEVER_CELLULAR);
+
+        assertThat(response.body().string(), is("ok"));
+        List<CellularFetcher.Hop> hops = fetcher.getLastHops();
+        assertThat(hops.size(), is(2));
+        assertThat(hops.get(0).isCellular(), is(true));
+        assertThat(hops.get(0).getResponseCode(), is(302));
+        assertThat(hops.get(0).isConnectionReused(), is(false));
+        assertThat(hops.get(1).isCellular(), is(false));
+        assertThat(hops.get(1).getUrl(), is(server.url("/next").toString()));
+        assertThat(hops.get(1).isConnectionReused(), is(true));
+    }
+
+    @Test
+    public void failsOverToDefaultNetworkWhenCellularFails() throws Exception {
+        server.enqueue(new MockResponse().setBody("ok"));
+        CellularFetcher fetcher = new TestCellularFetcher(5, new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                throw new UnknownHostException(hostname);
+            }
+        });
+
+        Response response = fetcher.fetch(server.url("/").toString(), NEVER_CELLULAR);
+
+        assertThat(response.body().string(), is("ok"));
+        assertThat(fetcher.getFailoverCount(), is(1));
+        assertThat(fetcher.getLastHops().get(0).isFailedOver(), is(true));
+        assertThat(fetcher.getLastHops().get(1).isCellular(), is(false));
+    }
+
+    @Test
+    public void givesUpAfterTooManyRedirects() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(302).setHeader("Location", "/"));
+        }
+        CellularFetcher fetcher = new TestCellularFetcher(1, null);
+
+        Response response = fetcher.fetch(server.url("/").toString(), NEVER_CELLULAR);
+
+        assertThat(response, is(nullValue()));
+        assertThat(server.getRequestCount(), is(2));
+    }
+
+    private static class TestCellularFetcher extends CellularFetcher {
+        private final Dns cellularDns;
+
+        TestCellularFetcher(int maxRedirects, Dns cellularDns) {
+            super(maxRedirects);
+            this.cellularDns = cellularDns;
+        }
+
+        @Override
+        OkHttpClient getCellularClient() {
+            if (cellularDns == null) {
+                return getDefaultClient();
+            }
+            return getDefaultClient().newBuilder().dns(cellularDns).build();
+        }
+
+        @Override
+        OkHttpClient getDefaultNetworkClient() {
+            return getDefaultClient();
+        }
+    }
+}
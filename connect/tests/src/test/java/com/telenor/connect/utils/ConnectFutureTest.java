@@ -0,0 +1,133 @@
+package com.telenor.connect.utils;
+
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class ConnectFutureTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingListener implements ConnectFuture.Listener<String> {
+
+        final List<Object> results = new ArrayList<>();
+
+        @Override
+        public void onSuccess(String result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            results.add(error);
+        }
+    }
+
+    @Test
+    public void listenersAddedBeforeAndAfterCompletionAreCalledOnce() {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        RecordingListener before = new RecordingListener();
+        RecordingListener after = new RecordingListener();
+        future.addListener(before, DIRECT);
+
+        assertThat(future.complete("result"), is(true));
+        assertThat(future.complete("other result"), is(false));
+        future.addListener(after, DIRECT);
+
+        assertThat(before.results, is(listOf("result")));
+        assertThat(after.results, is(listOf("result")));
+    }
+
+    @Test
+    public void listenersAreCalledOnTheirExecutor() {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        final List<Runnable> queued = new ArrayList<>();
+        RecordingListener listener = new RecordingListener();
+        future.addListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+
+        future.complete("result");
+
+        assertThat(listener.results.size(), is(0));
+        queued.get(0).run();
+        assertThat(listener.results, is(listOf("result")));
+    }
+
+    @Test
+    public void getThrowsFailure() throws Exception {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        IllegalStateException error = new IllegalStateException();
+        future.fail(error);
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(sameInstance((Throwable) error)));
+        }
+    }
+
+    @Test
+    public void getWaitsForCompletionOnAnotherThread() throws Exception {
+        final ConnectFuture<String> future = new ConnectFuture<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                future.complete("result");
+            }
+        }).start();
+
+        started.countDown();
+
+        assertThat(future.get(5, TimeUnit.SECONDS), is("result"));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getTimesOut() throws Exception {
+        new ConnectFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledFutureThrowsCancellationException() throws Exception {
+        ConnectFuture<String> future = new ConnectFuture<>();
+        future.cancel(false);
+
+        assertThat(future.isCancelled(), is(true));
+        future.get();
+    }
+
+    private static List<Object> listOf(Object value) {
+        List<Object> list = new ArrayList<>();
+        list.add(value);
+        return list;
+    }
+}
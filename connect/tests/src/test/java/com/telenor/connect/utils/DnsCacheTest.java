@@ -0,0 +1,100 @@
+package com.telenor.connect.utils;
+
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class DnsCacheTest {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<String> resolved = new ArrayList<>();
+    private final DnsCache dnsCache = new DnsCache(
+            new DnsCache.Resolver() {
+                @Override
+                public InetAddress[] resolve(String host) throws UnknownHostException {
+                    resolved.add(host);
+                    return new InetAddress[] {InetAddress.getByName("10.0.0.1")};
+                }
+            },
+            new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    scheduled.add(command);
+                }
+            },
+            60000);
+
+    @Test
+    public void prefetchedHostIsAnsweredFromCache() {
+        dnsCache.prefetch(Collections.singletonList("he.example.com"));
+        runScheduled();
+
+        assertThat(dnsCache.getHostAddresses("he.example.com"),
+                is(Collections.singleton("10.0.0.1")));
+        assertThat(dnsCache.getHitCount(), is(1));
+        assertThat(dnsCache.getMissCount(), is(0));
+    }
+
+    @Test
+    public void prefetchSkipsFreshHosts() throws Exception {
+        dnsCache.lookup("he.example.com");
+
+        dnsCache.prefetch(Arrays.asList("he.example.com", "other.example.com"));
+
+        assertThat(scheduled.size(), is(1));
+    }
+
+    @Test
+    public void missIsResolvedOnceInBackground() {
+        assertThat(dnsCache.getHostAddresses("he.example.com"), is(nullValue()));
+        assertThat(dnsCache.getHostAddresses("he.example.com"), is(nullValue()));
+
+        assertThat(scheduled.size(), is(1));
+        assertThat(dnsCache.getMissCount(), is(2));
+        runScheduled();
+        assertThat(resolved, is(Collections.singletonList("he.example.com")));
+    }
+
+    @Test
+    public void lookupResolvesMissOnCallingThreadAndCachesResult() throws Exception {
+        List<InetAddress> first = dnsCache.lookup("he.example.com");
+        List<InetAddress> second = dnsCache.lookup("he.example.com");
+
+        assertThat(second, is(first));
+        assertThat(resolved.size(), is(1));
+        assertThat(dnsCache.getMissCount(), is(1));
+        assertThat(dnsCache.getHitCount(), is(1));
+    }
+
+    @Test
+    public void expiredHostIsResolvedAgain() throws Exception {
+        dnsCache.put("he.example.com",
+                Collections.singletonList(InetAddress.getByName("10.0.0.2")),
+                System.currentTimeMillis() - 1);
+
+        dnsCache.lookup("he.example.com");
+
+        assertThat(resolved.size(), is(1));
+        assertThat(dnsCache.getHostAddresses("he.example.com"),
+                is(Collections.singleton("10.0.0.1")));
+    }
+
+    private void runScheduled() {
+        for (Runnable runnable : new ArrayList<>(scheduled)) {
+            runnable.run();
+        }
+        scheduled.clear();
+    }
+}
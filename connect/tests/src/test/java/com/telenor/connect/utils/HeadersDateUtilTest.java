@@ -48,4 +48,33 @@ public class HeadersDateUtilTest {
         assertThat(abs(actual.getTime()-expected.getTime()) < 1000 , is(true));
     }
 
+    @Test
+    public void expirationTimeUsesMaxAge() {
+        Headers headers = new Headers.Builder()
+                .add("Cache-Control", "public, max-age=3600")
+                .build();
+
+        long actual = HeadersDateUtil.extractExpirationTime(headers, 1000, 0);
+
+        assertThat(actual, is(1000 + 3600 * 1000L));
+    }
+
+    @Test
+    public void expirationTimeUsesDefaultWithoutMaxAge() {
+        long actual = HeadersDateUtil.extractExpirationTime(new Headers.Builder().build(), 1000, 50);
+
+        assertThat(actual, is(1050L));
+    }
+
+    @Test
+    public void expirationTimeIsNowForNoCache() {
+        Headers headers = new Headers.Builder()
+                .add("Cache-Control", "no-cache, max-age=3600")
+                .build();
+
+        long actual = HeadersDateUtil.extractExpirationTime(headers, 1000, 50);
+
+        assertThat(actual, is(1000L));
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.telenor.connect.utils;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.telenor.MicroBenchmark;
+import com.telenor.connect.ConnectException;
+import com.telenor.connect.id.IdToken;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+@Config(sdk = 18)
+public class IdTokenSignatureTest {
+
+    private static final String KEY_ID = "key-1";
+
+    private ECPrivateKey privateKey;
+    private ECKey publicJwk;
+    private JwkSetCache jwkSetCache;
+
+    @Before
+    public void before() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        privateKey = (ECPrivateKey) keyPair.getPrivate();
+        publicJwk = new ECKey.Builder(ECKey.Curve.P_256, (ECPublicKey) keyPair.getPublic())
+                .keyID(KEY_ID)
+                .build();
+        jwkSetCache = new JwkSetCache(null, null);
+        jwkSetCache.setJwkSet(new JWKSet(publicJwk), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void validSignatureIsAccepted() throws Exception {
+        IdTokenValidator.verifySignature(signedIdToken(KEY_ID, "12345678"), jwkSetCache);
+    }
+
+    @Test(expected = ConnectException.class)
+    public void tamperedTokenIsRejected() throws Exception {
+        String[] parts = signedIdToken(KEY_ID, "12345678").getSerializedSignedJwt().split("\\.");
+        String otherPayload = signedIdToken(KEY_ID, "87654321")
+                .getSerializedSignedJwt().split("\\.")[1];
+
+        IdTokenValidator.verifySignature(
+                new IdToken(parts[0] + "." + otherPayload + "." + parts[2]), jwkSetCache);
+    }
+
+    @Test(expected = ConnectException.class)
+    public void unknownKeyIdIsRejected() throws Exception {
+        IdTokenValidator.verifySignature(signedIdToken("key-2", "12345678"), jwkSetCache);
+    }
+
+    @Test
+    public void tokenWithoutKeyIdIsVerifiedWithOnlyKeyOfItsType() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAKey rsaJwk = new RSAKey.Builder((RSAPublicKey) generator.generateKeyPair().getPublic())
+                .keyID("key-2")
+                .build();
+        jwkSetCache.setJwkSet(
+                new JWKSet(Arrays.<JWK>asList(rsaJwk, publicJwk)), Long.MAX_VALUE);
+
+        IdTokenValidator.verifySignature(signedIdToken(null, "12345678"), jwkSetCache);
+    }
+
+    @Test(expected = ConnectException.class)
+    public void tokenWithoutKeyIdIsRejectedWhenSeveralKeysMatch() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECKey otherJwk = new ECKey.Builder(
+                ECKey.Curve.P_256, (ECPublicKey) generator.generateKeyPair().getPublic())
+                .keyID("key-2")
+                .build();
+        jwkSetCache.setJwkSet(
+                new JWKSet(Arrays.<JWK>asList(otherJwk, publicJwk)), Long.MAX_VALUE);
+
+        IdTokenValidator.verifySignature(signedIdToken(null, "12345678"), jwkSetCache);
+    }
+
+    @Test
+    public void verificationBenchmark() throws Exception {
+        final IdToken idToken = signedIdToken(KEY_ID, "12345678");
+        MicroBenchmark.Result result = MicroBenchmark.run(
+                "verify ES256 ID token", 200, 2000, new Runnable() {
+            @Override
+            public void run() {
+                IdTokenValidator.verifySignature(idToken, jwkSetCache);
+            }
+        });
+
+        assertThat(result.nanosPerOperation,
+                lessThan((double) TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    private IdToken signedIdToken(String keyId, String subject) throws Exception {
+        JWTClaimsSet claimsSet = new JWTClaimsSet();
+        claimsSet.setSubject(subject);
+        claimsSet.setExpirationTime(new Date(System.currentTimeMillis() + 3600 * 1000));
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(keyId).build();
+        SignedJWT signedJwt = new SignedJWT(header, claimsSet);
+        signedJwt.sign(new ECDSASigner(privateKey.getS()));
+        return new IdToken(signedJwt.serialize());
+    }
+}
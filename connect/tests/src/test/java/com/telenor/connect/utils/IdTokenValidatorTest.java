@@ -3,6 +3,7 @@ package com.telenor.connect.utils;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import com.telenor.connect.ConnectException;
@@ -73,7 +74,7 @@ public class IdTokenValidatorTest {
 
     @Test(expected = ConnectException.class)
     public void brokenJwtThrowsConnectException() {
-        IdTokenValidator.validate(new IdToken("<not correct>"), null);
+        IdTokenValidator.validate(new IdToken("<not correct>"), null, null);
     }
 
     @Test
@@ -86,7 +87,21 @@ public class IdTokenValidatorTest {
         BDDMockito.given(ConnectSdk.getExpectedAudiences())
                 .willReturn(Collections.singletonList("connect-tests"));
 
-        IdTokenValidator.validate(normalSerializedSignedJwt, null);
+        IdTokenValidator.validate(normalSerializedSignedJwt, null, null);
+    }
+
+    @Test(expected = ConnectException.class)
+    public void tokenSignedWithKeyMissingFromGivenCacheThrows() {
+        BDDMockito.given(ConnectSdk.getClientId()).willReturn("connect-tests");
+        BDDMockito.given(ConnectSdk.getExpectedIssuer())
+                .willReturn("https://connect.telenordigital.com/oauth");
+        BDDMockito.given(ConnectSdk.getExpectedAudiences())
+                .willReturn(Collections.singletonList("connect-tests"));
+        JwkSetCache jwkSetCache = new JwkSetCache(null, null);
+        jwkSetCache.setJwksUri("https://connect.telenordigital.com/oauth/public_keys.jwks");
+        jwkSetCache.setJwkSet(new JWKSet(), Long.MAX_VALUE);
+
+        IdTokenValidator.validate(normalSerializedSignedJwt, null, jwkSetCache);
     }
 
     @Test(expected = ConnectException.class)
@@ -97,7 +112,7 @@ public class IdTokenValidatorTest {
         BDDMockito.given(ConnectSdk.getExpectedIssuer())
                 .willReturn("https://connect.telenordigital.com/oauth");
 
-        IdTokenValidator.validate(normalSerializedSignedJwt, null);
+        IdTokenValidator.validate(normalSerializedSignedJwt, null, null);
     }
 
     @Test(expected = ConnectException.class)
@@ -108,7 +123,7 @@ public class IdTokenValidatorTest {
         BDDMockito.given(ConnectSdk.getExpectedIssuer())
                 .willReturn("https://connect.telenordigital.com/oauth");
 
-        IdTokenValidator.validate(normalSerializedSignedJwt, null);
+        IdTokenValidator.validate(normalSerializedSignedJwt, null, null);
     }
 
     @Test(expected = ConnectException.class)
@@ -131,7 +146,7 @@ public class IdTokenValidatorTest {
         IdToken idToken = new IdToken(signedJWT.serialize());
 
 
-        IdTokenValidator.validate(idToken, null);
+        IdTokenValidator.validate(idToken, null, null);
     }
 
     @Test(expected = ConnectException.class)
@@ -152,7 +167,7 @@ public class IdTokenValidatorTest {
         signedJWT.sign(new ECDSASigner(new BigInteger("123")));
         IdToken idToken = new IdToken(signedJWT.serialize());
 
-        IdTokenValidator.validate(idToken, null);
+        IdTokenValidator.validate(idToken, null, null);
     }
 
     @Test(expected = ConnectException.class)
@@ -173,7 +188,7 @@ public class IdTokenValidatorTest {
         signedJWT.sign(new ECDSASigner(new BigInteger("123")));
         IdToken idToken = new IdToken(signedJWT.serialize());
 
-        IdTokenValidator.validate(idToken, null);
+        IdTokenValidator.validate(idToken, null, null);
     }
 
     @Test
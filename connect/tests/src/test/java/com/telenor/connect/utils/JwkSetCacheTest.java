@@ -0,0 +1,152 @@
+package com.telenor.connect.utils;
+
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.telenor.TestHelper;
+import com.telenor.connect.JwksAPI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static junit.framework.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class JwkSetCacheTest {
+
+    private static final String KEY_ID = "key-1";
+
+    private MockWebServer server;
+    private JwksAPI jwksApi;
+    private String jwksJson;
+
+    @Before
+    public void before() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECKey key = new ECKey.Builder(
+                ECKey.Curve.P_256, (ECPublicKey) generator.generateKeyPair().getPublic())
+                .keyID(KEY_ID)
+                .build();
+        jwksJson = new JWKSet(key).toString();
+        server = new MockWebServer();
+        server.start();
+        jwksApi = RestHelper.getJwksApi(server.url("/").toString());
+    }
+
+    @After
+    public void after() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void unknownKeyIsFetchedOnceForConcurrentCallers() throws Exception {
+        final int callers = 10;
+        final CountDownLatch allCallersAttached = new CountDownLatch(callers);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                allCallersAttached.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody(jwksJson);
+            }
+        });
+        JwkSetCache jwkSetCache = newJwkSetCache();
+
+        final AtomicInteger available = new AtomicInteger();
+        for (int i = 0; i < callers; i++) {
+            jwkSetCache.ensureKey(KEY_ID, new CountingKeyCallback(available));
+            allCallersAttached.countDown();
+        }
+
+        assertThat(waitFor(available, callers), is(true));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void fetchedKeysAreReadFromDiskWithoutNetwork() throws Exception {
+        server.enqueue(new MockResponse().setBody(jwksJson));
+        final AtomicInteger available = new AtomicInteger();
+        newJwkSetCache().ensureKey(KEY_ID, new CountingKeyCallback(available));
+        assertThat(waitFor(available, 1), is(true));
+
+        JwkSetCache restarted = newJwkSetCache();
+
+        assertThat(restarted.getKey(KEY_ID), is(notNullValue()));
+        assertThat(server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void expiredKeySetIsRevalidatedWithEtag() throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(jwksJson)
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "max-age=0"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        JwkSetCache jwkSetCache = newJwkSetCache();
+        final AtomicInteger available = new AtomicInteger();
+        jwkSetCache.ensureKey(KEY_ID, new CountingKeyCallback(available));
+        assertThat(waitFor(available, 1), is(true));
+
+        jwkSetCache.ensureKey(KEY_ID, new CountingKeyCallback(available));
+
+        assertThat(available.get(), is(2));
+        server.takeRequest();
+        RecordedRequest revalidation = server.takeRequest(10, TimeUnit.SECONDS);
+        assertThat(revalidation.getHeader("If-None-Match"), is("\"v1\""));
+    }
+
+    private JwkSetCache newJwkSetCache() {
+        JwkSetCache jwkSetCache = new JwkSetCache(RuntimeEnvironment.application, jwksApi);
+        jwkSetCache.setJwksUri(server.url("/oauth/public_keys.jwks").toString());
+        return jwkSetCache;
+    }
+
+    private static boolean waitFor(final AtomicInteger counter, final int expected) {
+        return TestHelper.flushForegroundTasksUntilCallerIsSatisifed(
+                10000,
+                new TestHelper.BooleanSupplier() {
+                    @Override
+                    public boolean getAsBoolean() {
+                        return counter.get() == expected;
+                    }
+                });
+    }
+
+    private static class CountingKeyCallback implements JwkSetCache.KeyCallback {
+        private final AtomicInteger available;
+
+        CountingKeyCallback(AtomicInteger available) {
+            this.available = available;
+        }
+
+        @Override
+        public void onKeyAvailable() {
+            available.incrementAndGet();
+        }
+
+        @Override
+        public void onKeyUnavailable(Throwable error) {
+            fail("Key unavailable: " + error);
+        }
+    }
+}
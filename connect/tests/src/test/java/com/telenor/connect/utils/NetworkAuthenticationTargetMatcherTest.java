@@ -0,0 +1,125 @@
+package com.telenor.connect.utils;
+
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class NetworkAuthenticationTargetMatcherTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final DnsCache dnsCache = new DnsCache(DnsCache.SYSTEM_RESOLVER, new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            scheduled.add(command);
+        }
+    }, 60000);
+
+    @Test
+    public void matchesUrlContainingAnyTargetUrl() {
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                Arrays.asList("he.example.com/", "abcd", "bc"), NONE, dnsCache);
+
+        assertThat(matcher.matches("https://he.example.com/start"), is(true));
+        assertThat(matcher.matches("https://example.com/?q=xbcx"), is(true));
+        assertThat(matcher.matches("https://example.com/abx"), is(false));
+        assertThat(matcher.matches("https://he.example.co/"), is(false));
+    }
+
+    @Test
+    public void matchesTargetFollowingPartialMatch() {
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                Arrays.asList("aab", "abc"), NONE, dnsCache);
+
+        assertThat(matcher.matches("aaabc"), is(true));
+        assertThat(matcher.matches("aaac"), is(false));
+    }
+
+    @Test
+    public void matchesSameUrlsAsContains() {
+        List<String> targets = Arrays.asList("ab", "bab", "bca", "c", "caa");
+        NetworkAuthenticationTargetMatcher matcher
+                = new NetworkAuthenticationTargetMatcher(targets, NONE, dnsCache);
+        String[] urls = {"", "a", "b", "aba", "babb", "bbca", "aaaa", "baba", "ddc", "caab"};
+
+        for (String url : urls) {
+            boolean contains = false;
+            for (String target : targets) {
+                contains |= url.contains(target);
+            }
+            assertThat(url, matcher.matches(url), is(contains));
+        }
+    }
+
+    @Test
+    public void emptyTargetUrlMatchesEverything() {
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                Collections.singletonList(""), NONE, dnsCache);
+
+        assertThat(matcher.matches("https://example.com/"), is(true));
+    }
+
+    @Test
+    public void noTargetsMatchNothing() {
+        NetworkAuthenticationTargetMatcher matcher
+                = new NetworkAuthenticationTargetMatcher(NONE, NONE, dnsCache);
+
+        assertThat(matcher.isEmpty(), is(true));
+        assertThat(matcher.matches("https://example.com/"), is(false));
+    }
+
+    @Test
+    public void matchesIpAddressHostWithoutLookup() {
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                NONE, Collections.singletonList("10.0.0.1"), dnsCache);
+
+        assertThat(matcher.matches("http://10.0.0.1/he"), is(true));
+        assertThat(scheduled.isEmpty(), is(true));
+    }
+
+    @Test
+    public void unresolvedHostDoesNotMatchAndIsResolvedInBackground() {
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                NONE, Collections.singletonList("10.0.0.1"), dnsCache);
+
+        assertThat(matcher.matches("https://he.example.com/"), is(false));
+        assertThat(matcher.matches("https://he.example.com/"), is(false));
+
+        assertThat(scheduled.size(), is(1));
+    }
+
+    @Test
+    public void matchesCachedHostAddress() throws Exception {
+        dnsCache.put("he.example.com",
+                Arrays.asList(InetAddress.getByName("10.0.0.2"), InetAddress.getByName("10.0.0.1")),
+                System.currentTimeMillis() + 60000);
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                NONE, Collections.singletonList("10.0.0.1"), dnsCache);
+
+        assertThat(matcher.matches("https://he.example.com/"), is(true));
+        assertThat(scheduled.isEmpty(), is(true));
+    }
+
+    @Test
+    public void expiredHostAddressesAreUsedWhileRefreshing() throws Exception {
+        dnsCache.put("he.example.com",
+                Collections.singletonList(InetAddress.getByName("10.0.0.1")),
+                System.currentTimeMillis() - 1);
+        NetworkAuthenticationTargetMatcher matcher = new NetworkAuthenticationTargetMatcher(
+                NONE, Collections.singletonList("10.0.0.1"), dnsCache);
+
+        assertThat(matcher.matches("https://he.example.com/"), is(true));
+        assertThat(scheduled.size(), is(1));
+    }
+}
@@ -0,0 +1,105 @@
+package com.telenor.connect.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Authenticator;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Config(sdk = 18)
+public class RestHelperTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void before() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        RestHelper.setOkHttpClient(null);
+        server.shutdown();
+    }
+
+    @Test
+    public void apisDoNotUseInterceptorsOfInjectedClient() throws Exception {
+        OkHttpClient appClient = new OkHttpClient.Builder()
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        return chain.proceed(chain.request().newBuilder()
+                                .header("X-App", "host app")
+                                .build());
+                    }
+                })
+                .build();
+        RestHelper.setOkHttpClient(appClient);
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        RestHelper.getWellKnownApi(server.url("/").toString()).getWellKnownConfig().execute();
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("X-App"), is(nullValue()));
+        assertThat(request.getHeader("Accept"), is("application/json"));
+    }
+
+    @Test
+    public void sdkClientsShareConnectionPoolAndDispatcherButNotTimeouts() {
+        OkHttpClient appClient = new OkHttpClient.Builder()
+                .readTimeout(2, TimeUnit.MINUTES)
+                .authenticator(new Authenticator() {
+                    @Override
+                    public Request authenticate(Route route, Response response) {
+                        return null;
+                    }
+                })
+                .build();
+        RestHelper.setOkHttpClient(appClient);
+
+        OkHttpClient sdkClient = RestHelper.newClientBuilder().build();
+
+        assertThat(sdkClient.connectionPool(), is(sameInstance(appClient.connectionPool())));
+        assertThat(sdkClient.dispatcher(), is(sameInstance(appClient.dispatcher())));
+        assertThat(sdkClient.sslSocketFactory(), is(sameInstance(appClient.sslSocketFactory())));
+        assertThat(sdkClient.readTimeoutMillis(), is(10000));
+        assertThat(sdkClient.authenticator(), is(Authenticator.NONE));
+    }
+
+    @Test
+    public void defaultClientIsShared() {
+        assertThat(RestHelper.getOkHttpClient(), is(sameInstance(RestHelper.getOkHttpClient())));
+    }
+
+    @Test
+    public void apisReuseConnectionsToTheSameHost() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        String endpoint = server.url("/").toString();
+
+        RestHelper.getWellKnownApi(endpoint).getWellKnownConfig().execute();
+        RestHelper.getJwksApi(endpoint).getJwks(server.url("/jwks").toString(), null)
+                .execute().body().close();
+
+        server.takeRequest();
+        assertThat(server.takeRequest().getSequenceNumber(), is(1));
+    }
+}
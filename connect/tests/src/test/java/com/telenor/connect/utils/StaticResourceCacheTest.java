@@ -0,0 +1,167 @@
+package com.telenor.connect.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 18)
+public class StaticResourceCacheTest {
+
+    private static final String CSS = "body { color: black; }";
+    private static final String JS = "console.log('connect');";
+
+    private MockWebServer server;
+    private File directory;
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void before() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        directory = File.createTempFile("static", "resources");
+        directory.delete();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void listedResourcesAreServedFromDiskAfterRestart() throws Exception {
+        enqueueManifest("\"v1\"", "sha256-" + ByteString.encodeUtf8(JS).sha256().base64());
+
+        newCache(1024).refresh();
+        StaticResourceCache.Resource css = newCache(1024).get(server.url("/static/app.css").toString());
+
+        assertThat(css.getMimeType(), is("text/css"));
+        assertThat(css.getEncoding(), is("UTF-8"));
+        assertThat(new String(css.getData(), "UTF-8"), is(CSS));
+        assertThat(server.getRequestCount(), is(3));
+    }
+
+    @Test
+    public void resourceFailingIntegrityCheckIsNotCached() throws Exception {
+        enqueueManifest(null, "sha256-" + ByteString.encodeUtf8("other").sha256().base64());
+        StaticResourceCache cache = newCache(1024);
+
+        cache.refresh();
+
+        assertThat(cache.get(server.url("/static/app.js").toString()), is(nullValue()));
+        assertThat(cache.get(server.url("/static/app.css").toString()), is(notNullValue()));
+    }
+
+    @Test
+    public void unchangedManifestIsRevalidatedWithoutDownloads() throws Exception {
+        enqueueManifest("\"v1\"", null);
+        server.enqueue(new MockResponse().setResponseCode(304));
+        StaticResourceCache cache = newCache(1024);
+        cache.refresh();
+
+        cache.refresh();
+
+        assertThat(server.getRequestCount(), is(4));
+        server.takeRequest();
+        server.takeRequest();
+        server.takeRequest();
+        assertThat(server.takeRequest().getHeader("If-None-Match"), is("\"v1\""));
+        assertThat(cache.get(server.url("/static/app.js").toString()), is(notNullValue()));
+    }
+
+    @Test
+    public void corruptResourceIsNotServed() throws Exception {
+        enqueueManifest(null, null);
+        StaticResourceCache cache = newCache(1024);
+        cache.refresh();
+
+        for (File file : directory.listFiles()) {
+            if (!file.getName().equals("index")) {
+                FileOutputStream out = new FileOutputStream(file);
+                out.write(1);
+                out.close();
+            }
+        }
+
+        assertThat(cache.get(server.url("/static/app.css").toString()), is(nullValue()));
+        assertThat(cache.getMissCount(), is(1));
+    }
+
+    @Test
+    public void leastRecentlyServedResourcesAreEvicted() throws Exception {
+        enqueueManifest(null, null);
+        StaticResourceCache cache = newCache(JS.length());
+
+        cache.refresh();
+
+        assertThat(cache.get(server.url("/static/app.css").toString()), is(nullValue()));
+        assertThat(cache.get(server.url("/static/app.js").toString()), is(notNullValue()));
+    }
+
+    @Test
+    public void manifestResourcesAreResolvedAgainstPageUrl() {
+        Map<String, String> resources = StaticResourceCache.parseManifest(
+                HttpUrl.parse("https://connect.telenordigital.com/id/prefetch"),
+                "<html><head>"
+                        + "<link rel=\"stylesheet\" href=\"/static/app.css\">"
+                        + "<script integrity='sha256-abc' src=\"app.js\"></script>"
+                        + "</head><body><img src=\"https://cdn.example.com/logo.png\"/></body></html>");
+
+        assertThat(resources.size(), is(3));
+        assertThat(resources.get("https://connect.telenordigital.com/static/app.css"),
+                is(nullValue()));
+        assertThat(resources.get("https://connect.telenordigital.com/id/app.js"),
+                is("sha256-abc"));
+        assertThat(resources.containsKey("https://cdn.example.com/logo.png"), is(true));
+    }
+
+    private StaticResourceCache newCache(long maxBytes) {
+        return new StaticResourceCache(
+                directory, client, server.url("/id/prefetch").toString(), maxBytes, 0);
+    }
+
+    private void enqueueManifest(String etag, String scriptIntegrity) {
+        MockResponse manifest = new MockResponse()
+                .setHeader("Content-Type", "text/html")
+                .setBody("<html><head>"
+                        + "<link rel=\"stylesheet\" href=\"/static/app.css\">"
+                        + "<script src=\"/static/app.js\""
+                        + (scriptIntegrity != null ? " integrity=\"" + scriptIntegrity + "\"" : "")
+                        + "></script></head></html>");
+        if (etag != null) {
+            manifest.setHeader("ETag", etag);
+        }
+        server.enqueue(manifest);
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/css; charset=UTF-8")
+                .setBody(CSS));
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/javascript")
+                .setBody(JS));
+    }
+}
@@ -85,7 +85,7 @@ public class ValidatorTest {
                 "scope",
                 "type");
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -100,7 +100,7 @@ public class ValidatorTest {
                 "scope",
                 "type");
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 
     public void validateTokensMissingIdTokenIsAllowed() {
@@ -112,7 +112,7 @@ public class ValidatorTest {
                 "scope",
                 "type");
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -127,7 +127,7 @@ public class ValidatorTest {
                 "scope",
                 "type");
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -142,7 +142,7 @@ public class ValidatorTest {
                 null,
                 "type");
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -157,6 +157,6 @@ public class ValidatorTest {
                 "scope",
                 null);
 
-        Validator.validateTokens(connectTokensTO, null);
+        Validator.validateTokens(connectTokensTO, null, null);
     }
 }